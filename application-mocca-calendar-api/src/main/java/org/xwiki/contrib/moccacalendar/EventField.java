@@ -0,0 +1,39 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The optional data of the event instances, which callers of the event queries can leave out when they do not display
+ * it. The dates, title, document and flags of the events are always set.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Unstable
+public enum EventField
+{
+    /** The plain text and HTML descriptions of the events, rendered only when they are first requested. */
+    DESCRIPTION,
+
+    /** The text and background colors of the events, which might come from their calendar. */
+    COLORS
+}
@@ -20,6 +20,7 @@
 package org.xwiki.contrib.moccacalendar;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 import org.xwiki.model.reference.DocumentReference;
 
@@ -30,17 +31,48 @@ import org.xwiki.model.reference.DocumentReference;
  * For recurrent events the generators must set the startDate and endDate
  * for the event; the rest can be figured out by the calendar service.
  *
+ * As a query can return many instances, the dates are stored as milliseconds and the (jodatime) dates are only
+ * created when they are requested, in the time zone of the date which was set. The colors and the source are kept as
+ * given, so the instances of a calendar or a source share the strings cached for it.
+ *
  * @version $Id: $
  * @since 2.7
  */
 public class EventInstance
 {
+    /**
+     * Fills the description of an event when it is requested for the first time, as rendering the description can
+     * be expensive and many callers do not display it.
+     *
+     * @version $Id$
+     * @since 2.20
+     */
+    @FunctionalInterface
+    public interface DescriptionProvider
+    {
+        /**
+         * Set the plain text and HTML descriptions of the given event.
+         *
+         * @param event the event whose description is requested
+         */
+        void fillDescription(EventInstance event);
+    }
+
     private DocumentReference eventDocRef;
 
-    private DateTime startDate;
-    private DateTime originalStartDate;
-    private DateTime endDate;
-    private DateTime endDateExclusive;
+    /** Marks a date which has not been set. */
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private long startDate = UNSET;
+    private long originalStartDate = UNSET;
+    private long endDate = UNSET;
+    private long endDateExclusive = UNSET;
+
+    // the time zone of each date; time zones are shared, so this costs a reference per date
+    private DateTimeZone startZone;
+    private DateTimeZone originalStartZone;
+    private DateTimeZone endZone;
+    private DateTimeZone endExclusiveZone;
 
     private boolean allDay;
     private boolean recurrent;
@@ -51,6 +83,7 @@ public class EventInstance
     private String title;
     private String description;
     private String descriptionHtml;
+    private DescriptionProvider descriptionProvider;
 
     private String textColor;
     private String backgroundColor;
@@ -84,7 +117,7 @@ public class EventInstance
      */
     public DateTime getStartDate()
     {
-        return startDate;
+        return toDateTime(startDate, startZone);
     }
 
     /**
@@ -95,7 +128,8 @@ public class EventInstance
      */
     public void setStartDate(DateTime startDate)
     {
-        this.startDate = startDate;
+        this.startDate = toMillis(startDate);
+        this.startZone = toZone(startDate);
     }
 
     /**
@@ -106,7 +140,7 @@ public class EventInstance
      */
     public DateTime getOriginalStartDate()
     {
-        return originalStartDate;
+        return toDateTime(originalStartDate, originalStartZone);
     }
 
     /**
@@ -116,7 +150,8 @@ public class EventInstance
      */
     public void setOriginalStartDate(DateTime originalStartDate)
     {
-        this.originalStartDate = originalStartDate;
+        this.originalStartDate = toMillis(originalStartDate);
+        this.originalStartZone = toZone(originalStartDate);
     }
 
     /**
@@ -126,7 +161,7 @@ public class EventInstance
      */
     public DateTime getEndDate()
     {
-        return endDate;
+        return toDateTime(endDate, endZone);
     }
 
     /**
@@ -137,17 +172,26 @@ public class EventInstance
      */
     public void setEndDate(DateTime endDate)
     {
-        this.endDate = endDate;
+        this.endDate = toMillis(endDate);
+        this.endZone = toZone(endDate);
     }
 
     /**
      * A date after the event has ended.
+     * Unless set explicitly, this is the start of the next day after the end date for all-day events, and the end
+     * date for the other events.
      *
      * @return a (jodatime) date
      */
     public DateTime getEndDateExclusive()
     {
-        return endDateExclusive;
+        if (endDateExclusive != UNSET) {
+            return toDateTime(endDateExclusive, endExclusiveZone);
+        }
+        DateTime end = getEndDate();
+        // as end date is actually treated exclusive by the calendar
+        // but inclusive by the input data:
+        return (end != null && allDay) ? end.plusDays(1) : end;
     }
 
     /**
@@ -158,7 +202,8 @@ public class EventInstance
      */
     public void setEndDateExclusive(DateTime endDateExclusive)
     {
-        this.endDateExclusive = endDateExclusive;
+        this.endDateExclusive = toMillis(endDateExclusive);
+        this.endExclusiveZone = toZone(endDateExclusive);
     }
 
     /**
@@ -229,6 +274,7 @@ public class EventInstance
      */
     public String getDescription()
     {
+        loadDescription();
         return description;
     }
 
@@ -249,6 +295,7 @@ public class EventInstance
      */
     public String getDescriptionHtml()
     {
+        loadDescription();
         return descriptionHtml;
     }
 
@@ -262,6 +309,29 @@ public class EventInstance
         this.descriptionHtml = descriptionHtml;
     }
 
+    /**
+     * Set the provider of the description, so that the description is only rendered if it is requested.
+     *
+     * @param descriptionProvider fills the plain text and HTML descriptions of this event when they are first
+     *     requested
+     * @since 2.20
+     */
+    public void setDescriptionProvider(DescriptionProvider descriptionProvider)
+    {
+        this.descriptionProvider = descriptionProvider;
+    }
+
+    /**
+     * Check if the event has a description, without rendering it.
+     *
+     * @return true if a description or a description provider has been set
+     * @since 2.20
+     */
+    public boolean hasDescription()
+    {
+        return description != null || descriptionProvider != null;
+    }
+
     /**
      * The font color to be used to render this event in the calendar overview
      * (as RGB string).
@@ -366,4 +436,27 @@ public class EventInstance
         this.movable = movable;
     }
 
+    private void loadDescription()
+    {
+        if (descriptionProvider != null) {
+            DescriptionProvider provider = descriptionProvider;
+            descriptionProvider = null;
+            provider.fillDescription(this);
+        }
+    }
+
+    private static long toMillis(DateTime date)
+    {
+        return (date == null) ? UNSET : date.getMillis();
+    }
+
+    private static DateTimeZone toZone(DateTime date)
+    {
+        return (date == null) ? null : date.getZone();
+    }
+
+    private static DateTime toDateTime(long millis, DateTimeZone zone)
+    {
+        return (millis == UNSET) ? null : new DateTime(millis, zone);
+    }
 }
@@ -105,4 +105,17 @@ public interface EventSource
     {
         return null;
     }
+
+    /**
+     * The sheet displaying the events of this source in the calendar, instead of the sheet of their document.
+     * The default implementation returns the generic event view, which gets the event from
+     * {@link #getEventInstance(Document, Date)}.
+     *
+     * @return the full name of a sheet document, never null
+     * @since 2.20
+     */
+    default String getDisplaySheet()
+    {
+        return "MoccaCalendar.Code.EventViews.Generic";
+    }
 }
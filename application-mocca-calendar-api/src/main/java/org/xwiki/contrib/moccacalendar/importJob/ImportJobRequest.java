@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.moccacalendar.importJob;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,12 +36,16 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class ImportJobRequest extends AbstractRequest
 {
-    private byte[] file;
+    private File file;
 
     private String parentRef;
 
     private DocumentReference userReference;
 
+    private boolean sync;
+
+    private boolean resume;
+
     /**
      * Default constructor.
      */
@@ -53,11 +58,12 @@ public class ImportJobRequest extends AbstractRequest
      * Creates a specific request for the ical file import job.
      *
      * @param requestId the ID of the request.
-     * @param file the file to be processed.
+     * @param file the file to be processed, stored on disk while the job is running.
      * @param parentRef the reference to the parent calendar.
      * @param userReference the user who requests the job.
+     * @since 2.20
      */
-    public ImportJobRequest(List<String> requestId, byte[] file, String parentRef, DocumentReference userReference)
+    public ImportJobRequest(List<String> requestId, File file, String parentRef, DocumentReference userReference)
     {
 
         setId(requestId);
@@ -67,11 +73,12 @@ public class ImportJobRequest extends AbstractRequest
     }
 
     /**
-     * Get the content of the given file.
+     * Get the file to be imported. The file is removed once the job is finished.
      *
-     * @return the content of the file as a {@link Byte} array.
+     * @return the file holding the content to be imported.
+     * @since 2.20
      */
-    public byte[] getFile()
+    public File getFile()
     {
         return file;
     }
@@ -96,6 +103,47 @@ public class ImportJobRequest extends AbstractRequest
         return userReference;
     }
 
+    /**
+     * Whether the events imported before from the same file should be updated instead of imported again.
+     *
+     * @return {@code true} if only new and modified events should be imported
+     * @since 2.20
+     */
+    public boolean isSync()
+    {
+        return sync;
+    }
+
+    /**
+     * @param sync {@code true} to only import the new and modified events of the file, see {@link #isSync()}
+     * @since 2.20
+     */
+    public void setSync(boolean sync)
+    {
+        this.sync = sync;
+    }
+
+    /**
+     * Whether the previous import of the file in the same calendar should be continued, skipping the events it has
+     * already saved.
+     *
+     * @return {@code true} to resume the previous import
+     * @since 2.20
+     */
+    public boolean isResume()
+    {
+        return resume;
+    }
+
+    /**
+     * @param resume {@code true} to resume the previous import, see {@link #isResume()}
+     * @since 2.20
+     */
+    public void setResume(boolean resume)
+    {
+        this.resume = resume;
+    }
+
     private void setDefaultId()
     {
         List<String> id = new ArrayList<>();
@@ -19,8 +19,9 @@
  */
 package org.xwiki.contrib.moccacalendar.importJob;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.xwiki.job.DefaultJobStatus;
 import org.xwiki.logging.LoggerManager;
@@ -36,7 +37,13 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class ImportJobStatus extends DefaultJobStatus<ImportJobRequest>
 {
-    private List<String> uidList = new ArrayList<>();
+    private Set<String> uids = new HashSet<>();
+
+    private String fileChecksum;
+
+    private int importedEntryCount;
+
+    private int queuePosition;
 
     /**
      * Create a new import job status.
@@ -60,7 +67,7 @@ public class ImportJobStatus extends DefaultJobStatus<ImportJobRequest>
      */
     public void storeUID(String uid)
     {
-        uidList.add(uid);
+        uids.add(uid);
     }
 
     /**
@@ -71,6 +78,78 @@ public class ImportJobStatus extends DefaultJobStatus<ImportJobRequest>
      */
     public boolean isDuplicate(String uid)
     {
-        return uidList.contains(uid);
+        return uids.contains(uid);
+    }
+
+    /**
+     * Get the UIDs of the events imported so far.
+     *
+     * @return the UIDs of the imported events
+     * @since 2.20
+     */
+    public Set<String> getStoredUIDs()
+    {
+        return Collections.unmodifiableSet(uids);
+    }
+
+    /**
+     * Get the checksum of the imported file, used to recognize the file when the import is resumed.
+     *
+     * @return the SHA-256 checksum of the imported file
+     * @since 2.20
+     */
+    public String getFileChecksum()
+    {
+        return fileChecksum;
+    }
+
+    /**
+     * @param fileChecksum the SHA-256 checksum of the imported file
+     * @since 2.20
+     */
+    public void setFileChecksum(String fileChecksum)
+    {
+        this.fileChecksum = fileChecksum;
+    }
+
+    /**
+     * Get the number of entries of the file which have been read and saved. The entries are events, together with the
+     * modified instances of the event when it is recurrent.
+     *
+     * @return the number of entries imported so far
+     * @since 2.20
+     */
+    public int getImportedEntryCount()
+    {
+        return importedEntryCount;
+    }
+
+    /**
+     * @param importedEntryCount the number of entries imported so far
+     * @since 2.20
+     */
+    public void setImportedEntryCount(int importedEntryCount)
+    {
+        this.importedEntryCount = importedEntryCount;
+    }
+
+    /**
+     * Get the position of the job in the queue of the import jobs waiting to run.
+     *
+     * @return the position of the job in the queue, starting at 1, or 0 if the job is not waiting
+     * @since 2.20
+     */
+    public int getQueuePosition()
+    {
+        return queuePosition;
+    }
+
+    /**
+     * @param queuePosition the position of the job in the queue, see {@link #getQueuePosition()}
+     * @since 2.20
+     */
+    public void setQueuePosition(int queuePosition)
+    {
+        this.queuePosition = queuePosition;
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.XObjectAddedEvent;
+import com.xpn.xwiki.internal.event.XObjectDeletedEvent;
+import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.objects.BaseObjectReference;
+
+/**
+ * Invalidate the cached information about a calendar when a calendar object is added to, modified in or removed from
+ * a document.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Named("org.xwiki.contrib.moccacalendar.internal.CalendarClassListener")
+@Singleton
+@Component
+public class CalendarClassListener implements EventListener
+{
+    @Inject
+    private CalendarDocumentCache calendarDocumentCache;
+
+    @Inject
+    private CalendarColorCache calendarColorCache;
+
+    @Override
+    public String getName()
+    {
+        return getClass().getName();
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.asList(
+            new XObjectAddedEvent(BaseObjectReference.any(EventConstants.MOCCA_CALENDAR_CLASS_NAME)),
+            new XObjectUpdatedEvent(BaseObjectReference.any(EventConstants.MOCCA_CALENDAR_CLASS_NAME)),
+            new XObjectDeletedEvent(BaseObjectReference.any(EventConstants.MOCCA_CALENDAR_CLASS_NAME)));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        if (!(event instanceof XObjectUpdatedEvent)) {
+            this.calendarDocumentCache.invalidate(doc.getDocumentReference());
+        }
+        this.calendarColorCache.invalidate(doc.getDocumentReference());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.xml.XMLUtils;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Remembers the colors of the calendars, so that coloring the events of a calendar does not load the calendar
+ * document for each event, and so that all the events of a calendar share the same color strings. The colors are kept
+ * HTML escaped. The least recently used entries are evicted when the cache is full. The entries are invalidated by
+ * {@link CalendarClassListener} when a calendar object is added, modified or removed.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = CalendarColorCache.class)
+@Singleton
+public class CalendarColorCache implements Initializable, Disposable
+{
+    /** The text and background colors of a document which is not a calendar. */
+    private static final String[] NO_COLORS = {"", ""};
+
+    private static final int MAX_SIZE = 10000;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<String[]> colors;
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.colors =
+                this.cacheManager.createNewCache(new LRUCacheConfiguration("moccacalendar.calendarColors", MAX_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the calendar color cache", e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.colors.dispose();
+    }
+
+    /**
+     * @param calendarReference the reference of the calendar document
+     * @return the text color and the background color of the calendar, empty if not set or if the document is not a
+     *     calendar
+     * @throws XWikiException if the calendar document cannot be loaded
+     */
+    public String[] getColors(DocumentReference calendarReference) throws XWikiException
+    {
+        String key = this.serializer.serialize(calendarReference);
+        String[] calendarColors = this.colors.get(key);
+        if (calendarColors == null) {
+            // Do not cache a value which might have been invalidated while the document was loaded.
+            long invalidationCount = this.invalidations.get();
+            XWikiContext context = this.contextProvider.get();
+            XWikiDocument calendarDoc = context.getWiki().getDocument(calendarReference, context);
+            BaseObject calendarData =
+                calendarDoc.getXObject(calendarDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_CLASS_NAME));
+            calendarColors = calendarData == null ? NO_COLORS
+                : new String[] {getColor(calendarData, EventConstants.PROPERTY_TEXTCOLOR_NAME),
+                    getColor(calendarData, "color")};
+            if (invalidationCount == this.invalidations.get()) {
+                this.colors.set(key, calendarColors);
+            }
+        }
+        return calendarColors;
+    }
+
+    private String getColor(BaseObject calendarData, String property)
+    {
+        // callers expect the HTML escaped value, as rendered by displayView
+        return XMLUtils.escape(calendarData.getStringValue(property));
+    }
+
+    /**
+     * Forget the colors of the given document.
+     *
+     * @param documentReference the reference of a document whose calendar object has changed
+     */
+    public void invalidate(DocumentReference documentReference)
+    {
+        this.invalidations.incrementAndGet();
+        this.colors.remove(this.serializer.serialize(documentReference));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Remembers which documents are calendars, i.e. hold a {@code MoccaCalendarClass} object, so that the listeners
+ * running on each document save do not have to load the calendar documents again. The least recently used entries
+ * are evicted when the cache is full. The entries are invalidated by {@link CalendarClassListener} when a calendar
+ * object is added or removed.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = CalendarDocumentCache.class)
+@Singleton
+public class CalendarDocumentCache implements Initializable, Disposable
+{
+    private static final int MAX_SIZE = 10000;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<Boolean> calendars;
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.calendars = this.cacheManager
+                .createNewCache(new LRUCacheConfiguration("moccacalendar.calendarDocuments", MAX_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the calendar document cache", e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.calendars.dispose();
+    }
+
+    /**
+     * @param documentReference the reference of a document, might be null
+     * @return {@code true} if the document exists and holds a calendar object
+     * @throws XWikiException if the document cannot be loaded
+     */
+    public boolean isCalendar(DocumentReference documentReference) throws XWikiException
+    {
+        if (documentReference == null) {
+            return false;
+        }
+        String key = this.serializer.serialize(documentReference);
+        Boolean calendar = this.calendars.get(key);
+        if (calendar == null) {
+            // Do not cache a value which might have been invalidated while the document was loaded.
+            long invalidationCount = this.invalidations.get();
+            XWikiContext context = this.contextProvider.get();
+            XWikiDocument document = context.getWiki().getDocument(documentReference, context);
+            DocumentReference calendarClassReference =
+                document.resolveClassReference(EventConstants.MOCCA_CALENDAR_CLASS_NAME);
+            calendar = !document.isNew() && document.getXObjectSize(calendarClassReference) > 0;
+            if (invalidationCount == this.invalidations.get()) {
+                this.calendars.set(key, calendar);
+            }
+        }
+        return calendar;
+    }
+
+    /**
+     * Forget what is known about the given document.
+     *
+     * @param documentReference the reference of a document whose calendar objects have changed
+     */
+    public void invalidate(DocumentReference documentReference)
+    {
+        this.invalidations.incrementAndGet();
+        this.calendars.remove(this.serializer.serialize(documentReference));
+    }
+}
@@ -21,19 +21,20 @@ package org.xwiki.contrib.moccacalendar.internal;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.model.EntityType;
-import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceProvider;
-import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.contrib.moccacalendar.internal.relocation.EventRelocationQueue;
+import org.xwiki.contrib.moccacalendar.internal.relocation.EventRelocator;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 
@@ -43,7 +44,9 @@ import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Move an event if its calendar is changed.
+ * Move an event if its calendar is changed. The event is moved by a background job shortly after the save, see
+ * {@link EventRelocationQueue}. When a wiki starts, the events whose move was still pending when it was stopped are
+ * moved, too.
  *
  * @version $Id: $
  * @since 2.7.1
@@ -57,7 +60,13 @@ public class CalendarEventParentChangeListener implements EventListener
     private Logger logger;
 
     @Inject
-    private EntityReferenceProvider refProvider;
+    private EventRelocator eventRelocator;
+
+    @Inject
+    private EventRelocationQueue eventRelocationQueue;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
 
     @Override
     public String getName()
@@ -71,14 +80,22 @@ public class CalendarEventParentChangeListener implements EventListener
         // listen after the document has been saved
         // if we listen a DocumentUpdatingEvent and rename the document,
         // it is later saved at the old location, too, which results in a copy
-        return Arrays.asList(new DocumentUpdatedEvent());
+        return Arrays.asList(new DocumentUpdatedEvent(), new ApplicationReadyEvent(), new WikiReadyEvent());
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        if (event instanceof ApplicationReadyEvent) {
+            eventRelocationQueue.addMisplacedEvents(contextProvider.get().getMainXWiki());
+            return;
+        }
+        if (event instanceof WikiReadyEvent) {
+            eventRelocationQueue.addMisplacedEvents(((WikiReadyEvent) event).getWikiId());
+            return;
+        }
+
         XWikiDocument doc = (XWikiDocument) source;
-        XWikiContext context = (XWikiContext) data;
 
         //
         // first check: if we are not a calendar event, exit
@@ -90,131 +107,34 @@ public class CalendarEventParentChangeListener implements EventListener
         }
 
         //
-        // second check: if our parent reference does not point to a calendar, better do not move us there
+        // if neither the calendar nor the event changed with this save, there is nothing to move
         //
-        DocumentReference parentReference = doc.getParentReference();
-        try {
-            XWikiDocument parentDoc = context.getWiki().getDocument(parentReference, context);
-            if (parentDoc.isNew() || parentDoc
-                .getXObjectSize(doc.resolveClassReference(EventConstants.MOCCA_CALENDAR_CLASS_NAME)) == 0) {
-                logger.debug("target parent [{}] for [{}] is not a calendar; do not move",
-                    parentReference, doc);
-                return;
-            }
-        } catch (XWikiException e) {
-            logger.warn("could not determine if parent [{}] of document [{}] is a calandar",
-                doc.getDocumentReference(), parentReference, e);
-            return;
-        }
-
-        //
-        // if the parent matches the location parent, we are fine, too
-        //
-        if (parentMatchesLocationParent(doc)) {
-            logger.debug("calendar parent for event [{}] is ok - no move needed", doc.getDocumentReference());
+        if (isUnchanged(doc, eventData)) {
             return;
         }
 
         //
-        // otherwise calculate new location and rename the document to it
+        // otherwise move the event below its calendar, once the save is done
         //
         try {
-            DocumentReference targetReference = newDocumentLocation(doc, context);
-            context.getWiki()
-                .renameDocument(doc.getDocumentReference(), targetReference, true, List.of(), List.of(), context);
-            logger.debug("renamed document [{}] to [{}]", doc.getOriginalDocument().getDocumentReference(),
-                doc.getDocumentReference());
-        } catch (XWikiException e) {
-            logger.warn("could not move document [{}] to its new parent.", doc.getDocumentReference(), e);
-        }
-    }
-
-    private boolean parentMatchesLocationParent(XWikiDocument doc)
-    {
-        DocumentReference docRef = doc.getDocumentReference();
-        DocumentReference parentRef = doc.getParentReference();
-
-        logger.trace("check document [{}] with parent ref [{}]", docRef, parentRef);
-
-        SpaceReference parentLocation = parentRef.getLastSpaceReference();
-        SpaceReference locationParent = docRef.getLastSpaceReference();
-
-        String defaultPageName = refProvider.getDefaultReference(EntityType.DOCUMENT).getName();
-        if (defaultPageName.equals(docRef.getName())) {
-            EntityReference locationParentParent = locationParent.getParent();
-            if (locationParentParent instanceof SpaceReference) {
-                locationParent = (SpaceReference) locationParentParent;
-            } else {
-                locationParent = null;
+            if (eventRelocator.needsRelocation(doc)) {
+                eventRelocationQueue.add(doc.getDocumentReference());
             }
+        } catch (XWikiException e) {
+            logger.warn("could not determine if parent [{}] of document [{}] is a calandar",
+                doc.getDocumentReference(), doc.getParentReference(), e);
         }
-
-        logger.trace("parent ref is [{}] while location parent is [{}]", parentLocation, locationParent);
-
-        return parentLocation.equals(locationParent);
-    }
-
-    private DocumentReference newDocumentLocation(XWikiDocument eventDocument, XWikiContext context)
-        throws XWikiException
-    {
-        DocumentReference docRef = eventDocument.getDocumentReference();
-        DocumentReference parentRef = eventDocument.getParentReference();
-
-        SpaceReference targetSpaceRef = parentRef.getLastSpaceReference();
-        if (targetSpaceRef == null) {
-            // XXX how can this happen?
-            logger.warn("could not move event [{}] to calendar [{}], as this has no space", docRef,
-                parentRef);
-            return docRef;
-        }
-
-        DocumentReference targetReference = null;
-        EntityReference defaultRef = refProvider.getDefaultReference(EntityType.DOCUMENT);
-        if (docRef.getName().equals(defaultRef.getName())) {
-            // we are a non-terminal page
-            targetReference = getDocumentWithUnusedSpace(docRef, targetSpaceRef, context);
-        } else {
-            targetReference = getUnusedDocument(docRef, targetSpaceRef, context);
-        }
-
-        logger.trace("new location for document [{}] is computed to [{}]", docRef, targetReference);
-
-        return targetReference;
-    }
-
-    private DocumentReference getUnusedDocument(DocumentReference docRef, SpaceReference targetSpaceRef,
-        XWikiContext context) throws XWikiException
-    {
-        String origDocName = docRef.getName();
-        DocumentReference targetDocReference = new DocumentReference(origDocName, targetSpaceRef);
-
-        // if this does not work the first time around it is likely to burn lots of CPU cycles
-        // but that is very unlikely to happen ...
-        while (context.getWiki().exists(targetDocReference, context)) {
-            logger.trace("doc already exists [{}]; retry", targetDocReference);
-            String docName = origDocName + '_' + String.valueOf(System.currentTimeMillis());
-            targetDocReference = new DocumentReference(docName, targetSpaceRef);
-        }
-
-        return targetDocReference;
     }
 
-    private DocumentReference getDocumentWithUnusedSpace(DocumentReference docRef, SpaceReference targetParentSpace,
-        XWikiContext context) throws XWikiException
+    private boolean isUnchanged(XWikiDocument doc, BaseObject eventData)
     {
-        String origDocSpaceName = docRef.getLastSpaceReference().getName();
-        SpaceReference targetDocSpace = new SpaceReference(origDocSpaceName, targetParentSpace);
-        DocumentReference targetReference = new DocumentReference(docRef.getName(), targetDocSpace);
-
-        // see above: should not loop more than once
-        while (context.getWiki().exists(targetReference, context)) {
-            logger.trace("space already exists [{}]; retry", targetReference);
-
-            String docSpaceName = origDocSpaceName + '_' + String.valueOf(System.currentTimeMillis());
-            targetDocSpace = new SpaceReference(docSpaceName, targetParentSpace);
-            targetReference = new DocumentReference(docRef.getName(), targetDocSpace);
+        XWikiDocument originalDoc = doc.getOriginalDocument();
+        if (originalDoc == null || originalDoc.isNew()
+            || !Objects.equals(doc.getParentReference(), originalDoc.getParentReference())) {
+            return false;
         }
-
-        return targetReference;
+        BaseObject originalEventData =
+            originalDoc.getXObject(originalDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME));
+        return eventData.equals(originalEventData);
     }
 }
@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.ContentParser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.rendering.transformation.TransformationManager;
+import org.xwiki.security.authorization.AuthorExecutor;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Render the description of an event both as plain text and as HTML. The description is parsed and its macros are
+ * executed only once, and the resulting XDOM is then rendered to both syntaxes, instead of rendering the description
+ * twice with {@link XWikiDocument#getRenderedContent(String, String, String, XWikiContext)}. The rendered texts are
+ * kept in the {@link RenderedEventTextCache}.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = DescriptionRenderer.class)
+@Singleton
+public class DescriptionRenderer
+{
+    @Inject
+    private ContentParser contentParser;
+
+    @Inject
+    private TransformationManager transformationManager;
+
+    @Inject
+    @Named("plain/1.0")
+    private BlockRenderer plainRenderer;
+
+    @Inject
+    @Named("html/5.0")
+    private BlockRenderer htmlRenderer;
+
+    @Inject
+    private AuthorExecutor authorExecutor;
+
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private RenderedEventTextCache textCache;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Fill the description of the event instance from the value in the given base object.
+     * The base object should either be a MoccaCalendarEvent or a MoccaCalendarEventModification.
+     * The description is only rendered when it is requested from the event instance.
+     *
+     * @param eventData the xwiki object to get the information from
+     * @param descriptionPropertyName then name of the property storing the description
+     * @param event the event instance whose description will be set
+     */
+    public void fillDescription(BaseObject eventData, String descriptionPropertyName, EventInstance event)
+    {
+        event.setDescriptionProvider(lazyEvent -> {
+            String[] renderedDescription = renderDescription(eventData, descriptionPropertyName);
+            lazyEvent.setDescription(renderedDescription[0]);
+            lazyEvent.setDescriptionHtml(renderedDescription[1]);
+        });
+    }
+
+    private String[] renderDescription(BaseObject eventData, String descriptionPropertyName)
+    {
+        XWikiDocument eventDoc = eventData.getOwnerDocument();
+        String description = eventData.getStringValue(descriptionPropertyName);
+        String textKey = String.format("%s/%d/%s/description/%s", eventData.getClassName(), eventData.getNumber(),
+            descriptionPropertyName, getRenderingContextKey(description.contains("{{")));
+        return this.textCache.get(eventDoc, textKey, () -> {
+            try {
+                XDOM xdom = parseAndTransform(eventDoc, description);
+                return new String[] {render(xdom, this.plainRenderer), render(xdom, this.htmlRenderer)};
+            } catch (Exception e) {
+                this.logger.warn("Failed to render the description of [{}] at once. Root cause is: [{}]",
+                    eventDoc.getDocumentReference(), e.getMessage());
+                this.logger.debug("Full stack trace: ", e);
+                EventInstance fallback = new EventInstance();
+                Utils.fillDescription(eventData, descriptionPropertyName, this.xcontextProvider.get(), fallback);
+                return new String[] {fallback.getDescription(), fallback.getDescriptionHtml()};
+            }
+        });
+    }
+
+    /**
+     * Render the title of an event as plain text.
+     *
+     * @param eventDoc the document of the event
+     * @return the rendered title of the document
+     */
+    public String renderTitle(XWikiDocument eventDoc)
+    {
+        // titles are evaluated with velocity
+        boolean userDependent = StringUtils.containsAny(eventDoc.getTitle(), '$', '#', '{');
+        String textKey = "title/" + getRenderingContextKey(userDependent);
+        return this.textCache.get(eventDoc, textKey,
+            () -> eventDoc.getRenderedTitle(Syntax.PLAIN_1_0, this.xcontextProvider.get()));
+    }
+
+    /**
+     * Texts without scripts or macros are rendered the same for all users, the other ones are kept for each user.
+     */
+    private String getRenderingContextKey(boolean userDependent)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String locale = String.valueOf(xcontext.getLocale());
+        return userDependent ? locale + '/' + xcontext.getUserReference() : locale;
+    }
+
+    private XDOM parseAndTransform(XWikiDocument eventDoc, String description) throws Exception
+    {
+        XDOM xdom = this.contentParser.parse(description, eventDoc.getSyntax(), eventDoc.getDocumentReference());
+        TransformationContext transformationContext = new TransformationContext(xdom, eventDoc.getSyntax());
+        transformationContext.setId(this.serializer.serialize(eventDoc.getDocumentReference()));
+        // the plain text rendering only drops what is specific to HTML, so the macros can target HTML for both
+        transformationContext.setTargetSyntax(Syntax.HTML_5_0);
+
+        // same as when rendering the description with the event document: run the macros as the content author of
+        // the event, with the event as current document
+        Map<String, Object> backupObjects = new HashMap<>();
+        this.documentAccessBridge.pushDocumentInContext(backupObjects, eventDoc);
+        try {
+            this.authorExecutor.call(() -> {
+                this.transformationManager.performTransformations(xdom, transformationContext);
+                return null;
+            }, eventDoc.getContentAuthorReference(), eventDoc.getDocumentReference());
+        } finally {
+            this.documentAccessBridge.popDocumentFromContext(backupObjects);
+        }
+        return xdom;
+    }
+
+    private String render(XDOM xdom, BlockRenderer renderer)
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        renderer.render(xdom, printer);
+        return printer.toString();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventField;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.xml.XMLUtils;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Completes the event instances read from the event documents: their title, description, flags and colors. Events
+ * without colors of their own get the colors of the nearest calendar.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventDataCompleter.class)
+@Singleton
+public class EventDataCompleter
+{
+    @Inject
+    private EntityReferenceProvider defaultEntityReferenceProvider;
+
+    @Inject
+    private DescriptionRenderer descriptionRenderer;
+
+    @Inject
+    private CalendarColorCache calendarColorCache;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Complete an event instance with the data of its event document. The title, description and colors already set,
+     * e.g. by a modification of a recurrent event, are kept.
+     *
+     * @param event the event instance, with its dates set
+     * @param eventDoc the document of the event
+     * @param eventData the event object of the document
+     * @param fields the optional data to set; the description and colors are left out if they are not listed
+     */
+    public void complete(EventInstance event, XWikiDocument eventDoc, BaseObject eventData, Set<EventField> fields)
+    {
+        boolean isAllDay = eventData.getIntValue(EventConstants.PROPERTY_ALLDAY_NAME) == 1;
+        // this also lets the event compute its exclusive end date
+        event.setAllDay(isAllDay);
+
+        if (null == event.getTitle()) {
+            event.setTitle(this.descriptionRenderer.renderTitle(eventDoc));
+        }
+
+        if (fields.contains(EventField.DESCRIPTION) && !event.hasDescription()) {
+            this.descriptionRenderer.fillDescription(eventData, EventConstants.PROPERTY_DESCRIPTION_NAME, event);
+        }
+
+        event.setEventDocRef(eventDoc.getDocumentReference());
+        event.setModifiable(true);
+        event.setMovable(!event.isRecurrent());
+
+        if (fields.contains(EventField.COLORS)) {
+            setColors(event, eventData);
+        }
+    }
+
+    /**
+     * Set the colors of an event which has none yet: the colors of its event object, or else the colors of the
+     * nearest calendar.
+     *
+     * @param event the event instance, with its document reference set
+     * @param eventData the event object of the event, null for the events of the other sources
+     */
+    public void setColors(EventInstance event, BaseObject eventData)
+    {
+        String textColor = getEscapedProperty(eventData, EventConstants.PROPERTY_TEXTCOLOR_NAME);
+        String backgroundColor = getEscapedProperty(eventData, EventConstants.PROPERTY_BACKGROUNDCOLOR_NAME);
+        String calendarTextColor = "";
+        String calendarBackgroundColor = "";
+
+        if (textColor.isEmpty() || backgroundColor.isEmpty()) {
+            String[] calendarColors = getNearestCalendarColors(event);
+            calendarTextColor = calendarColors[0];
+            calendarBackgroundColor = calendarColors[1];
+        }
+        if (event.getBackgroundColor() == null || event.getBackgroundColor().isEmpty()) {
+            event.setBackgroundColor(backgroundColor.isEmpty() ? calendarBackgroundColor : backgroundColor);
+        }
+        if (event.getTextColor() == null || event.getTextColor().isEmpty()) {
+            event.setTextColor(textColor.isEmpty() ? calendarTextColor : textColor);
+        }
+    }
+
+    /**
+     * Read a string property without running its displayer, HTML escaped the same way as displayView does.
+     *
+     * @param data the object holding the property, can be null
+     * @param property the name of the property
+     * @return the escaped value, empty if there is no object
+     */
+    public String getEscapedProperty(BaseObject data, String property)
+    {
+        return data != null ? XMLUtils.escape(data.getStringValue(property)) : "";
+    }
+
+    /**
+     * Fill in the color and text color values from the "corresponding" calendar.
+     * The corresponding calendar page should be the default page of the parent space. this is the space of the page
+     * if the event page is terminal, and the parent of the events page space, if the page is non-terminal.
+     *
+     * @return the text and background colors of the calendar, empty if there is no calendar
+     */
+    private String[] getNearestCalendarColors(EventInstance event)
+    {
+        String[] calendarColors = {"", ""};
+        try {
+            final DocumentReference eventDocRef = event.getEventDocRef();
+            final String defaultPageName = this.defaultEntityReferenceProvider
+                .getDefaultReference(EntityType.DOCUMENT).getName();
+            SpaceReference parentSpaceRef = null;
+            if (defaultPageName.equals(eventDocRef.getName())) {
+                EntityReference parentRef = eventDocRef.getLastSpaceReference().getParent();
+                if (parentRef instanceof SpaceReference) {
+                    parentSpaceRef = (SpaceReference) parentRef;
+                }
+            } else {
+                parentSpaceRef = eventDocRef.getLastSpaceReference();
+            }
+
+            if (parentSpaceRef != null) {
+                calendarColors =
+                    this.calendarColorCache.getColors(new DocumentReference(defaultPageName, parentSpaceRef));
+            }
+        } catch (XWikiException xe) {
+            this.logger.warn("could not retrieve calendar data", xe);
+        }
+        return calendarColors;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventField;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.contrib.moccacalendar.RecurrentEventGenerator;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Creates the event instances of the event documents found by a query: one instance per single event, and one per
+ * occurrence of a recurrent event in the requested date range.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventDocumentReader.class)
+@Singleton
+public class EventDocumentReader
+{
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Map<String, RecurrentEventGenerator> eventGenerators;
+
+    @Inject
+    private EventModificationReader modificationReader;
+
+    @Inject
+    private EventDataCompleter eventDataCompleter;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Create the event instances of single events.
+     *
+     * @param eventReferences the documents of the events
+     * @param fields the optional data to set on the events
+     * @return the event instances, in the order of the documents; documents without event data are skipped
+     */
+    public List<EventInstance> readEvents(List<DocumentReference> eventReferences, Set<EventField> fields)
+    {
+        final XWikiContext context = this.xcontextProvider.get();
+        List<EventInstance> events = new ArrayList<>();
+
+        for (DocumentReference eventDocRef : eventReferences) {
+            try {
+                XWikiDocument eventDoc = context.getWiki().getDocument(eventDocRef, context);
+                BaseObject eventData = getEventData(eventDoc);
+                if (eventData == null) {
+                    this.logger.error("data inconsistency: query returned [{}] which contains no object for [{}]",
+                        eventDocRef, EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME);
+                    continue;
+                }
+
+                EventInstance event = new EventInstance();
+
+                Date startDate = eventData.getDateValue(EventConstants.PROPERTY_STARTDATE_NAME);
+                event.setStartDate(new DateTime(startDate.getTime()));
+
+                Date endDate = Utils.fetchOrGuessEndDate(eventData);
+                event.setEndDate(new DateTime(endDate.getTime()));
+
+                this.eventDataCompleter.complete(event, eventDoc, eventData, fields);
+
+                events.add(event);
+            } catch (XWikiException e) {
+                this.logger.warn("cannot find event data [{}]", eventDocRef, e);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Create the event instances of the occurrences of recurrent events in a date range. Deleted occurrences are
+     * skipped, and modified ones get the data of their modification.
+     *
+     * @param eventReferences the documents of the recurrent events
+     * @param dateFrom the start of the date range
+     * @param dateTo the end of the date range
+     * @param fields the optional data to set on the events
+     * @return the event instances, grouped by document
+     */
+    public List<EventInstance> readOccurrences(List<DocumentReference> eventReferences, Date dateFrom, Date dateTo,
+        Set<EventField> fields)
+    {
+        final XWikiContext context = this.xcontextProvider.get();
+        final List<EventInstance> eventsInstances = new ArrayList<>();
+        for (DocumentReference eventDocRef : eventReferences) {
+            try {
+                addOccurrences(context.getWiki().getDocument(eventDocRef, context), dateFrom, dateTo, fields,
+                    eventsInstances);
+            } catch (XWikiException e) {
+                this.logger.error("error while fetching recurrent event [{}]", eventDocRef, e);
+            }
+        }
+        return eventsInstances;
+    }
+
+    private void addOccurrences(XWikiDocument eventDoc, Date dateFrom, Date dateTo, Set<EventField> fields,
+        List<EventInstance> occurrences)
+    {
+        BaseObject eventData = getEventData(eventDoc);
+        BaseObject eventRecData = eventDoc.getXObject(
+            eventDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_EVENT_RECURRENCY_CLASS_NAME));
+
+        if (eventRecData == null) {
+            // duh
+            this.logger.info("found recurrent event [{}] without recurrency information; skipping",
+                eventDoc.getDocumentReference());
+            return;
+        }
+
+        String eventType = eventRecData.getStringValue("frequency");
+        RecurrentEventGenerator generator = this.eventGenerators.get(eventType);
+        if (generator == null) {
+            this.logger.error("no recurrent event generator found for frequency [{}] used by [{}]", eventType,
+                eventDoc.getDocumentReference());
+            return;
+        }
+
+        Set<Long> deletions = this.modificationReader.getDeletions(eventDoc);
+        Map<Long, EventInstance> modifiedEvents =
+            this.modificationReader.getModifications(eventDoc, dateFrom, dateTo, fields);
+        // rendered and resolved only once for all the occurrences
+        EventSeriesData series = null;
+
+        for (EventInstance occurrence : generator.generate(eventDoc, dateFrom, dateTo)) {
+            long originalStart = occurrence.getStartDate().getMillis();
+            if (deletions.contains(originalStart)) {
+                this.logger.trace("skip deleted event at {} for doc [{}])", occurrence.getStartDate(), eventDoc);
+                continue;
+            }
+
+            EventInstance modifiedEvent = modifiedEvents.remove(originalStart);
+            EventInstance event = (modifiedEvent != null) ? modifiedEvent : occurrence;
+
+            // add extra stuff here that the generator does not have to set
+            if (series == null) {
+                series = createSeriesData(eventDoc, eventData, fields);
+            }
+            series.applyTo(event);
+            occurrences.add(event);
+        }
+
+        // the modifications of the occurrences moved into the date range from outside of it are not displayed
+        if (!modifiedEvents.isEmpty()) {
+            logDroppedModifications(modifiedEvents);
+        }
+    }
+
+    private void logDroppedModifications(Map<Long, EventInstance> modifiedEvents)
+    {
+        this.logger.info("we dropped some modifications: [{}]", modifiedEvents.size());
+        if (this.logger.isDebugEnabled()) {
+            for (Map.Entry<Long, EventInstance> modification : modifiedEvents.entrySet()) {
+                this.logger.debug("event originally started at [{}]", new DateTime(modification.getKey()));
+                EventInstance modifiedEvent = modification.getValue();
+                this.logger.debug("  event start at [{}]", modifiedEvent.getStartDate());
+                this.logger.debug("  event end at [{}]", modifiedEvent.getEndDate());
+            }
+            this.logger.debug("======= end of list of dropped modifications");
+        }
+    }
+
+    private EventSeriesData createSeriesData(XWikiDocument eventDoc, BaseObject eventData, Set<EventField> fields)
+    {
+        EventInstance prototype = new EventInstance();
+        prototype.setRecurrent(true);
+        this.eventDataCompleter.complete(prototype, eventDoc, eventData, fields);
+        return new EventSeriesData(prototype);
+    }
+
+    private BaseObject getEventData(XWikiDocument eventDoc)
+    {
+        return eventDoc.getXObject(eventDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME));
+    }
+}
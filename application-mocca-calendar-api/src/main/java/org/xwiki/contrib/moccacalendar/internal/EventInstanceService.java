@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventField;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.contrib.moccacalendar.internal.index.EventIndexStore;
+import org.xwiki.contrib.moccacalendar.internal.utils.DefaultEventAssembly;
+import org.xwiki.contrib.moccacalendar.internal.utils.EventQuery;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.QueryException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Queries the event instances of the calendars, including the occurrences of the recurrent events and the events of
+ * the event sources. Shared by the script service and the REST resources.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventInstanceService.class)
+@Singleton
+public class EventInstanceService
+{
+    private static final String MOCCA_CALENDAR_EVENT_TEMPLATE = "MoccaCalendar.MoccaCalendarEventTemplate";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> stringDocRefResolver;
+
+    @Inject
+    private DefaultEventAssembly eventAssembly;
+
+    @Inject
+    private EventIndexStore eventIndexStore;
+
+    @Inject
+    private EventDocumentReader eventDocumentReader;
+
+    @Inject
+    private SourceEventCollector sourceEventCollector;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Get a list of events matching the date and filter criteria, with all their data.
+     *
+     * @param dateFrom the start range
+     * @param dateTo the end range; can be null. in that case dates form a single day are returned
+     * @param filter how to filter the event. if null or "wiki" return all events
+     * @param wiki the wiki where the events are sought
+     * @param parentReference the page reference to use for the filter. can be null if filter is null or "wiki".
+     * @param sortAscending if true, sort events ascending by start date, else descending
+     * @return a list of event instances matching the criteria; might be empty but never null
+     * @throws QueryException if an error occurs while fetching the events
+     */
+    public List<EventInstance> queryEvents(Date dateFrom, Date dateTo, String filter, String wiki,
+        String parentReference, boolean sortAscending) throws QueryException
+    {
+        return queryEvents(dateFrom, dateTo, filter, wiki, parentReference, sortAscending,
+            EnumSet.allOf(EventField.class));
+    }
+
+    /**
+     * Get a list of events matching the date and filter criteria.
+     *
+     * @param dateFrom the start range
+     * @param dateTo the end range; can be null. in that case dates form a single day are returned
+     * @param filter how to filter the event. if null or "wiki" return all events
+     * @param wiki the wiki where the events are sought
+     * @param parentReference the page reference to use for the filter. can be null if filter is null or "wiki".
+     * @param sortAscending if true, sort events ascending by start date, else descending
+     * @param fields the optional data to set on the events; leaving out the description spares its rendering
+     * @return a list of event instances matching the criteria; might be empty but never null
+     * @throws QueryException if an error occurs while fetching the events
+     */
+    public List<EventInstance> queryEvents(Date dateFrom, Date dateTo, String filter, String wiki,
+        String parentReference, boolean sortAscending, Set<EventField> fields) throws QueryException
+    {
+        final Date dateUntil = (dateTo == null) ? dateFrom : dateTo;
+        final boolean useEventIndex =
+            this.eventIndexStore.isAvailable(wiki != null ? wiki : this.xcontextProvider.get().getWikiId());
+        final DocumentReference parentRef =
+            (parentReference == null) ? null : this.stringDocRefResolver.resolve(parentReference);
+
+        EventQuery eventQuery = createQuery(wiki, useEventIndex);
+        // filter by date range
+        eventQuery.addDateLimits(dateFrom, dateUntil);
+        // and search only non-recurrent events
+        eventQuery.addRecurrentCondition(false);
+        // now filter by event location
+        eventQuery.addLocationFilter(filter, parentRef);
+        // finally the ordering
+        eventQuery.setAscending(sortAscending);
+
+        List<DocumentReference> visibleEvents = Collections.emptyList();
+        try {
+            visibleEvents = this.eventAssembly.executeQuery(eventQuery);
+        } catch (QueryException qe) {
+            this.logger.error("error while fetching regular events", qe);
+        }
+        List<EventInstance> events = new ArrayList<>(this.eventDocumentReader.readEvents(visibleEvents, fields));
+
+        //
+        // so much for regular single events.
+        // now about recurrent events
+        //
+        EventQuery recurrentEventQuery = createQuery(wiki, useEventIndex);
+        // filter by location
+        recurrentEventQuery.addLocationFilter(filter, parentRef);
+        // and search only recurrent events
+        recurrentEventQuery.addRecurrentCondition(true);
+
+        try {
+            List<DocumentReference> visibleRecurrentEventPages =
+                this.eventAssembly.executeQuery(recurrentEventQuery);
+            events.addAll(
+                this.eventDocumentReader.readOccurrences(visibleRecurrentEventPages, dateFrom, dateUntil, fields));
+        } catch (QueryException e) {
+            this.logger.error("error while fetching recurrent events", e);
+        }
+
+        events.addAll(this.sourceEventCollector.getEvents(dateFrom, dateUntil, filter, wiki, parentRef, sortAscending,
+            fields));
+
+        sortEvents(events, sortAscending);
+
+        return events;
+    }
+
+    /**
+     * Gets the union of events on a set of wikis, with all their data.
+     *
+     * @param dateFrom the range start
+     * @param dateTo the range end; can be null. in that case dates from a single day are returned
+     * @param wikis list of wiki identifiers where events should be searched for
+     * @param sortAscending if true, sort events ascending by start date, else descending
+     * @return a list of event instances matching the criteria; might be empty but never null
+     * @throws QueryException if an error occurs while fetching the events
+     */
+    public List<EventInstance> queryEvents(Date dateFrom, Date dateTo, List<String> wikis, boolean sortAscending)
+        throws QueryException
+    {
+        return queryEvents(dateFrom, dateTo, wikis, sortAscending, EnumSet.allOf(EventField.class));
+    }
+
+    /**
+     * Gets the union of events on a set of wikis.
+     *
+     * @param dateFrom the range start
+     * @param dateTo the range end; can be null. in that case dates from a single day are returned
+     * @param wikis list of wiki identifiers where events should be searched for
+     * @param sortAscending if true, sort events ascending by start date, else descending
+     * @param fields the optional data to set on the events; leaving out the description spares its rendering
+     * @return a list of event instances matching the criteria; might be empty but never null
+     * @throws QueryException if an error occurs while fetching the events
+     */
+    public List<EventInstance> queryEvents(Date dateFrom, Date dateTo, List<String> wikis, boolean sortAscending,
+        Set<EventField> fields) throws QueryException
+    {
+        List<EventInstance> events = new ArrayList<>();
+        if (wikis != null) {
+            for (String wiki : wikis) {
+                events.addAll(queryEvents(dateFrom, dateTo, "wiki", wiki, null, sortAscending, fields));
+            }
+            // Sort events globally
+            sortEvents(events, sortAscending);
+        }
+        return events;
+    }
+
+    private EventQuery createQuery(String wiki, boolean useEventIndex)
+    {
+        EventQuery eventQuery =
+            new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, MOCCA_CALENDAR_EVENT_TEMPLATE, wiki);
+        if (useEventIndex) {
+            eventQuery.useEventIndex();
+        }
+        return eventQuery;
+    }
+
+    private void sortEvents(List<EventInstance> events, boolean ascending)
+    {
+        // events without start date come first
+        Comparator<EventInstance> byStartDate =
+            Comparator.comparing(EventInstance::getStartDate, Comparator.nullsFirst(Comparator.naturalOrder()));
+        events.sort(ascending ? byStartDate : byStartDate.reversed());
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventField;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Reads the modifications and deletions of the occurrences of a recurrent event from its document.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventModificationReader.class)
+@Singleton
+public class EventModificationReader
+{
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> stringDocRefResolver;
+
+    @Inject
+    private DescriptionRenderer descriptionRenderer;
+
+    @Inject
+    private EventDataCompleter eventDataCompleter;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Find modification data for an event instance, if the event instance has been modified.
+     *
+     * @param eventDoc the document of the recurrent event
+     * @param eventStartDate the original start date of the event instance
+     * @return the index of a MoccaCalendarEventModificationClass object for the event instance, or -1 if no
+     *     modification has been found for the event instance
+     */
+    public int getModifiedEventObjectIndex(XWikiDocument eventDoc, Date eventStartDate)
+    {
+        final List<BaseObject> modificationNotices = eventDoc.getXObjects(
+            this.stringDocRefResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_MODIFICATION_CLASS_NAME));
+        if (modificationNotices != null) {
+            for (int i = 0, n = modificationNotices.size(); i < n; i++) {
+                BaseObject modificationNotice = modificationNotices.get(i);
+                Date modificationDate = (modificationNotice == null) ? null
+                    : modificationNotice.getDateValue(EventConstants.PROPERTY_ORIG_STARTDATE_OF_MODIFIED_NAME);
+                if (eventStartDate.equals(modificationDate)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Create an event instance for the given date and document. If the event instance has been modified, update the
+     * event instance with the modifications. This method does not take deletion marks into account, but always
+     * returns an event instance.
+     *
+     * @param eventDoc the document of the recurrent event
+     * @param eventStartDate the original start date of the event instance (might be null for the unaltered event)
+     * @return the EventInstance with the (possibly modified) values of the event, null if the document holds no event
+     */
+    public EventInstance getEventInstance(XWikiDocument eventDoc, Date eventStartDate)
+    {
+        final BaseObject eventData =
+            eventDoc.getXObject(this.stringDocRefResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME));
+        if (eventData == null) {
+            return null;
+        }
+
+        int objIndex;
+        Date originalEventStartDate;
+        if (eventStartDate == null) {
+            originalEventStartDate = eventData.getDateValue(EventConstants.PROPERTY_STARTDATE_NAME);
+            objIndex = -1;
+        } else {
+            originalEventStartDate = eventStartDate;
+            objIndex = getModifiedEventObjectIndex(eventDoc, eventStartDate);
+        }
+
+        BaseObject modificationData = null;
+        if (objIndex != -1) {
+            modificationData = eventDoc.getXObject(
+                this.stringDocRefResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_MODIFICATION_CLASS_NAME),
+                objIndex);
+        }
+        Set<EventField> fields = EnumSet.allOf(EventField.class);
+        EventInstance event;
+        if (modificationData != null) {
+            event = createModifiedEventData(eventDoc, eventData, modificationData, originalEventStartDate, null,
+                null, fields);
+        } else {
+            long baseDuration = getBaseDuration(eventData);
+            event = new EventInstance();
+            event.setStartDate(new DateTime(originalEventStartDate.getTime()));
+            event.setOriginalStartDate(new DateTime(originalEventStartDate.getTime()));
+            event.setEndDate(new DateTime(originalEventStartDate.getTime() + baseDuration));
+        }
+        this.eventDataCompleter.complete(event, eventDoc, eventData, fields);
+
+        return event;
+    }
+
+    /**
+     * Find the deleted occurrences of a recurrent event.
+     *
+     * @param eventDoc the document of the recurrent event
+     * @return the original start dates of the deleted occurrences, in milliseconds
+     */
+    public Set<Long> getDeletions(XWikiDocument eventDoc)
+    {
+        Set<Long> deletions = new HashSet<>();
+
+        final List<BaseObject> deleteNotices = eventDoc.getXObjects(
+            this.stringDocRefResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_DELETION_CLASS_NAME));
+        if (deleteNotices != null) {
+            for (BaseObject deleteNotice : deleteNotices) {
+                Date deleted = (deleteNotice == null) ? null
+                    : deleteNotice.getDateValue(EventConstants.PROPERTY_STARTDATE_OF_DELETED_NAME);
+                if (deleted != null) {
+                    deletions.add(deleted.getTime());
+                }
+            }
+        }
+
+        if (!deletions.isEmpty() && this.logger.isDebugEnabled()) {
+            this.logger.debug("found {} deletions for event [{}])", deletions.size(), eventDoc);
+        }
+
+        return deletions;
+    }
+
+    /**
+     * Find all modified events for an event document within a given time frame.
+     *
+     * @param eventDoc the document of the recurrent event
+     * @param dateFrom the date from which the events are sought
+     * @param dateTo the date up to which the events are sought
+     * @param fields the optional data of the modifications to read
+     * @return a map of original event dates to instances filled with the corresponding modifications
+     */
+    public Map<Long, EventInstance> getModifications(XWikiDocument eventDoc, Date dateFrom, Date dateTo,
+        Set<EventField> fields)
+    {
+        final Map<Long, EventInstance> results = new HashMap<>();
+        final List<BaseObject> modificationNotices = eventDoc.getXObjects(
+            this.stringDocRefResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_MODIFICATION_CLASS_NAME));
+        final BaseObject eventData =
+            eventDoc.getXObject(this.stringDocRefResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME));
+
+        if (modificationNotices != null) {
+            for (BaseObject modificationNotice : modificationNotices) {
+                Date originalStartDate = (modificationNotice == null) ? null
+                    : modificationNotice.getDateValue(EventConstants.PROPERTY_ORIG_STARTDATE_OF_MODIFIED_NAME);
+                if (originalStartDate == null) {
+                    continue;
+                }
+
+                EventInstance modifiedInstance = createModifiedEventData(eventDoc, eventData, modificationNotice,
+                    originalStartDate, dateFrom, dateTo, fields);
+                if (modifiedInstance != null) {
+                    results.put(originalStartDate.getTime(), modifiedInstance);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compute the duration of an event from its event object.
+     *
+     * @param eventData the main event data
+     * @return the duration of the event, or of each occurrence of a recurrent event, in milliseconds
+     */
+    public long getBaseDuration(BaseObject eventData)
+    {
+        Date baseStartDate = eventData.getDateValue(EventConstants.PROPERTY_STARTDATE_NAME);
+        Date baseEndDate = Utils.fetchOrGuessEndDate(eventData);
+        return baseEndDate.getTime() - baseStartDate.getTime();
+    }
+
+    /**
+     * Helper to create an event instance from modification data. If the modified event is not in the given date
+     * range, this helper returns a null. The original start date is not optional, as we cannot guess it from the data
+     * if the modificationNotice is a dummy. The date ranges are optional, if they are null, no check for the date
+     * range is done.
+     *
+     * @param eventDoc the document containing the event
+     * @param eventData the main even data
+     * @param modificationNotice the object containing the modification
+     * @param originalStartDate the original start date of the event, must not be null
+     * @param dateFrom the start of the date range, can be null
+     * @param dateTo the end of the date range can be null
+     * @param fields the optional data of the modification to read
+     * @return the event instance with (only) the modified data filled in
+     */
+    private EventInstance createModifiedEventData(XWikiDocument eventDoc, BaseObject eventData,
+        BaseObject modificationNotice, Date originalStartDate, Date dateFrom, Date dateTo, Set<EventField> fields)
+    {
+        // now get both the original start / end date
+        // and the modified start / end date, and add a rudimentary event instance to result,
+        // unless:
+        // a) both the original and new end date are before the "dateFrom"
+        // or
+        // b) both the original start date or the modified start date are after the "dateTo"
+
+        Date originalEndDate = new Date(originalStartDate.getTime() + getBaseDuration(eventData));
+        Date actualStartDate = modificationNotice.getDateValue(EventConstants.PROPERTY_STARTDATE_NAME);
+        if (actualStartDate == null) {
+            actualStartDate = originalStartDate;
+        }
+        Date actualEndDate = getModifiedEndDate(eventData, modificationNotice, originalStartDate, originalEndDate,
+            actualStartDate);
+
+        // now we can figure out if the modified event is in the right time frame
+        if (dateFrom != null && actualEndDate.before(dateFrom) && originalEndDate.before(dateFrom)) {
+            return null;
+        }
+        if (dateTo != null && actualStartDate.after(dateTo) && originalStartDate.after(dateTo)) {
+            return null;
+        }
+
+        EventInstance modifiedInstance = new EventInstance();
+        modifiedInstance.setStartDate(new DateTime(actualStartDate.getTime()));
+        modifiedInstance.setOriginalStartDate(new DateTime(originalStartDate.getTime()));
+        modifiedInstance.setEndDate(new DateTime(actualEndDate.getTime()));
+        fillModifiedData(modifiedInstance, eventDoc, modificationNotice, fields);
+
+        return modifiedInstance;
+    }
+
+    private Date getModifiedEndDate(BaseObject eventData, BaseObject modificationNotice, Date originalStartDate,
+        Date originalEndDate, Date actualStartDate)
+    {
+        // the following does not work if we have a modification without start date:
+        // Date actualEndDate = Utils.fetchOrGuessEndDate(modificationNotice);
+        // so instead:
+        Date actualEndDate = modificationNotice.getDateValue(EventConstants.PROPERTY_ENDDATE_NAME);
+        if (actualEndDate == null) {
+            // we need to calculate the actual end date from the actual start date, but only if this has been defined
+            // otherwise if we have no modified start date and no modified end date given,
+            // then the end date is the same as the original end date
+            // XXX: what if the "allDay" flag is changed on the event? currently this is not supported
+            if (actualStartDate.equals(originalStartDate)) {
+                actualEndDate = originalEndDate;
+            } else {
+                final boolean allDay = eventData.getIntValue(EventConstants.PROPERTY_ALLDAY_NAME) == 1;
+                actualEndDate = Utils.guessEndDate(actualStartDate, allDay);
+            }
+        }
+        return actualEndDate;
+    }
+
+    private void fillModifiedData(EventInstance modifiedInstance, XWikiDocument eventDoc,
+        BaseObject modificationNotice, Set<EventField> fields)
+    {
+        // the colors and the title are plain strings: read them without running the displayers, escaped the same
+        // way as the displayers do
+        if (fields.contains(EventField.COLORS)) {
+            String actualBackgroundColor = this.eventDataCompleter.getEscapedProperty(modificationNotice,
+                EventConstants.PROPERTY_BACKGROUNDCOLOR_NAME);
+            String actualTextColor = this.eventDataCompleter.getEscapedProperty(modificationNotice,
+                EventConstants.PROPERTY_TEXTCOLOR_NAME);
+
+            if (!actualBackgroundColor.isEmpty()) {
+                modifiedInstance.setBackgroundColor(actualBackgroundColor);
+            }
+            if (!actualTextColor.isEmpty()) {
+                modifiedInstance.setTextColor(actualTextColor);
+            }
+        }
+
+        String modifiedTitle =
+            this.eventDataCompleter.getEscapedProperty(modificationNotice, EventConstants.PROPERTY_TITLE_NAME);
+        if (!modifiedTitle.trim().isEmpty()) {
+            modifiedInstance.setTitle(eventDoc.getRenderedContent(modifiedTitle, eventDoc.getSyntax().toIdString(),
+                Syntax.PLAIN_1_0.toIdString(), this.xcontextProvider.get()));
+        }
+        String modifiedDescription = modificationNotice.getStringValue(EventConstants.PROPERTY_DESCRIPTION_NAME);
+        if (fields.contains(EventField.DESCRIPTION) && modifiedDescription != null
+            && !"".equals(modifiedDescription.trim())) {
+            this.descriptionRenderer.fillDescription(modificationNotice, EventConstants.PROPERTY_DESCRIPTION_NAME,
+                modifiedInstance);
+        }
+    }
+}
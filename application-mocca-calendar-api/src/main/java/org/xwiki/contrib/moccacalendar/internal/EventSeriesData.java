@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The data shared by all the occurrences of a recurrent event: it is rendered and resolved once per series, and the
+ * occurrences only get their own dates and the data of their modification, if any.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public final class EventSeriesData
+{
+    private final DocumentReference eventDocRef;
+
+    private final boolean allDay;
+
+    private final String title;
+
+    /**
+     * Renders the description of the series at most once, for the first occurrence which needs it; null if the
+     * description was not requested.
+     */
+    private final EventInstance.DescriptionProvider description;
+
+    private final String textColor;
+
+    private final String backgroundColor;
+
+    /**
+     * @param prototype an event instance of the series, completed with the data of the event document
+     */
+    public EventSeriesData(EventInstance prototype)
+    {
+        this.eventDocRef = prototype.getEventDocRef();
+        this.allDay = prototype.isAllDay();
+        this.title = prototype.getTitle();
+        if (prototype.hasDescription()) {
+            this.description = occurrence -> {
+                occurrence.setDescription(prototype.getDescription());
+                occurrence.setDescriptionHtml(prototype.getDescriptionHtml());
+            };
+        } else {
+            this.description = null;
+        }
+        this.textColor = prototype.getTextColor();
+        this.backgroundColor = prototype.getBackgroundColor();
+    }
+
+    /**
+     * Complete an occurrence of the series with the shared data, keeping the data set by its modification.
+     *
+     * @param occurrence an occurrence of the series, with its dates set
+     */
+    public void applyTo(EventInstance occurrence)
+    {
+        occurrence.setRecurrent(true);
+        occurrence.setAllDay(this.allDay);
+        occurrence.setEventDocRef(this.eventDocRef);
+        occurrence.setModifiable(true);
+        occurrence.setMovable(false);
+        if (occurrence.getTitle() == null) {
+            occurrence.setTitle(this.title);
+        }
+        if (this.description != null && !occurrence.hasDescription()) {
+            occurrence.setDescriptionProvider(this.description);
+        }
+        if (StringUtils.isEmpty(occurrence.getTextColor())) {
+            occurrence.setTextColor(this.textColor);
+        }
+        if (StringUtils.isEmpty(occurrence.getBackgroundColor())) {
+            occurrence.setBackgroundColor(this.backgroundColor);
+        }
+    }
+}
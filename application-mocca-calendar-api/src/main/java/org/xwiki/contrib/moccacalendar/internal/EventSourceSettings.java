@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.contrib.moccacalendar.EventSource;
+
+/**
+ * The activation state of the event sources in a wiki, as it was when the snapshot was taken: which sources are
+ * registered, which ones are available and which ones are enabled in the global settings. Snapshots are never
+ * modified; a new one is read by {@link EventSourceSettingsReader} when the settings or the sources change.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public final class EventSourceSettings
+{
+    private final Map<String, EventSource> sources;
+
+    private final Set<String> availableSources;
+
+    private final Set<String> globallyEnabledSources;
+
+    /**
+     * @param sources the event sources registered in the wiki, by name
+     * @param availableSources the names of the sources available in the wiki
+     * @param globallyEnabledSources the names of the available sources enabled in the global settings of the wiki
+     */
+    public EventSourceSettings(Map<String, EventSource> sources, Set<String> availableSources,
+        Set<String> globallyEnabledSources)
+    {
+        this.sources = Collections.unmodifiableMap(sources);
+        this.availableSources = Collections.unmodifiableSet(availableSources);
+        this.globallyEnabledSources = Collections.unmodifiableSet(globallyEnabledSources);
+    }
+
+    /**
+     * @return the event sources registered in the wiki, by name
+     */
+    public Map<String, EventSource> getSources()
+    {
+        return this.sources;
+    }
+
+    /**
+     * @param sourceName the name of an event source
+     * @return true if the source is available in the wiki
+     */
+    public boolean isAvailable(String sourceName)
+    {
+        return this.availableSources.contains(sourceName);
+    }
+
+    /**
+     * @param sourceName the name of an event source
+     * @return true if the source is available and enabled in the global settings of the wiki
+     */
+    public boolean isGloballyEnabled(String sourceName)
+    {
+        return this.globallyEnabledSources.contains(sourceName);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Keeps the activation state of the event sources, so that querying the events does not load the global settings, the
+ * calendar document and the classes the sources depend on each time a calendar is displayed.
+ * <p>
+ * The snapshots of the wikis and the sources enabled in the calendars are kept in LRU caches. They are invalidated by
+ * {@link EventSourceSettingsListener}: the snapshot of a wiki when its global settings or the meeting class change,
+ * the sources of a calendar when the calendar document changes, and everything when an event source component is
+ * registered or unregistered, as the snapshots hold the set of sources and the result of their
+ * {@link EventSource#isAvailable()}. The sources of a calendar are only used with the snapshot they were read with, so
+ * a new snapshot of a wiki makes its calendars read again.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventSourceSettingsCache.class)
+@Singleton
+public class EventSourceSettingsCache implements Initializable, Disposable
+{
+    private static final int MAX_WIKIS = 1000;
+
+    private static final int MAX_CALENDARS = 10000;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private EventSourceSettingsReader settingsReader;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<EventSourceSettings> wikiSettings;
+
+    private Cache<CalendarSources> calendarSettings;
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The sources enabled in a calendar, with the snapshot of the wiki they were read with.
+     */
+    private static final class CalendarSources
+    {
+        private final EventSourceSettings settings;
+
+        private final Set<String> names;
+
+        CalendarSources(EventSourceSettings settings, Set<String> names)
+        {
+            this.settings = settings;
+            this.names = names;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.wikiSettings = this.cacheManager
+                .createNewCache(new LRUCacheConfiguration("moccacalendar.eventSourceSettings.wikis", MAX_WIKIS));
+            this.calendarSettings = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("moccacalendar.eventSourceSettings.calendars", MAX_CALENDARS));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the event source settings caches", e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.wikiSettings.dispose();
+        this.calendarSettings.dispose();
+    }
+
+    /**
+     * Return the activation state of the event sources in the current wiki.
+     *
+     * @return the snapshot of the current wiki, taken now if there is none yet
+     */
+    public EventSourceSettings getSettings()
+    {
+        String wikiId = this.contextProvider.get().getWikiId();
+        EventSourceSettings settings = this.wikiSettings.get(wikiId);
+        if (settings == null) {
+            // Do not cache a snapshot which might have been invalidated while it was taken.
+            long invalidationCount = this.invalidations.get();
+            settings = this.settingsReader.readSettings();
+            if (invalidationCount == this.invalidations.get()) {
+                this.wikiSettings.set(wikiId, settings);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Return the names of the sources enabled in the configuration of a calendar.
+     *
+     * @param calendarReference the reference of the calendar document
+     * @return the names of the sources which are globally and locally enabled, not null
+     * @throws XWikiException if the calendar document cannot be loaded
+     */
+    public Set<String> getLocallyEnabledSources(DocumentReference calendarReference) throws XWikiException
+    {
+        String key = this.serializer.serialize(calendarReference);
+        long invalidationCount = this.invalidations.get();
+        EventSourceSettings settings = getSettings();
+        CalendarSources sources = this.calendarSettings.get(key);
+        if (sources == null || sources.settings != settings) {
+            Set<String> names = this.settingsReader.readLocallyEnabledSources(settings, calendarReference);
+            sources = new CalendarSources(settings, names);
+            if (invalidationCount == this.invalidations.get()) {
+                this.calendarSettings.set(key, sources);
+            }
+        }
+        return sources.names;
+    }
+
+    /**
+     * Forget all the snapshots, as the event sources have changed.
+     */
+    public void invalidateAll()
+    {
+        this.invalidations.incrementAndGet();
+        this.wikiSettings.removeAll();
+        this.calendarSettings.removeAll();
+    }
+
+    /**
+     * Forget the snapshot of a wiki, and with it the sources read from its calendars.
+     *
+     * @param wikiId the wiki whose global settings have changed
+     */
+    public void invalidateWiki(String wikiId)
+    {
+        this.invalidations.incrementAndGet();
+        this.wikiSettings.remove(wikiId);
+    }
+
+    /**
+     * Forget the sources enabled in a calendar.
+     *
+     * @param documentReference a document which has been modified
+     */
+    public void invalidateCalendar(DocumentReference documentReference)
+    {
+        String key = this.serializer.serialize(documentReference);
+        if (this.calendarSettings.get(key) != null) {
+            this.invalidations.incrementAndGet();
+            this.calendarSettings.remove(key);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidate the cached activation state of the event sources when the global settings, the meeting class or a
+ * calendar document are created, modified or deleted, and when an event source component is registered or
+ * unregistered.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Named("org.xwiki.contrib.moccacalendar.internal.EventSourceSettingsListener")
+@Singleton
+@Component
+public class EventSourceSettingsListener implements EventListener
+{
+    private static final Type EVENT_SOURCE_TYPE = EventSource.class;
+
+    @Inject
+    private EventSourceSettingsCache settingsCache;
+
+    @Override
+    public String getName()
+    {
+        return getClass().getName();
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent(),
+            new ComponentDescriptorAddedEvent(EVENT_SOURCE_TYPE),
+            new ComponentDescriptorRemovedEvent(EVENT_SOURCE_TYPE));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof ComponentDescriptorEvent) {
+            this.settingsCache.invalidateAll();
+            return;
+        }
+
+        DocumentReference documentReference = ((XWikiDocument) source).getDocumentReference();
+        LocalDocumentReference localReference = new LocalDocumentReference(documentReference);
+        if (EventSourceSettingsReader.GLOBAL_SETTINGS_PAGE.equals(localReference)
+            || EventSourceSettingsReader.MEETING_CLASS.equals(localReference)) {
+            this.settingsCache.invalidateWiki(documentReference.getWikiReference().getName());
+        } else {
+            this.settingsCache.invalidateCalendar(documentReference);
+        }
+    }
+}
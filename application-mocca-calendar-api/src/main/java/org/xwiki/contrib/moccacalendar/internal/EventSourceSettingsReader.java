@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Reads the activation state of the event sources from the global settings of the wiki and from the calendar
+ * documents. The results are kept by {@link EventSourceSettingsCache}.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventSourceSettingsReader.class)
+@Singleton
+public class EventSourceSettingsReader
+{
+    /** The page holding the global settings of the event sources. */
+    public static final LocalDocumentReference GLOBAL_SETTINGS_PAGE =
+        new LocalDocumentReference(Arrays.asList("MoccaCalendar", "Code"), "GlobalSettings");
+
+    /** The meeting source is only available if this class exists. */
+    public static final LocalDocumentReference MEETING_CLASS =
+        new LocalDocumentReference(Arrays.asList("Meeting", "Code"), "MeetingClass");
+
+    private static final Type EVENT_SOURCE_TYPE = EventSource.class;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Take a snapshot of the activation state of the event sources in the current wiki.
+     *
+     * @return the registered, available and globally enabled sources
+     */
+    public EventSourceSettings readSettings()
+    {
+        XWikiContext context = this.contextProvider.get();
+        Map<String, EventSource> sources;
+        try {
+            sources = this.componentManagerProvider.get().getInstanceMap(EVENT_SOURCE_TYPE);
+        } catch (ComponentLookupException e) {
+            this.logger.warn("cannot look up the event sources", e);
+            sources = Collections.emptyMap();
+        }
+
+        XWikiDocument globalPrefs = null;
+        try {
+            globalPrefs = context.getWiki().getDocument(GLOBAL_SETTINGS_PAGE, context);
+        } catch (XWikiException e) {
+            this.logger.warn("cannot load global calendar source settings", e);
+        }
+
+        Set<String> availableSources = new HashSet<>();
+        Set<String> globallyEnabledSources = new HashSet<>();
+        for (Map.Entry<String, EventSource> source : sources.entrySet()) {
+            String name = source.getKey();
+            // name should never be null, except for "default sources", which are not configurable
+            if (name == null || !source.getValue().isAvailable()) {
+                this.logger.debug("source [{}] is unvailable", name);
+                continue;
+            }
+            availableSources.add(name);
+            if (globalPrefs != null && isActive(globalPrefs.getXObject(getDefaultConfigurationClass(globalPrefs),
+                DefaultSourceConfigurationClassInitializer.SOURCE_NAME_FIELD, name))) {
+                globallyEnabledSources.add(name);
+            }
+        }
+        this.logger.debug("sources [{}] are globally enabled in wiki [{}]", globallyEnabledSources,
+            context.getWikiId());
+        return new EventSourceSettings(sources, availableSources, globallyEnabledSources);
+    }
+
+    /**
+     * Read the names of the sources enabled in the configuration of a calendar.
+     *
+     * @param settings the snapshot of the wiki of the calendar
+     * @param calendarReference the reference of the calendar document
+     * @return the names of the sources which are globally and locally enabled, not null
+     * @throws XWikiException if the calendar document cannot be loaded
+     */
+    public Set<String> readLocallyEnabledSources(EventSourceSettings settings, DocumentReference calendarReference)
+        throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        XWikiDocument calendarDoc = context.getWiki().getDocument(calendarReference, context);
+        Set<String> names = new HashSet<>();
+        for (Map.Entry<String, EventSource> source : settings.getSources().entrySet()) {
+            String name = source.getKey();
+            if (name != null && settings.isGloballyEnabled(name)
+                && isLocallyEnabled(name, source.getValue(), calendarDoc)) {
+                names.add(name);
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    private boolean isLocallyEnabled(String name, EventSource source, XWikiDocument configDoc)
+    {
+        LocalDocumentReference configClass = source.getConfigurationClass();
+        this.logger.trace("try config class [{}] in document [{}] for source [{}]", configClass, configDoc, name);
+        BaseObject configObj;
+        if (configClass != null) {
+            configObj = configDoc.getXObject(configClass);
+        } else {
+            configObj = configDoc.getXObject(getDefaultConfigurationClass(configDoc),
+                DefaultSourceConfigurationClassInitializer.SOURCE_NAME_FIELD, name);
+        }
+        return isActive(configObj);
+    }
+
+    private DocumentReference getDefaultConfigurationClass(XWikiDocument configDoc)
+    {
+        return new DocumentReference(DefaultSourceConfigurationClassInitializer.getConfigurationClass(),
+            configDoc.getDocumentReference().getWikiReference());
+    }
+
+    private boolean isActive(BaseObject configObject)
+    {
+        this.logger.trace("check config object [{}] from [{}] for active flag", configObject,
+            (configObject != null) ? configObject.getReference() : "n/a");
+        return (configObject != null
+            && configObject.getIntValue(AbstractSourceConfigurationClassInitializer.ACTIVE_FIELD) == 1);
+    }
+}
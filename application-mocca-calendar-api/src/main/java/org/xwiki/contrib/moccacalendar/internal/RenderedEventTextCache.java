@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the rendered titles and descriptions of the events, so that displaying the same events again does not render
+ * them again. The entries of a document are identified by its locale and version, and by the object, property and
+ * target syntax they come from; texts whose rendering depends on the current user also include the user in their key.
+ * All the entries of a document are dropped when it is updated or deleted.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = {RenderedEventTextCache.class, EventListener.class})
+@Named("org.xwiki.contrib.moccacalendar.internal.RenderedEventTextCache")
+@Singleton
+public class RenderedEventTextCache implements EventListener, Initializable, Disposable
+{
+    private static final int MAX_DOCUMENTS = 2000;
+
+    /** Protects from a document displayed by many different users while its texts depend on the user. */
+    private static final int MAX_ENTRIES_PER_DOCUMENT = 200;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<Map<String, Object>> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager
+                .createNewCache(new LRUCacheConfiguration("moccacalendar.renderedEventText", MAX_DOCUMENTS));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the rendered event text cache", e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.cache.dispose();
+    }
+
+    @Override
+    public String getName()
+    {
+        return getClass().getName();
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.asList(new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        invalidate(((XWikiDocument) source).getDocumentReference());
+    }
+
+    /**
+     * Return the cached text, or render it and keep it.
+     *
+     * @param document the document holding the text
+     * @param textKey identifies the text in the document: the object, the property, the target syntax, the locale
+     *     of the rendering and, if needed, the current user
+     * @param renderer renders the text if it is not cached
+     * @param <T> the type of the rendered text
+     * @return the rendered text
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(XWikiDocument document, String textKey, Supplier<T> renderer)
+    {
+        String documentKey = this.serializer.serialize(document.getDocumentReference());
+        Map<String, Object> texts = this.cache.get(documentKey);
+        if (texts == null) {
+            texts = new ConcurrentHashMap<>();
+            this.cache.set(documentKey, texts);
+        } else if (texts.size() >= MAX_ENTRIES_PER_DOCUMENT) {
+            texts.clear();
+        }
+
+        // the version identifies the content of the document, the locale the translation it comes from
+        String key = String.format("%s/%s/%s", document.getRealLocale(), document.getVersion(), textKey);
+        T text = (T) texts.get(key);
+        if (text == null) {
+            text = renderer.get();
+            texts.put(key, text);
+        }
+        return text;
+    }
+
+    /**
+     * Forget the texts of the given document.
+     *
+     * @param documentReference a document which has been modified
+     */
+    public void invalidate(DocumentReference documentReference)
+    {
+        this.cache.remove(this.serializer.serialize(documentReference));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventField;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.wiki.descriptor.WikiDescriptor;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Collects the events of the {@link EventSource} components which are active for a calendar.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = SourceEventCollector.class)
+@Singleton
+public class SourceEventCollector
+{
+    private static final String WIKI_FILTER = "wiki";
+
+    @Inject
+    private EventSourceSettingsCache eventSourceSettingsCache;
+
+    @Inject
+    private EventDataCompleter eventDataCompleter;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Get the events of all the sources active for a calendar.
+     *
+     * @param dateFrom the start of the date range
+     * @param dateTo the end of the date range
+     * @param filter how the calendar filters its events; if null or "wiki" all the events of the wiki are returned
+     * @param wiki the wiki of the calendar
+     * @param parentRef the page used by the filter, can be null if filter is null or "wiki"
+     * @param sortAscending if the sources should sort their events by ascending start date
+     * @param fields the optional data to set on the events; the sources might set more of it
+     * @return the events of the sources, not sorted across sources
+     */
+    public List<EventInstance> getEvents(Date dateFrom, Date dateTo, String filter, String wiki,
+        DocumentReference parentRef, boolean sortAscending, Set<EventField> fields)
+    {
+        List<EventInstance> events = new ArrayList<>();
+        DocumentReference sourceParentRef = parentRef;
+        Map<String, EventSource> sources = this.eventSourceSettingsCache.getSettings().getSources();
+        for (Map.Entry<String, EventSource> source : sources.entrySet()) {
+            if (!isSourceActive(source.getKey(), source.getValue(), filter, parentRef)) {
+                continue;
+            }
+            this.logger.debug("add events from [{}] source", source.getKey());
+            // In case the filter is "wiki" and "parentRef" is null, we create one pointing at the wiki home
+            // in order to be able to retrieve the target wiki reference when retrieving the events in
+            // MeetingEventSource
+            if (WIKI_FILTER.equals(filter) && sourceParentRef == null) {
+                sourceParentRef = getWikiHome(wiki);
+            }
+            List<EventInstance> sourceEvents =
+                source.getValue().getEvents(dateFrom, dateTo, filter, sourceParentRef, sortAscending);
+            if (sourceEvents != null) {
+                for (EventInstance sourceEvent : sourceEvents) {
+                    if (fields.contains(EventField.COLORS)) {
+                        this.eventDataCompleter.setColors(sourceEvent, null);
+                    }
+                    sourceEvent.setSource(source.getKey());
+                }
+                events.addAll(sourceEvents);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Check if the events of the given source are displayed by a calendar.
+     *
+     * @param sourceName the name of the event source
+     * @param filter how the calendar filters its events; if null or "wiki" only the global settings are checked
+     * @param parentRef the page used by the filter, can be null if filter is null or "wiki"
+     * @return true if the source is available and enabled for the calendar
+     */
+    public boolean isSourceActive(String sourceName, String filter, DocumentReference parentRef)
+    {
+        EventSource source = this.eventSourceSettingsCache.getSettings().getSources().get(sourceName);
+        return source != null && isSourceActive(sourceName, source, filter, parentRef);
+    }
+
+    /**
+     * Get the sheet displaying an event of another source in the calendar.
+     *
+     * @param event an event instance
+     * @return the full name of the sheet of the source of the event, or null if the event is stored in its own
+     *     document or if its source is not installed anymore
+     */
+    public String getDisplaySheet(EventInstance event)
+    {
+        if (event == null || event.getSource() == null) {
+            return null;
+        }
+        EventSource source = this.eventSourceSettingsCache.getSettings().getSources().get(event.getSource());
+        return source != null ? source.getDisplaySheet() : null;
+    }
+
+    private boolean isSourceActive(String name, EventSource source, String filter, DocumentReference parentRef)
+    {
+        this.logger.debug("check if source [{}] is active", name);
+
+        // name should never be null, except for "default sources", which are always enabled
+        if (name == null) {
+            return source.isAvailable();
+        }
+
+        EventSourceSettings settings = this.eventSourceSettingsCache.getSettings();
+        if (!settings.isGloballyEnabled(name)) {
+            this.logger.debug("source [{}] is unavailable or globally disabled", name);
+            return false;
+        }
+
+        this.logger.debug("source [{}] is globally enabled", name);
+        // no local checks for global filter
+        if (filter == null || WIKI_FILTER.equals(filter)) {
+            return true;
+        }
+
+        boolean locallyEnabled;
+        try {
+            locallyEnabled = parentRef != null
+                && this.eventSourceSettingsCache.getLocallyEnabledSources(parentRef).contains(name);
+            this.logger.debug("is source [{}] locally enabled: [{}]", name, locallyEnabled);
+        } catch (XWikiException e) {
+            locallyEnabled = false;
+            this.logger.warn("could not determine if source [{}] is active", name, e);
+        }
+        return locallyEnabled;
+    }
+
+    private DocumentReference getWikiHome(String wiki)
+    {
+        try {
+            WikiDescriptor wikiDescriptor = this.wikiDescriptorManager.getById(wiki);
+            return wikiDescriptor.getMainPageReference();
+        } catch (WikiManagerException e) {
+            this.logger.error("Could not retrieve wiki descriptor for [{}]", wiki, e);
+            return null;
+        }
+    }
+}
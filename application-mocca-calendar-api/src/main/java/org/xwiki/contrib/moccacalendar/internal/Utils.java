@@ -121,6 +121,7 @@ public final class Utils
      * @param descriptionPropertyName then name of the property storing the description
      * @param context the current context
      * @param event the event instance whose description will be set
+     * @see DescriptionRenderer#fillDescription(BaseObject, String, org.xwiki.contrib.moccacalendar.EventInstance)
      */
     public static void fillDescription(BaseObject eventData, String descriptionPropertyName, XWikiContext context,
         EventInstance event)
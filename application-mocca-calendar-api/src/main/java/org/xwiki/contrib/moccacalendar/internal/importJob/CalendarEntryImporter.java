@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Creates the documents of the events of an entry of an ical file. An entry holds several events when some instances
+ * of a recurrent event cannot be stored with it, so each of its events gets its own document, and all of them are
+ * remembered in the {@link ImportedEventIndex}.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = CalendarEntryImporter.class)
+@Singleton
+public class CalendarEntryImporter
+{
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Inject
+    private CalendarEventImporter calendarEventImporter;
+
+    @Inject
+    private ImportedEventIndex importedEventIndex;
+
+    /**
+     * Create the documents of the events of an entry. When the calendar is synchronized with the file, the documents
+     * imported before from the same entry are updated first, and those which are left over, e.g. because the entry
+     * has less events than before, are listed as obsolete.
+     *
+     * @param preparedEntry the entry and its events
+     * @param importedEvents the documents imported before from the same entry, empty if there are none or if the
+     *     calendar is not synchronized
+     * @param eventNameReservation the names used in the calendar, for the new documents
+     * @param obsoleteDocuments where to add the documents imported before from the entry which are not needed anymore
+     * @return the documents of the events, to be saved
+     * @throws XWikiException if a document imported before cannot be loaded, or an event cannot be added to its
+     *     document
+     */
+    public List<XWikiDocument> importEntry(PreparedCalendarEntry preparedEntry, List<ImportedEvent> importedEvents,
+        EventNameReservation eventNameReservation, List<DocumentReference> obsoleteDocuments) throws XWikiException
+    {
+        CalendarEventEntry entry = preparedEntry.getEntry();
+        Iterator<ImportedEvent> previousEvents = importedEvents.iterator();
+        List<XWikiDocument> eventDocuments = new ArrayList<>();
+        for (PreparedCalendarEvent preparedEvent : preparedEntry.getEvents()) {
+            String eventName = preparedEvent.getEvent().getTitle().trim();
+            if (eventName.isEmpty()) {
+                continue;
+            }
+            XWikiDocument eventDoc = null;
+            while (eventDoc == null && previousEvents.hasNext()) {
+                eventDoc = getImportedEventDocument(previousEvents.next(), eventName);
+            }
+            if (eventDoc == null) {
+                eventDoc = this.calendarEventImporter.getUniqueEventName(eventName, eventNameReservation);
+            }
+            this.calendarEventImporter.importCalendarEvent(eventDoc, preparedEvent);
+            if (entry.getUid() != null) {
+                // Remember where the event has been imported, in order to update it on the next synchronization.
+                this.importedEventIndex.setImportedEvent(eventDoc, entry);
+            }
+            eventDocuments.add(eventDoc);
+        }
+        previousEvents.forEachRemaining(importedEvent -> obsoleteDocuments.add(importedEvent.getDocumentReference()));
+        return eventDocuments;
+    }
+
+    /**
+     * Get the document in which an event has been imported before, ready to be updated.
+     *
+     * @return the event document, or {@code null} if it has been deleted since
+     */
+    private XWikiDocument getImportedEventDocument(ImportedEvent importedEvent, String eventName)
+        throws XWikiException
+    {
+        XWikiContext wikiContext = this.wikiContextProvider.get();
+        XWikiDocument eventDoc =
+            wikiContext.getWiki().getDocument(importedEvent.getDocumentReference(), wikiContext).clone();
+        if (eventDoc.isNew()) {
+            return null;
+        }
+        this.calendarEventImporter.clearCalendarEvent(eventDoc);
+        eventDoc.setTitle(eventName);
+        return eventDoc;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+/**
+ * A single event read from an ical file by the {@link CalendarEventReader}, together with the modified instances of
+ * the event if it is recurrent. The content is a complete calendar that can be handed to the ical parser on its own.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class CalendarEventEntry
+{
+    private final String uid;
+
+    private final String revision;
+
+    private final byte[] content;
+
+    /**
+     * Creates a new entry.
+     *
+     * @param uid the UID shared by all the components of the entry, can be {@code null}
+     * @param revision identifies the version of the event, see {@link #getRevision()}
+     * @param content the complete calendar containing only this event, encoded in UTF-8
+     */
+    public CalendarEventEntry(String uid, String revision, byte[] content)
+    {
+        this.uid = uid;
+        this.revision = revision;
+        this.content = content;
+    }
+
+    /**
+     * Get the UID of the event.
+     *
+     * @return the UID of the event, or {@code null} if the event has none.
+     */
+    public String getUid()
+    {
+        return uid;
+    }
+
+    /**
+     * Get the version of the event. It is made of the SEQUENCE and LAST-MODIFIED properties of its components, falling
+     * back to a checksum of their content when LAST-MODIFIED is missing. Two entries with the same UID and revision
+     * hold the same event.
+     *
+     * @return the revision of the event
+     */
+    public String getRevision()
+    {
+        return revision;
+    }
+
+    /**
+     * Get the calendar holding only this event.
+     *
+     * @return the content of the calendar, encoded in UTF-8.
+     */
+    public byte[] getContent()
+    {
+        return content;
+    }
+}
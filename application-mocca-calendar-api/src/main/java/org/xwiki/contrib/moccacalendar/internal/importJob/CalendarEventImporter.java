@@ -21,6 +21,7 @@ package org.xwiki.contrib.moccacalendar.internal.importJob;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -29,6 +30,7 @@ import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Safelist;
 import org.xwiki.component.annotation.Component;
@@ -37,7 +39,6 @@ import org.xwiki.fullcalendar.model.CalendarEvent;
 import org.xwiki.fullcalendar.model.RecurrentEventModification;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.stability.Unstable;
 import org.xwiki.wysiwyg.converter.HTMLConverter;
@@ -59,7 +60,10 @@ import com.xpn.xwiki.objects.BaseObject;
 @Singleton
 public class CalendarEventImporter
 {
-    private static final String NEW_EVENT_HOME = "WebHome";
+    /**
+     * The punctuation characters which are written the same way in HTML and XWiki syntax, when not doubled.
+     */
+    private static final String PLAIN_TEXT_PUNCTUATION = " .,!?'()-";
 
     @Inject
     private HTMLConverter htmlConverter;
@@ -79,14 +83,56 @@ public class CalendarEventImporter
      * @throws XWikiException if there are any issues when creating the {@link BaseObject} for the given document.
      */
     public void importCalendarEvent(XWikiDocument eventDoc, CalendarEvent component) throws XWikiException
+    {
+        importCalendarEvent(eventDoc, prepareCalendarEvent(component, new ConvertedContentCache()));
+    }
+
+    /**
+     * Converts the HTML content of the given event to XWiki syntax. This is the most expensive part of the import and
+     * does not access the wiki, so it can be done for several events in parallel.
+     *
+     * @param component the event read from the ical file.
+     * @param cache the content converted so far during the import.
+     * @return the event together with its converted content.
+     * @since 2.20
+     */
+    public PreparedCalendarEvent prepareCalendarEvent(CalendarEvent component, ConvertedContentCache cache)
+    {
+        String title = convertContent(component.getTitle(), cache);
+        String description = convertContent(component.getDescription(), cache);
+
+        List<String> modificationTitles = new ArrayList<>();
+        List<String> modificationDescriptions = new ArrayList<>();
+        if (component.isRecurrent() == 1) {
+            for (RecurrentEventModification eventModification : component.getModificationList()) {
+                modificationTitles.add(convertContent(eventModification.getModifiedTitle(), cache));
+                modificationDescriptions.add(convertContent(eventModification.getModifiedDescription(), cache));
+            }
+        }
+
+        return new PreparedCalendarEvent(component, title, description, modificationTitles,
+            modificationDescriptions);
+    }
+
+    /**
+     * Creates the class objects specific to a Mocca calendar event and adds them to the given {@link XWikiDocument}.
+     *
+     * @param eventDoc the {@link XWikiDocument} where the objects will be added.
+     * @param preparedEvent contains the data used to populate the objects.
+     * @throws XWikiException if there are any issues when creating the {@link BaseObject} for the given document.
+     * @since 2.20
+     */
+    public void importCalendarEvent(XWikiDocument eventDoc, PreparedCalendarEvent preparedEvent)
+        throws XWikiException
     {
         XWikiContext wikiContext = wikiContextProvider.get();
+        CalendarEvent component = preparedEvent.getEvent();
         DocumentReference eventClassRef =
             documentReferenceResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME);
         BaseObject eventObj = eventDoc.newXObject(eventClassRef, wikiContext);
 
-        addConvertedPropertyToObject(component.getDescription(), eventObj, EventConstants.PROPERTY_DESCRIPTION_NAME);
-        addConvertedPropertyToObject(component.getTitle(), eventObj, EventConstants.PROPERTY_TITLE_NAME);
+        eventObj.set(EventConstants.PROPERTY_DESCRIPTION_NAME, preparedEvent.getDescription(), wikiContext);
+        eventObj.set(EventConstants.PROPERTY_TITLE_NAME, preparedEvent.getTitle(), wikiContext);
 
         int allDay = component.isAllDay() ? 1 : 0;
         eventObj.set(EventConstants.PROPERTY_ALLDAY_NAME, allDay, wikiContext);
@@ -102,56 +148,111 @@ public class CalendarEventImporter
         int recurrenceValue = component.isRecurrent();
         eventObj.set(EventConstants.PROPERTY_RECURRENT_NAME, recurrenceValue, wikiContext);
         if (recurrenceValue == 1) {
-            setRecurrence(eventDoc, component);
+            setRecurrence(eventDoc, preparedEvent);
         }
     }
 
     /**
-     * Checks if a {@link XWikiDocument} with the given name exists at the given parent reference or is to be processed
-     * and generate a unique name for it.
+     * Removes the objects created by a previous import of an event, so that the event can be imported again in the
+     * same document.
+     *
+     * @param eventDoc the event document
+     * @since 2.20
+     */
+    public void clearCalendarEvent(XWikiDocument eventDoc)
+    {
+        eventDoc.removeXObjects(documentReferenceResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME));
+        eventDoc.removeXObjects(
+            documentReferenceResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_RECURRENCY_CLASS_NAME));
+        eventDoc.removeXObjects(
+            documentReferenceResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_MODIFICATION_CLASS_NAME));
+    }
+
+    /**
+     * Creates a new event document with a unique name in the calendar of the given reservation.
      *
      * @param eventName name of the event to be added.
-     * @param parentRef reference to the parent of the event.
-     * @param eventDocuments {@link List} with the events document that are to be processed and created.
-     * @return a {@link XWikiDocument} with the title the given event name and a unique identifier.
-     * @throws XWikiException if there are any exceptions while getting the {@link XWikiDocument} for the event.
+     * @param reservation the names already used in the calendar.
+     * @return a new {@link XWikiDocument} with the title the given event name and a unique identifier.
+     * @throws XWikiException if the reserved document cannot be loaded
+     * @since 2.20
      */
-    public XWikiDocument getUniqueEventName(String eventName, String parentRef, List<XWikiDocument> eventDocuments)
+    public XWikiDocument getUniqueEventName(String eventName, EventNameReservation reservation)
         throws XWikiException
     {
-        XWikiContext wikiContext = this.wikiContextProvider.get();
-
-        DocumentReference parentDocRef = documentReferenceResolver.resolve(parentRef);
-        SpaceReference documentSpaceRef = new SpaceReference(eventName, parentDocRef.getLastSpaceReference());
-        DocumentReference eventRef = new DocumentReference(NEW_EVENT_HOME, documentSpaceRef);
-
-        XWikiDocument eventDoc = wikiContext.getWiki().getDocument(eventRef, wikiContext);
-
-        if (!eventDoc.isNew() || sameNameEventExists(eventRef, eventDocuments)) {
-            String newEventName = eventName + "_" + System.nanoTime();
-            SpaceReference newDocumentSpaceRef = new SpaceReference(newEventName, parentDocRef.getLastSpaceReference());
-            DocumentReference newEventRef = new DocumentReference(NEW_EVENT_HOME, newDocumentSpaceRef);
-            eventDoc = new XWikiDocument(newEventRef);
+        XWikiContext wikiContext = wikiContextProvider.get();
+        XWikiDocument eventDoc = wikiContext.getWiki().getDocument(reservation.reserve(eventName), wikiContext);
+        // The reserved names only cover the events known when the reservation was made; another import, or a user,
+        // may have created a page with the same name since then.
+        while (!eventDoc.isNew()) {
+            eventDoc = wikiContext.getWiki().getDocument(reservation.reserve(eventName), wikiContext);
         }
+        eventDoc = eventDoc.clone();
         eventDoc.setTitle(eventName);
-        eventDoc.setParentReference(parentDocRef);
+        eventDoc.setParentReference(reservation.getCalendarReference());
         return eventDoc;
     }
 
-    private void addConvertedPropertyToObject(String htmlContent, BaseObject eventObj, String property)
+    /**
+     * Converts the content of an event field from HTML to XWiki syntax.
+     *
+     * @param htmlContent the content read from the ical file
+     * @param cache the content converted so far during the import
+     * @return the content in XWiki syntax
+     */
+    String convertContent(String htmlContent, ConvertedContentCache cache)
+    {
+        if (StringUtils.isBlank(htmlContent)) {
+            return "";
+        }
+        // Most titles and many descriptions are plain text, which does not need to go through the HTML converter.
+        String plainText = getPlainText(htmlContent);
+        if (plainText != null) {
+            return plainText;
+        }
+        return cache.get(htmlContent, this::convertHTML);
+    }
+
+    private String convertHTML(String htmlContent)
     {
-        // Sanitize the given HTML content and convert it to XWiki syntax prior to adding it to the given object field.
+        // Sanitize the given HTML content and convert it to XWiki syntax prior to adding it to an object field.
         // This is done in order to offer the user a less technical way to edit the content.
         String cleanHTMLContent = Jsoup.clean(htmlContent, Safelist.basic());
-        String convertedContent = htmlConverter.fromHTML(cleanHTMLContent, Syntax.XWIKI_2_1.toIdString());
+        return htmlConverter.fromHTML(cleanHTMLContent, Syntax.XWIKI_2_1.toIdString());
+    }
 
-        eventObj.set(property, convertedContent, wikiContextProvider.get());
+    /**
+     * Get the text that the HTML converter would produce for the given content, if the content is made only of text
+     * which is rendered the same way in HTML and in XWiki syntax. The check is conservative: any character which could
+     * be part of an HTML tag or entity or of some XWiki markup sends the content through the converter.
+     *
+     * @return the converted content, or {@code null} if the content has to be converted by the HTML converter
+     */
+    private String getPlainText(String content)
+    {
+        // HTML collapses white spaces.
+        String text = StringUtils.normalizeSpace(content);
+        // Avoid XWiki markup at the start of a line, e.g. numbered lists.
+        if (!Character.isLetter(text.charAt(0))) {
+            return null;
+        }
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // Doubled punctuation is how most of the XWiki markup looks like, e.g. "--" or "((( ".
+            if (!Character.isLetterOrDigit(c) && (PLAIN_TEXT_PUNCTUATION.indexOf(c) < 0 || c == previous)) {
+                return null;
+            }
+            previous = c;
+        }
+        return text;
     }
 
-    private void setRecurrence(XWikiDocument eventDoc, CalendarEvent component) throws XWikiException
+    private void setRecurrence(XWikiDocument eventDoc, PreparedCalendarEvent preparedEvent) throws XWikiException
     {
         // Creates the MoccaCalendarEventRecurrencyClass object and populates it with the fields from the CalendarEvent.
         XWikiContext wikiContext = wikiContextProvider.get();
+        CalendarEvent component = preparedEvent.getEvent();
         DocumentReference eventRecClassRef =
             documentReferenceResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_RECURRENCY_CLASS_NAME);
         BaseObject eventRecObj = eventDoc.newXObject(eventRecClassRef, wikiContext);
@@ -165,28 +266,18 @@ public class CalendarEventImporter
             documentReferenceResolver.resolve(EventConstants.MOCCA_CALENDAR_EVENT_MODIFICATION_CLASS_NAME);
         // For every modified recurrence instance, creates a new MoccaCalendarEventModificationClass and populates it
         // with the required fields.
-        for (RecurrentEventModification eventModification : component.getModificationList()) {
+        List<RecurrentEventModification> modifications = component.getModificationList();
+        for (int i = 0; i < modifications.size(); i++) {
+            RecurrentEventModification eventModification = modifications.get(i);
             BaseObject eventModObj = eventDoc.newXObject(eventRecModifiedRef, wikiContext);
             eventModObj.set(EventConstants.PROPERTY_ORIG_STARTDATE_OF_MODIFIED_NAME,
                 eventModification.getOriginalDate(), wikiContext);
             eventModObj.set(EventConstants.PROPERTY_STARTDATE_NAME, eventModification.getModifiedStartDate(),
                 wikiContext);
             eventModObj.set(EventConstants.PROPERTY_ENDDATE_NAME, eventModification.getModifiedEndDate(), wikiContext);
-            addConvertedPropertyToObject(eventModification.getModifiedTitle(), eventModObj,
-                EventConstants.PROPERTY_TITLE_NAME);
-
-            addConvertedPropertyToObject(eventModification.getModifiedDescription(), eventModObj,
-                EventConstants.PROPERTY_DESCRIPTION_NAME);
-        }
-    }
-
-    private boolean sameNameEventExists(DocumentReference eventRef, List<XWikiDocument> eventDocuments)
-    {
-        for (XWikiDocument document : eventDocuments) {
-            if (document.getDocumentReference().equals(eventRef)) {
-                return true;
-            }
+            eventModObj.set(EventConstants.PROPERTY_TITLE_NAME, preparedEvent.getModificationTitle(i), wikiContext);
+            eventModObj.set(EventConstants.PROPERTY_DESCRIPTION_NAME, preparedEvent.getModificationDescription(i),
+                wikiContext);
         }
-        return false;
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Prepares the entries of an ical file on a pool of worker threads while the import job saves the documents of the
+ * entries already prepared. The entries are returned in the order of the file, and only a limited number of them are
+ * read ahead, so that the memory used does not depend on the size of the file.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class CalendarEventPipeline implements Closeable
+{
+    private final CalendarEventReader reader;
+
+    private final CalendarEventPreparer preparer;
+
+    private final ExecutorService executor;
+
+    private final Predicate<CalendarEventEntry> filter;
+
+    private final int maxPendingEntries;
+
+    private final Deque<Future<PreparedCalendarEntry>> pendingEntries = new ArrayDeque<>();
+
+    private final ConvertedContentCache convertedContentCache = new ConvertedContentCache();
+
+    private boolean readerFinished;
+
+    /**
+     * @param reader the reader of the ical file
+     * @param preparer the component preparing each entry
+     * @param threadCount the number of worker threads
+     * @param filter selects the entries to prepare
+     */
+    CalendarEventPipeline(CalendarEventReader reader, CalendarEventPreparer preparer, int threadCount,
+        Predicate<CalendarEventEntry> filter)
+    {
+        this.reader = reader;
+        this.preparer = preparer;
+        this.filter = filter;
+        this.executor = Executors.newFixedThreadPool(threadCount, preparer.createWorkerThreadFactory());
+        // Keep the workers busy while the job saves documents, without reading too much of the file in advance.
+        this.maxPendingEntries = 2 * threadCount;
+    }
+
+    /**
+     * Return the next entry of the file. The filter is called from this method, i.e. from the thread reading the
+     * entries.
+     *
+     * @return the next entry with its prepared events, or {@code null} if all the entries have been returned
+     * @throws Exception if the file cannot be read or the entry cannot be parsed
+     */
+    public PreparedCalendarEntry next() throws Exception
+    {
+        while (!this.readerFinished && this.pendingEntries.size() < this.maxPendingEntries) {
+            CalendarEventEntry entry = this.reader.next();
+            if (entry == null) {
+                this.readerFinished = true;
+            } else if (this.filter.test(entry)) {
+                this.pendingEntries
+                    .add(this.executor.submit(() -> this.preparer.prepare(entry, this.convertedContentCache)));
+            } else {
+                // Entries which are not imported are not even parsed.
+                PreparedCalendarEntry skippedEntry = new PreparedCalendarEntry(entry, Collections.emptyList());
+                this.pendingEntries.add(CompletableFuture.completedFuture(skippedEntry));
+            }
+        }
+
+        Future<PreparedCalendarEntry> nextEntry = this.pendingEntries.poll();
+        if (nextEntry == null) {
+            return null;
+        }
+        try {
+            return nextEntry.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the worker threads, dropping the entries which have not been returned yet. The reader is not closed.
+     */
+    @Override
+    public void close()
+    {
+        for (Future<PreparedCalendarEntry> pendingEntry : this.pendingEntries) {
+            pendingEntry.cancel(true);
+        }
+        this.pendingEntries.clear();
+        this.executor.shutdownNow();
+    }
+}
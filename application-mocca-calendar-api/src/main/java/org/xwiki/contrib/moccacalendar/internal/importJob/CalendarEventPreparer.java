@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Predicate;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.fullcalendar.FullCalendarManager;
+import org.xwiki.fullcalendar.model.CalendarEvent;
+
+/**
+ * Parses the entries read from an ical file and converts their content, possibly on several threads at once.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = CalendarEventPreparer.class)
+@Singleton
+public class CalendarEventPreparer
+{
+    @Inject
+    private FullCalendarManager fullCalendarManager;
+
+    @Inject
+    private CalendarEventImporter calendarEventImporter;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Parse an entry of the ical file and convert the content of its events.
+     *
+     * @param entry the entry read from the file
+     * @param cache the content converted so far during the import
+     * @return the entry with its events, ready to be imported
+     * @throws Exception if the entry cannot be parsed
+     */
+    public PreparedCalendarEntry prepare(CalendarEventEntry entry, ConvertedContentCache cache) throws Exception
+    {
+        List<CalendarEvent> calendarEvents =
+            this.fullCalendarManager.getICalEventsFromFile(entry.getContent(), null, null, true);
+        List<PreparedCalendarEvent> preparedEvents = new ArrayList<>(calendarEvents.size());
+        for (CalendarEvent calendarEvent : calendarEvents) {
+            preparedEvents.add(this.calendarEventImporter.prepareCalendarEvent(calendarEvent, cache));
+        }
+        return new PreparedCalendarEntry(entry, preparedEvents);
+    }
+
+    /**
+     * Start preparing the entries of the given reader on a pool of worker threads.
+     *
+     * @param reader the reader of the ical file
+     * @param threadCount the number of worker threads
+     * @param filter selects the entries to prepare; the other entries are returned without any event
+     * @return the pipeline returning the prepared entries in the order of the file
+     */
+    public CalendarEventPipeline createPipeline(CalendarEventReader reader, int threadCount,
+        Predicate<CalendarEventEntry> filter)
+    {
+        return new CalendarEventPipeline(reader, this, threadCount, filter);
+    }
+
+    /**
+     * Create the factory of the worker threads preparing the entries. Each worker runs with its own copy of the
+     * execution context of the thread starting it, i.e. the import job, so that the converters find the same wiki and
+     * user as the import job. The context is copied once per worker, not once per entry.
+     *
+     * @return the factory of the worker threads
+     */
+    ThreadFactory createWorkerThreadFactory()
+    {
+        ThreadFactory contextThreadFactory = runnable -> {
+            ExecutionContext context;
+            try {
+                context = this.executionContextManager.clone(this.execution.getContext());
+            } catch (ExecutionContextException e) {
+                throw new IllegalStateException("Failed to copy the execution context of the import job.", e);
+            }
+            return new Thread(() -> {
+                this.execution.setContext(context);
+                try {
+                    runnable.run();
+                } finally {
+                    this.execution.removeContext();
+                }
+            });
+        };
+        return new BasicThreadFactory.Builder().wrappedFactory(contextThreadFactory)
+            .namingPattern("Mocca Calendar import worker %d").daemon(true).build();
+    }
+}
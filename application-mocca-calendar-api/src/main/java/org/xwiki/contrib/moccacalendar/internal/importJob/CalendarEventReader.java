@@ -0,0 +1,367 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reads the events of an ical file one at a time, so that the memory needed for an import does not depend on the size
+ * of the file. Each event is returned as a small calendar of its own, which also contains the calendar properties and
+ * the time zone definitions read so far. Modified instances of a recurrent event (i.e. events sharing its UID) that
+ * directly follow the event are returned together with it.
+ * <p>
+ * The events sharing a UID are not always next to each other in the file, e.g. when a modified instance is exported
+ * before its recurrent event. Such events are found by a first reading of the whole file, see
+ * {@link #getScatteredEventCounts()}. A reader created with the result keeps these events aside until all the events
+ * of their UID have been read, and returns them together.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class CalendarEventReader implements Closeable
+{
+    private static final String BEGIN = "BEGIN:";
+
+    private static final String END = "END:";
+
+    private static final String CRLF = "\r\n";
+
+    private static final String TIMEZONE = "VTIMEZONE";
+
+    private final BufferedReader reader;
+
+    /**
+     * The calendar properties and time zones, to be repeated in every returned calendar.
+     */
+    private final StringBuilder header = new StringBuilder();
+
+    /**
+     * The next physical line, read while checking for folded lines.
+     */
+    private String lookahead;
+
+    private boolean inCalendar;
+
+    private boolean finished;
+
+    /**
+     * An event that has already been read but belongs to the next entry.
+     */
+    private Component pending;
+
+    /**
+     * The number of events of each UID whose events are not next to each other in the file.
+     */
+    private final Map<String, Integer> expectedEventCounts;
+
+    /**
+     * The events kept aside until all the events sharing their UID have been read.
+     */
+    private final Map<String, List<Component>> incompleteEntries = new LinkedHashMap<>();
+
+    /**
+     * The number of events read so far for each UID.
+     */
+    private final Map<String, Integer> eventCounts = new HashMap<>();
+
+    /**
+     * The UIDs whose events have been returned in several entries so far.
+     */
+    private final Set<String> scatteredUids = new HashSet<>();
+
+    /**
+     * A component of the calendar, as text.
+     */
+    private static final class Component
+    {
+        private final String name;
+
+        private final StringBuilder text = new StringBuilder();
+
+        private final CRC32 checksum = new CRC32();
+
+        private String uid;
+
+        private String sequence;
+
+        private String lastModified;
+
+        Component(String name)
+        {
+            this.name = name;
+        }
+
+        void append(String line)
+        {
+            this.text.append(line).append(CRLF);
+            // The time stamp is usually the export date, which changes even if the event does not.
+            if (!isProperty(line, CalendarKeys.ICS_CALENDAR_PROPERTY_TIMESTAMP)) {
+                this.checksum.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        void appendRevision(StringBuilder revision)
+        {
+            if (revision.length() > 0) {
+                revision.append(',');
+            }
+            revision.append((this.sequence != null) ? this.sequence : "0").append('/');
+            if (this.lastModified != null) {
+                revision.append(this.lastModified);
+            } else {
+                revision.append(Long.toHexString(this.checksum.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Creates a reader for the given ical content. The stream is expected to be encoded in UTF-8.
+     *
+     * @param input the content of the ical file
+     */
+    public CalendarEventReader(InputStream input)
+    {
+        this(input, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a reader for the given ical content, returning the events sharing a UID together even if they are not
+     * next to each other. The stream is expected to be encoded in UTF-8.
+     *
+     * @param input the content of the ical file
+     * @param scatteredEventCounts the number of events of the UIDs whose events are not next to each other, as
+     *     returned by {@link #getScatteredEventCounts()} after reading the same content
+     */
+    public CalendarEventReader(InputStream input, Map<String, Integer> scatteredEventCounts)
+    {
+        this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        this.expectedEventCounts = scatteredEventCounts;
+    }
+
+    /**
+     * Return the UIDs whose events are not next to each other in the file, once the whole file has been read.
+     *
+     * @return the number of events of each UID whose events were not returned in a single entry
+     */
+    public Map<String, Integer> getScatteredEventCounts()
+    {
+        Map<String, Integer> scatteredEventCounts = new HashMap<>();
+        for (String uid : this.scatteredUids) {
+            scatteredEventCounts.put(uid, this.eventCounts.get(uid));
+        }
+        return scatteredEventCounts;
+    }
+
+    /**
+     * Read the next event of the file.
+     *
+     * @return the next event, or {@code null} if the end of the calendar has been reached
+     * @throws IOException if the file cannot be read
+     */
+    public CalendarEventEntry next() throws IOException
+    {
+        while (true) {
+            Component event = (this.pending != null) ? this.pending : nextEvent();
+            this.pending = null;
+            if (event == null) {
+                // Only happens if the file does not contain the expected events, e.g. when it changed in the meantime.
+                if (!this.incompleteEntries.isEmpty()) {
+                    String uid = this.incompleteEntries.keySet().iterator().next();
+                    return createEntry(uid, this.incompleteEntries.remove(uid));
+                }
+                return null;
+            }
+
+            List<Component> events = new ArrayList<>();
+            events.add(event);
+            // Modified instances of a recurrent event share its UID and are usually exported right after it.
+            Component next;
+            while ((next = nextEvent()) != null && event.uid != null && event.uid.equals(next.uid)) {
+                events.add(next);
+            }
+            this.pending = next;
+
+            if (event.uid == null) {
+                return createEntry(null, events);
+            }
+            int eventCount = this.eventCounts.merge(event.uid, events.size(), Integer::sum);
+            if (eventCount > events.size()) {
+                this.scatteredUids.add(event.uid);
+            }
+            Integer expectedEventCount = this.expectedEventCounts.get(event.uid);
+            if (expectedEventCount != null) {
+                List<Component> incompleteEntry =
+                    this.incompleteEntries.computeIfAbsent(event.uid, key -> new ArrayList<>());
+                incompleteEntry.addAll(events);
+                if (incompleteEntry.size() < expectedEventCount) {
+                    continue;
+                }
+                events = this.incompleteEntries.remove(event.uid);
+            }
+            return createEntry(event.uid, events);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.reader.close();
+    }
+
+    private CalendarEventEntry createEntry(String uid, List<Component> events)
+    {
+        StringBuilder revision = new StringBuilder();
+        int length = this.header.length() + 64;
+        for (Component event : events) {
+            event.appendRevision(revision);
+            length += event.text.length();
+        }
+
+        StringBuilder calendar = new StringBuilder(length);
+        calendar.append(CalendarKeys.ICS_CALENDAR_CALENDAR_BEGIN).append(CRLF);
+        calendar.append(this.header);
+        for (Component event : events) {
+            calendar.append(event.text);
+        }
+        calendar.append(CalendarKeys.ICS_CALENDAR_CALENDAR_END).append(CRLF);
+
+        return new CalendarEventEntry(uid, revision.toString(), calendar.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Component nextEvent() throws IOException
+    {
+        String line;
+        while (!this.finished && (line = readLine()) != null) {
+            if (!this.inCalendar) {
+                // Skip anything that comes before the calendar itself.
+                this.inCalendar = StringUtils.containsIgnoreCase(line, CalendarKeys.ICS_CALENDAR_CALENDAR_BEGIN);
+            } else if (StringUtils.startsWithIgnoreCase(line, CalendarKeys.ICS_CALENDAR_CALENDAR_END)) {
+                this.finished = true;
+            } else if (StringUtils.startsWithIgnoreCase(line, BEGIN)) {
+                Component component = readComponent(line);
+                if (CalendarKeys.ICS_CALENDAR_CALENDAR_EVENT.equalsIgnoreCase(component.name)) {
+                    return component;
+                } else if (TIMEZONE.equalsIgnoreCase(component.name)) {
+                    this.header.append(component.text);
+                }
+                // Other components (todos, journals, ...) are not imported.
+            } else if (!line.isEmpty()) {
+                this.header.append(line).append(CRLF);
+            }
+        }
+        return null;
+    }
+
+    private Component readComponent(String beginLine) throws IOException
+    {
+        Component component = new Component(beginLine.substring(BEGIN.length()).trim());
+        component.append(beginLine);
+
+        int depth = 1;
+        String line;
+        while (depth > 0 && (line = readLine()) != null) {
+            component.append(line);
+            if (StringUtils.startsWithIgnoreCase(line, BEGIN)) {
+                depth++;
+            } else if (StringUtils.startsWithIgnoreCase(line, END)) {
+                depth--;
+            } else if (depth == 1) {
+                readComponentProperty(component, line);
+            }
+        }
+        return component;
+    }
+
+    private static void readComponentProperty(Component component, String line)
+    {
+        if (component.uid == null && isProperty(line, CalendarKeys.ICS_CALENDAR_PROPERTY_UID)) {
+            component.uid = getPropertyValue(line);
+        } else if (isProperty(line, CalendarKeys.ICS_CALENDAR_PROPERTY_SEQUENCE)) {
+            component.sequence = getPropertyValue(line);
+        } else if (isProperty(line, CalendarKeys.ICS_CALENDAR_PROPERTY_LAST_MODIFIED)) {
+            component.lastModified = getPropertyValue(line);
+        }
+    }
+
+    /**
+     * Read the next content line, unfolding it if it spans several physical lines.
+     */
+    private String readLine() throws IOException
+    {
+        String line = (this.lookahead != null) ? this.lookahead : this.reader.readLine();
+        this.lookahead = null;
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder unfolded = null;
+        String next;
+        while ((next = this.reader.readLine()) != null && !next.isEmpty()
+            && (next.charAt(0) == ' ' || next.charAt(0) == '\t'))
+        {
+            if (unfolded == null) {
+                unfolded = new StringBuilder(line);
+            }
+            unfolded.append(next, 1, next.length());
+        }
+        this.lookahead = next;
+
+        return (unfolded == null) ? line : unfolded.toString();
+    }
+
+    private static boolean isProperty(String line, String name)
+    {
+        return StringUtils.startsWithIgnoreCase(line, name) && line.length() > name.length()
+            && (line.charAt(name.length()) == ':' || line.charAt(name.length()) == ';');
+    }
+
+    /**
+     * The value of a property starts after the first colon which is not part of a quoted parameter value.
+     */
+    private static String getPropertyValue(String line)
+    {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return line.substring(i + 1).trim();
+            }
+        }
+        return null;
+    }
+}
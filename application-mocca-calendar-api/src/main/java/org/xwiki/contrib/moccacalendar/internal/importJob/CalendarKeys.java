@@ -87,6 +87,21 @@ public final class CalendarKeys
      */
     public static final String ICS_CALENDAR_CALENDAR_BEGIN = "BEGIN:VCALENDAR";
 
+    /**
+     * Calendar sequence (revision number) property.
+     */
+    public static final String ICS_CALENDAR_PROPERTY_SEQUENCE = "SEQUENCE";
+
+    /**
+     * Calendar last modified property.
+     */
+    public static final String ICS_CALENDAR_PROPERTY_LAST_MODIFIED = "LAST-MODIFIED";
+
+    /**
+     * Calendar time stamp property, usually the time at which the file has been exported.
+     */
+    public static final String ICS_CALENDAR_PROPERTY_TIMESTAMP = "DTSTAMP";
+
     private CalendarKeys()
     {
 
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Remembers the content converted during an import, so that identical titles and descriptions (e.g. those of the
+ * modified instances of a recurrent event) are converted only once. The cache is shared by the worker threads of an
+ * import job and is bounded.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class ConvertedContentCache
+{
+    private static final int MAX_ENTRIES = 10000;
+
+    /**
+     * Long content is unlikely to be repeated and would use too much memory.
+     */
+    private static final int MAX_CONTENT_LENGTH = 1000;
+
+    private final Map<String, String> convertedContents = new ConcurrentHashMap<>();
+
+    /**
+     * Get the converted content, converting it if it has not been converted before.
+     *
+     * @param content the content to convert
+     * @param converter the conversion
+     * @return the converted content
+     */
+    public String get(String content, UnaryOperator<String> converter)
+    {
+        if (content.length() > MAX_CONTENT_LENGTH) {
+            return converter.apply(content);
+        }
+        String convertedContent = this.convertedContents.get(content);
+        if (convertedContent == null) {
+            convertedContent = converter.apply(content);
+            if (this.convertedContents.size() < MAX_ENTRIES) {
+                this.convertedContents.put(content, convertedContent);
+            }
+        }
+        return convertedContent;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+
+/**
+ * The names of the events of a calendar, used to give a unique name to the events added to the calendar without
+ * checking the existence of each event document. Names are compared to the names known when the reservation was
+ * created by the {@link EventNameReserver}, and to the names reserved since. The events are either home pages of child
+ * spaces of the calendar space, or terminal pages of the calendar space. This class is not thread safe.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class EventNameReservation
+{
+    private final DocumentReference calendarReference;
+
+    private final Set<String> reservedNames;
+
+    private final String eventHomeName;
+
+    private final boolean terminal;
+
+    /**
+     * The next suffix to try for each event name, so that many events with the same name do not check all the
+     * suffixes already used.
+     */
+    private final Map<String, Integer> nextSuffixes = new HashMap<>();
+
+    /**
+     * @param calendarReference the reference of the calendar document
+     * @param reservedNames the names of the existing events of the calendar; the set is updated by the reservation
+     * @param eventHomeName the name of the home page of a space, used for the events which are not terminal pages
+     * @param terminal {@code true} if the events are terminal pages, {@code false} if they are the home pages of
+     *     spaces
+     */
+    EventNameReservation(DocumentReference calendarReference, Set<String> reservedNames, String eventHomeName,
+        boolean terminal)
+    {
+        this.calendarReference = calendarReference;
+        this.reservedNames = reservedNames;
+        this.eventHomeName = eventHomeName;
+        this.terminal = terminal;
+    }
+
+    /**
+     * @return the reference of the calendar document
+     */
+    public DocumentReference getCalendarReference()
+    {
+        return calendarReference;
+    }
+
+    /**
+     * Reserve a unique name for a new event. The name of the event is used if it is free, otherwise the first free
+     * name among {@code <name>_1}, {@code <name>_2}, ... is used.
+     *
+     * @param eventName the name of the event
+     * @return the reference of the new event document
+     */
+    public DocumentReference reserve(String eventName)
+    {
+        String name = eventName;
+        if (!this.reservedNames.add(name)) {
+            int suffix = this.nextSuffixes.getOrDefault(eventName, 1);
+            do {
+                name = eventName + '_' + suffix++;
+            } while (!this.reservedNames.add(name));
+            this.nextSuffixes.put(eventName, suffix);
+        }
+        if (this.terminal) {
+            return new DocumentReference(name, this.calendarReference.getLastSpaceReference());
+        }
+        SpaceReference eventSpace = new SpaceReference(name, this.calendarReference.getLastSpaceReference());
+        return new DocumentReference(this.eventHomeName, eventSpace);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Creates the {@link EventNameReservation} used to name the events added in bulk to a calendar.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventNameReserver.class)
+@Singleton
+public class EventNameReserver
+{
+    private static final String CHILD_SPACES_QUERY =
+        "select space.name from XWikiSpace space where space.parent = :parent";
+
+    private static final String SPACE_DOCUMENTS_QUERY =
+        "select distinct doc.name from XWikiDocument doc where doc.space = :space";
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private EntityReferenceProvider entityReferenceProvider;
+
+    /**
+     * Load the names of the events of a calendar, with a single query.
+     *
+     * @param calendarReference the reference of the calendar document
+     * @return the reservation used to name the new events of the calendar
+     * @throws QueryException if the names of the existing events cannot be retrieved
+     */
+    public EventNameReservation reserve(DocumentReference calendarReference) throws QueryException
+    {
+        // Each event is the home page of a child space of the calendar.
+        Query query = this.queryManager.createQuery(CHILD_SPACES_QUERY, Query.HQL);
+        query.bindValue("parent", this.localSerializer.serialize(calendarReference.getLastSpaceReference()));
+        query.setWiki(calendarReference.getWikiReference().getName());
+        List<String> names = query.execute();
+
+        Set<String> reservedNames = new HashSet<>(names);
+        return new EventNameReservation(calendarReference, reservedNames, getEventHomeName(), false);
+    }
+
+    /**
+     * Load the names of the terminal pages of the calendar space, with a single query.
+     *
+     * @param calendarReference the reference of the calendar document
+     * @return the reservation used to name the new events of the calendar which are terminal pages
+     * @throws QueryException if the names of the existing pages cannot be retrieved
+     */
+    public EventNameReservation reserveTerminal(DocumentReference calendarReference) throws QueryException
+    {
+        Query query = this.queryManager.createQuery(SPACE_DOCUMENTS_QUERY, Query.HQL);
+        query.bindValue("space", this.localSerializer.serialize(calendarReference.getLastSpaceReference()));
+        query.setWiki(calendarReference.getWikiReference().getName());
+        List<String> names = query.execute();
+
+        return new EventNameReservation(calendarReference, new HashSet<>(names), getEventHomeName(), true);
+    }
+
+    private String getEventHomeName()
+    {
+        return this.entityReferenceProvider.getDefaultReference(EntityType.DOCUMENT).getName();
+    }
+}
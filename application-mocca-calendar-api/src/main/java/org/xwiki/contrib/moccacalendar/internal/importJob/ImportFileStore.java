@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+
+/**
+ * Stores the uploaded ical files on disk while they are imported, so that the import jobs do not need to keep the
+ * content of the files in memory.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = ImportFileStore.class)
+@Singleton
+public class ImportFileStore
+{
+    private static final String STORE_DIRECTORY = "moccacalendar/import";
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Copy the given content to a new file.
+     *
+     * @param content the content of the uploaded file; the stream is not closed by this method
+     * @return the file holding the content
+     * @throws IOException if the file cannot be written
+     */
+    public File store(InputStream content) throws IOException
+    {
+        File directory = new File(this.environment.getTemporaryDirectory(), STORE_DIRECTORY);
+        Files.createDirectories(directory.toPath());
+        File file = File.createTempFile("import", ".ics", directory);
+        try {
+            Files.copy(content, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            delete(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Remove a file once it has been imported.
+     *
+     * @param file the file to remove, can be {@code null}
+     */
+    public void delete(File file)
+    {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                this.logger.warn("Failed to delete the imported file [{}].", file, e);
+            }
+        }
+    }
+}
@@ -19,22 +19,40 @@
  */
 package org.xwiki.contrib.moccacalendar.internal.importJob;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.time.DateUtils;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.contrib.moccacalendar.importJob.ImportJobRequest;
 import org.xwiki.contrib.moccacalendar.importJob.ImportJobStatus;
-import org.xwiki.fullcalendar.FullCalendarManager;
-import org.xwiki.fullcalendar.model.CalendarEvent;
 import org.xwiki.job.AbstractJob;
 import org.xwiki.job.GroupedJob;
 import org.xwiki.job.JobGroupPath;
+import org.xwiki.job.JobStatusStore;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.QueryException;
 import org.xwiki.stability.Unstable;
 
 import com.xpn.xwiki.XWiki;
@@ -58,14 +76,95 @@ public class ImportJob extends AbstractJob<ImportJobRequest, ImportJobStatus> im
      */
     public static final String JOB_TYPE = "moccacalendar.import";
 
+    /**
+     * The name of the configuration property holding the number of events imported and saved at once.
+     */
+    private static final String CHUNK_SIZE_PROPERTY = "moccacalendar.import.chunkSize";
+
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /**
+     * The name of the configuration property holding the number of threads used to parse and convert the events.
+     */
+    private static final String THREADS_PROPERTY = "moccacalendar.import.threads";
+
+    /**
+     * The minimal time between two checkpoints, in milliseconds, since the stored UIDs grow with the import.
+     */
+    private static final long CHECKPOINT_INTERVAL = 10000;
+
     @Inject
     private Provider<XWikiContext> wikiContextProvider;
 
     @Inject
-    private FullCalendarManager fullCalendarManager;
+    private CalendarEventPreparer calendarEventPreparer;
+
+    @Inject
+    private CalendarEntryImporter calendarEntryImporter;
+
+    @Inject
+    private ImportFileStore importFileStore;
+
+    @Inject
+    private ImportedEventIndex importedEventIndex;
 
     @Inject
-    private CalendarEventImporter calendarEventImporter;
+    private EventNameReserver eventNameReserver;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private JobStatusStore jobStatusStore;
+
+    @Inject
+    private ImportJobScheduler importJobScheduler;
+
+    /**
+     * The events imported before in the calendar, indexed by UID, when synchronizing the calendar with the file.
+     */
+    private Map<String, List<ImportedEvent>> importedEvents;
+
+    /**
+     * The documents imported before from the entries of the current chunk which are not needed anymore.
+     */
+    private final List<DocumentReference> obsoleteEventDocuments = new ArrayList<>();
+
+    private EventNameReservation eventNameReservation;
+
+    private int unchangedEventCount;
+
+    /**
+     * The UIDs synchronized so far, since the same event can only be synchronized once.
+     */
+    private final Set<String> synchronizedUids = new HashSet<>();
+
+    /**
+     * The number of entries of the file saved by the interrupted import which is resumed.
+     */
+    private int resumedEntryCount;
+
+    /**
+     * The number of entries read from the file and passed to {@link #shouldImport(CalendarEventEntry)}.
+     */
+    private int readEntryCount;
+
+    /**
+     * The number of entries returned by the pipeline, i.e. imported or skipped.
+     */
+    private int processedEntryCount;
+
+    private long lastCheckpointTime;
+
+    /**
+     * The number of events of the UIDs whose events are not next to each other in the file, found by the first pass.
+     */
+    private Map<String, Integer> scatteredEventCounts;
 
     @Override
     public String getType()
@@ -93,30 +192,62 @@ public class ImportJob extends AbstractJob<ImportJobRequest, ImportJobStatus> im
     protected void runInternal()
     {
         try {
-            List<CalendarEvent> calendarEventsJson =
-                fullCalendarManager.getICalEventsFromFile(getICSFileContent(request.getFile()), null, null, true);
-            List<XWikiDocument> eventDocuments = new ArrayList<>();
-            this.progressManager.pushLevelProgress(calendarEventsJson.size() + 1, this);
-
-            for (CalendarEvent calendarEvent : calendarEventsJson) {
-                progressManager.startStep(this);
-                if (status.isCanceled()) {
-                    progressManager.endStep(this);
-                    break;
+            // Only a limited number of imports run at the same time, the others wait in a queue.
+            if (this.importJobScheduler.acquire(status)) {
+                try {
+                    importICSFile();
+                } finally {
+                    this.importJobScheduler.release();
                 }
-                String eventName = calendarEvent.getTitle().trim();
-                if (eventName.isEmpty()) {
-                    continue;
-                }
-                XWikiDocument eventDoc =
-                    calendarEventImporter.getUniqueEventName(eventName, request.getParentRef(), eventDocuments);
-                calendarEventImporter.importCalendarEvent(eventDoc, calendarEvent);
-                eventDocuments.add(eventDoc);
+            } else {
+                logger.info("The import has been canceled before it started.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            this.importFileStore.delete(request.getFile());
+        }
+    }
 
-                progressManager.endStep(this);
-                Thread.yield();
+    private void importICSFile()
+    {
+        try {
+            int chunkSize = getChunkSize();
+            int chunkCount = (scanICSFile() + chunkSize - 1) / chunkSize;
+            this.progressManager.pushLevelProgress(Math.max(chunkCount, 1), this);
+
+            if (request.isResume()) {
+                resumeFromCheckpoint();
+            }
+
+            this.eventNameReservation =
+                this.eventNameReserver.reserve(this.documentReferenceResolver.resolve(request.getParentRef()));
+            if (request.isSync()) {
+                this.importedEvents = this.importedEventIndex.load(request.getParentRef());
+            }
+
+            // Parse the events one at a time instead of loading the whole calendar in memory, and save them in
+            // chunks so that only the documents of the current chunk are kept in memory. The events are parsed and
+            // converted by worker threads while the documents are created and saved, in order, by the job thread.
+            try (CalendarEventReader reader = new CalendarEventReader(openICSFile(), this.scatteredEventCounts);
+                CalendarEventPipeline pipeline =
+                    calendarEventPreparer.createPipeline(reader, getThreadCount(), this::shouldImport)) {
+                boolean hasMoreEvents = true;
+                while (hasMoreEvents && !status.isCanceled()) {
+                    progressManager.startStep(this);
+                    List<XWikiDocument> eventDocuments = new ArrayList<>(chunkSize);
+                    List<String> eventUids = new ArrayList<>(chunkSize);
+                    hasMoreEvents = readChunk(pipeline, chunkSize, eventDocuments, eventUids);
+                    saveChunk(eventDocuments);
+                    storeCheckpoint(eventUids);
+                    progressManager.endStep(this);
+                    Thread.yield();
+                }
+            }
+            if (request.isSync()) {
+                logger.info("[{}] events were not modified since the previous import.", this.unchangedEventCount);
             }
-            batchSave(eventDocuments);
         } catch (Exception e) {
             logger.warn("Import .ics file job failed. Root cause is: [{}]", ExceptionUtils.getRootCauseMessage(e));
             throw new RuntimeException(e);
@@ -125,27 +256,189 @@ public class ImportJob extends AbstractJob<ImportJobRequest, ImportJobStatus> im
         }
     }
 
-    private void batchSave(List<XWikiDocument> eventDocuments) throws XWikiException
+    /**
+     * Continue the import interrupted by a failure or a restart, using the checkpoint stored in its status. The
+     * entries saved by the interrupted import are skipped using their position in the file if the same file is
+     * imported again, and using their UID otherwise. The events saved after the last checkpoint are found by their
+     * UID in the calendar, since the checkpoints are not stored after every chunk.
+     */
+    private void resumeFromCheckpoint() throws QueryException
+    {
+        JobStatus previousStatus = this.jobStatusStore.getJobStatus(request.getId());
+        if (!(previousStatus instanceof ImportJobStatus) || isComplete((ImportJobStatus) previousStatus)) {
+            logger.info("No previous import to resume, importing the whole file.");
+            return;
+        }
+        ImportJobStatus checkpoint = (ImportJobStatus) previousStatus;
+        checkpoint.getStoredUIDs().forEach(status::storeUID);
+        if (status.getFileChecksum().equals(checkpoint.getFileChecksum())) {
+            this.resumedEntryCount = checkpoint.getImportedEntryCount();
+        }
+        if (checkpoint.getStartDate() != null) {
+            // Some databases store the dates of the documents without their milliseconds.
+            Date importStart = DateUtils.truncate(checkpoint.getStartDate(), Calendar.SECOND);
+            this.importedEventIndex.getUIDsSavedSince(request.getParentRef(), importStart).forEach(status::storeUID);
+        }
+        logger.info("Resuming the previous import, [{}] events were already imported.", status.getStoredUIDs().size());
+    }
+
+    /**
+     * @return {@code true} if the given import finished without being canceled or failing, in which case there is
+     *     nothing to resume
+     */
+    private boolean isComplete(ImportJobStatus previousStatus)
     {
-        if (!status.isCanceled()) {
-            XWikiContext wikiContext = wikiContextProvider.get();
-            XWiki wiki = wikiContext.getWiki();
-            progressManager.startStep(this);
-            for (XWikiDocument calendarEvent : eventDocuments) {
-                wiki.saveDocument(calendarEvent, wikiContext);
+        return previousStatus.getState() == JobStatus.State.FINISHED && !previousStatus.isCanceled()
+            && previousStatus.getError() == null;
+    }
+
+    /**
+     * Remember the progress of the import once a chunk has been saved, so that the import can be resumed. The
+     * checkpoint only holds what is needed to resume the import, without the log of the job, and is stored at most
+     * once every {@link #CHECKPOINT_INTERVAL}; the events saved since the last checkpoint are found in the calendar
+     * when the import is resumed.
+     */
+    private void storeCheckpoint(List<String> eventUids)
+    {
+        eventUids.forEach(status::storeUID);
+        status.setImportedEntryCount(this.processedEntryCount);
+
+        long now = System.currentTimeMillis();
+        if (now - this.lastCheckpointTime < CHECKPOINT_INTERVAL) {
+            return;
+        }
+        this.lastCheckpointTime = now;
+        ImportJobStatus checkpoint = new ImportJobStatus(JOB_TYPE, request, observationManager, loggerManager);
+        // the events saved since the import started are found with this date if the import is interrupted
+        checkpoint.setStartDate(status.getStartDate());
+        status.getStoredUIDs().forEach(checkpoint::storeUID);
+        checkpoint.setFileChecksum(status.getFileChecksum());
+        checkpoint.setImportedEntryCount(status.getImportedEntryCount());
+        this.jobStatusStore.store(checkpoint);
+    }
+
+    /**
+     * Read the next events of the file and create their documents.
+     *
+     * @return {@code false} if the end of the file has been reached
+     */
+    private boolean readChunk(CalendarEventPipeline pipeline, int chunkSize, List<XWikiDocument> eventDocuments,
+        List<String> eventUids) throws Exception
+    {
+        for (int i = 0; i < chunkSize; i++) {
+            PreparedCalendarEntry preparedEntry = pipeline.next();
+            if (preparedEntry == null) {
+                return false;
+            }
+            this.processedEntryCount++;
+            importCalendarEntry(preparedEntry, eventDocuments);
+            if (preparedEntry.getEntry().getUid() != null && !preparedEntry.getEvents().isEmpty()) {
+                eventUids.add(preparedEntry.getEntry().getUid());
             }
-            progressManager.endStep(this);
         }
+        return true;
     }
 
-    private byte[] getICSFileContent(byte[] importedFileContent)
+    /**
+     * Check whether an entry of the file has to be imported. The entries already imported by a resumed import are
+     * skipped, and so are the events which did not change since the previous import when synchronizing the calendar.
+     * The skipped entries are not even parsed.
+     */
+    private boolean shouldImport(CalendarEventEntry entry)
     {
-        String importedFileString = new String(importedFileContent);
-        int beginIndex = importedFileString.indexOf(CalendarKeys.ICS_CALENDAR_CALENDAR_BEGIN);
-        int endIndex = importedFileString.indexOf(CalendarKeys.ICS_CALENDAR_CALENDAR_END)
-            + CalendarKeys.ICS_CALENDAR_CALENDAR_END.length();
-        String filteredCalendarContent = importedFileString.substring(beginIndex, endIndex);
+        if (this.readEntryCount++ < this.resumedEntryCount) {
+            return false;
+        }
+        String uid = entry.getUid();
+        if (uid == null) {
+            return true;
+        }
+        if (request.isResume() && status.isDuplicate(uid)) {
+            return false;
+        }
+        if (this.importedEvents == null) {
+            return true;
+        }
+        if (!this.synchronizedUids.add(uid)) {
+            // The same event can only be synchronized once.
+            return false;
+        }
+
+        List<ImportedEvent> entryEvents = this.importedEvents.get(uid);
+        // all the events of an entry are imported with the revision of the entry
+        if (entryEvents != null && entry.getRevision().equals(entryEvents.get(0).getRevision())) {
+            this.unchangedEventCount++;
+            return false;
+        }
+        return true;
+    }
+
+    private void importCalendarEntry(PreparedCalendarEntry preparedEntry, List<XWikiDocument> eventDocuments)
+        throws XWikiException
+    {
+        String uid = preparedEntry.getEntry().getUid();
+        List<ImportedEvent> entryEvents = Collections.emptyList();
+        if (this.importedEvents != null && uid != null) {
+            entryEvents = this.importedEvents.getOrDefault(uid, entryEvents);
+        }
+        eventDocuments.addAll(this.calendarEntryImporter.importEntry(preparedEntry, entryEvents,
+            this.eventNameReservation, this.obsoleteEventDocuments));
+    }
+
+    /**
+     * Save the documents of a chunk, and delete the documents of its entries which are not needed anymore. A
+     * cancellation request is only taken into account between chunks, so that a canceled import never stops in the
+     * middle of a chunk.
+     */
+    private void saveChunk(List<XWikiDocument> eventDocuments) throws XWikiException
+    {
+        XWikiContext wikiContext = wikiContextProvider.get();
+        XWiki wiki = wikiContext.getWiki();
+        for (XWikiDocument calendarEvent : eventDocuments) {
+            wiki.saveDocument(calendarEvent, wikiContext);
+        }
+        for (DocumentReference obsoleteEvent : this.obsoleteEventDocuments) {
+            wiki.deleteDocument(wiki.getDocument(obsoleteEvent, wikiContext), wikiContext);
+        }
+        this.obsoleteEventDocuments.clear();
+    }
+
+    private int getChunkSize()
+    {
+        int chunkSize = this.configuration.getProperty(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE);
+        return (chunkSize > 0) ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
 
-        return filteredCalendarContent.getBytes();
+    private int getThreadCount()
+    {
+        int defaultThreadCount = Runtime.getRuntime().availableProcessors();
+        int threadCount = this.configuration.getProperty(THREADS_PROPERTY, defaultThreadCount);
+        return (threadCount > 0) ? threadCount : defaultThreadCount;
+    }
+
+    /**
+     * Count the events of the imported file in a first pass, in order to be able to report progress. The checksum of
+     * the file is computed at the same time, to recognize the file when resuming the import, and so are the events
+     * which are not next to the other events of their UID.
+     *
+     * @return the number of entries of the file
+     */
+    private int scanICSFile() throws IOException, NoSuchAlgorithmException
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        int count = 0;
+        try (CalendarEventReader reader = new CalendarEventReader(new DigestInputStream(openICSFile(), digest))) {
+            while (reader.next() != null) {
+                count++;
+            }
+            this.scatteredEventCounts = reader.getScatteredEventCounts();
+        }
+        status.setFileChecksum(String.format("%064x", new BigInteger(1, digest.digest())));
+        return count;
+    }
+
+    private InputStream openICSFile() throws IOException
+    {
+        return Files.newInputStream(request.getFile().toPath());
     }
 }
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.moccacalendar.importJob.ImportJobStatus;
+
+/**
+ * Limits the number of import jobs running at the same time on this node. The other import jobs wait in a FIFO queue,
+ * and their position in the queue is reported in their status.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = ImportJobScheduler.class)
+@Singleton
+public class ImportJobScheduler implements Initializable
+{
+    /**
+     * The name of the configuration property holding the maximum number of import jobs running at the same time.
+     */
+    private static final String MAX_CONCURRENT_JOBS_PROPERTY = "moccacalendar.import.maxConcurrentJobs";
+
+    private static final int DEFAULT_MAX_CONCURRENT_JOBS = 2;
+
+    /**
+     * How long a waiting job sleeps before checking if it has been canceled.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 1000L;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private int maxConcurrentJobs;
+
+    private int runningJobs;
+
+    private final List<ImportJobStatus> waitingJobs = new ArrayList<>();
+
+    @Override
+    public void initialize()
+    {
+        int maxJobs = this.configuration.getProperty(MAX_CONCURRENT_JOBS_PROPERTY, DEFAULT_MAX_CONCURRENT_JOBS);
+        this.maxConcurrentJobs = (maxJobs > 0) ? maxJobs : DEFAULT_MAX_CONCURRENT_JOBS;
+    }
+
+    /**
+     * Wait until the given import job is allowed to run. Each successful call must be followed by a call to
+     * {@link #release()} once the job is finished.
+     *
+     * @param status the status of the import job
+     * @return {@code true} if the job can run, {@code false} if it has been canceled while waiting
+     * @throws InterruptedException if the job thread is interrupted while waiting
+     */
+    public synchronized boolean acquire(ImportJobStatus status) throws InterruptedException
+    {
+        this.waitingJobs.add(status);
+        updateQueuePositions();
+        try {
+            while (this.waitingJobs.get(0) != status || this.runningJobs >= this.maxConcurrentJobs) {
+                if (status.isCanceled()) {
+                    return false;
+                }
+                wait(CANCEL_CHECK_INTERVAL);
+            }
+            this.runningJobs++;
+            return true;
+        } finally {
+            this.waitingJobs.remove(status);
+            status.setQueuePosition(0);
+            updateQueuePositions();
+            // The next job in the queue may be allowed to run.
+            notifyAll();
+        }
+    }
+
+    /**
+     * Let the next import job in the queue run.
+     */
+    public synchronized void release()
+    {
+        this.runningJobs--;
+        notifyAll();
+    }
+
+    private void updateQueuePositions()
+    {
+        for (int i = 0; i < this.waitingJobs.size(); i++) {
+            this.waitingJobs.get(i).setQueuePosition(i + 1);
+        }
+    }
+}
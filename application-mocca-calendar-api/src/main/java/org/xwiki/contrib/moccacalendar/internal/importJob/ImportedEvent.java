@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * An event document created by a previous import, as found in the {@link ImportedEventIndex}.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class ImportedEvent
+{
+    private final DocumentReference documentReference;
+
+    private final String revision;
+
+    /**
+     * Creates a new imported event.
+     *
+     * @param documentReference the reference of the event document
+     * @param revision the revision of the event when it was imported, see {@link CalendarEventEntry#getRevision()}
+     */
+    public ImportedEvent(DocumentReference documentReference, String revision)
+    {
+        this.documentReference = documentReference;
+        this.revision = revision;
+    }
+
+    /**
+     * @return the reference of the event document
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return documentReference;
+    }
+
+    /**
+     * @return the revision of the event when it was imported
+     */
+    public String getRevision()
+    {
+        return revision;
+    }
+}
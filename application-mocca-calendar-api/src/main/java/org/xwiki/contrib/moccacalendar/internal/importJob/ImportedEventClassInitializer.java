@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.Arrays;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * The class of the objects remembering which ical event has been imported in an event document.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component
+@Named(ImportedEventClassInitializer.CLASS_NAME)
+@Singleton
+public class ImportedEventClassInitializer extends AbstractMandatoryClassInitializer
+{
+    /** The name of the class. */
+    public static final String CLASS_NAME = "MoccaCalendar.Code.MoccaCalendarEventImportClass";
+
+    /** The reference of the class. */
+    public static final LocalDocumentReference CLASS_REFERENCE =
+        new LocalDocumentReference(Arrays.asList("MoccaCalendar", "Code"), "MoccaCalendarEventImportClass");
+
+    /** The name of the field holding the UID of the imported event. */
+    public static final String UID_FIELD = "uid";
+
+    /** The name of the field holding the revision of the imported event. */
+    public static final String REVISION_FIELD = "revision";
+
+    /**
+     * Default constructor.
+     */
+    public ImportedEventClassInitializer()
+    {
+        super(CLASS_REFERENCE);
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addTextField(UID_FIELD, "UID", 30);
+        // The revision grows with the number of modified instances of the event.
+        xclass.addTextAreaField(REVISION_FIELD, "Revision", 40, 2);
+    }
+
+    /**
+     * We do not need a document sheet for this class.
+     */
+    protected boolean updateDocumentSheet(XWikiDocument document)
+    {
+        return false;
+    }
+}
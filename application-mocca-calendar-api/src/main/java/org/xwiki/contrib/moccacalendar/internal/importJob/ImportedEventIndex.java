@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Keeps track of the ical events imported in a calendar, so that importing the same file again updates the existing
+ * event documents instead of creating new ones.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = ImportedEventIndex.class)
+@Singleton
+public class ImportedEventIndex
+{
+    private static final String IMPORTED_EVENTS_QUERY = "select doc.fullName, imported.uid, imported.revision "
+        + "from Document doc, doc.object(" + ImportedEventClassInitializer.CLASS_NAME + ") as imported "
+        + "where doc.parent = :parent order by doc.fullName";
+
+    private static final String IMPORTED_SINCE_QUERY = "select imported.uid "
+        + "from Document doc, doc.object(" + ImportedEventClassInitializer.CLASS_NAME + ") as imported "
+        + "where doc.parent = :parent and doc.date >= :since";
+
+    private static final String PARENT_PARAMETER = "parent";
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    /**
+     * Load the events already imported in a calendar, with a single query.
+     *
+     * @param parentRef the reference of the calendar
+     * @return the imported events, indexed by UID; the events of the same UID, i.e. of the same entry of the file, are
+     *     sorted by document name
+     * @throws QueryException if the imported events cannot be retrieved
+     */
+    public Map<String, List<ImportedEvent>> load(String parentRef) throws QueryException
+    {
+        Query query = this.queryManager.createQuery(IMPORTED_EVENTS_QUERY, Query.XWQL);
+        query.bindValue(PARENT_PARAMETER, parentRef);
+
+        Map<String, List<ImportedEvent>> importedEvents = new HashMap<>();
+        for (Object[] row : query.<Object[]>execute()) {
+            String uid = (String) row[1];
+            if (uid != null && !uid.isEmpty()) {
+                importedEvents.computeIfAbsent(uid, key -> new ArrayList<>()).add(
+                    new ImportedEvent(this.documentReferenceResolver.resolve((String) row[0]), (String) row[2]));
+            }
+        }
+        return importedEvents;
+    }
+
+    /**
+     * Get the UIDs of the events saved in a calendar since a given date, e.g. by an import which has been
+     * interrupted, with a single query.
+     *
+     * @param parentRef the reference of the calendar
+     * @param since the date from which the saved events are sought
+     * @return the UIDs of the events imported or updated since the given date
+     * @throws QueryException if the imported events cannot be retrieved
+     */
+    public Set<String> getUIDsSavedSince(String parentRef, Date since) throws QueryException
+    {
+        Query query = this.queryManager.createQuery(IMPORTED_SINCE_QUERY, Query.XWQL);
+        query.bindValue(PARENT_PARAMETER, parentRef);
+        query.bindValue("since", since);
+
+        Set<String> uids = new HashSet<>();
+        for (String uid : query.<String>execute()) {
+            if (uid != null && !uid.isEmpty()) {
+                uids.add(uid);
+            }
+        }
+        return uids;
+    }
+
+    /**
+     * Remember in an event document which ical event it has been imported from. All the documents created from an
+     * entry of the file hold the same UID.
+     *
+     * @param eventDoc the event document
+     * @param entry the imported entry of the ical file
+     */
+    public void setImportedEvent(XWikiDocument eventDoc, CalendarEventEntry entry)
+    {
+        BaseObject importedObject =
+            eventDoc.getXObject(ImportedEventClassInitializer.CLASS_REFERENCE, true, this.wikiContextProvider.get());
+        importedObject.setStringValue(ImportedEventClassInitializer.UID_FIELD, entry.getUid());
+        importedObject.setLargeStringValue(ImportedEventClassInitializer.REVISION_FIELD, entry.getRevision());
+    }
+}
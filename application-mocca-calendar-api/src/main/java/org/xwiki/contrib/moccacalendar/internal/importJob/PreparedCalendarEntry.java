@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.List;
+
+/**
+ * An entry of an ical file together with its events, ready to be imported.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class PreparedCalendarEntry
+{
+    private final CalendarEventEntry entry;
+
+    private final List<PreparedCalendarEvent> events;
+
+    /**
+     * Creates a new prepared entry.
+     *
+     * @param entry the entry read from the ical file
+     * @param events the events parsed from the entry
+     */
+    public PreparedCalendarEntry(CalendarEventEntry entry, List<PreparedCalendarEvent> events)
+    {
+        this.entry = entry;
+        this.events = events;
+    }
+
+    /**
+     * @return the entry read from the ical file
+     */
+    public CalendarEventEntry getEntry()
+    {
+        return entry;
+    }
+
+    /**
+     * @return the events parsed from the entry, empty if the entry is not imported
+     */
+    public List<PreparedCalendarEvent> getEvents()
+    {
+        return events;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.List;
+
+import org.xwiki.fullcalendar.model.CalendarEvent;
+
+/**
+ * A {@link CalendarEvent} whose HTML content has already been converted to XWiki syntax, ready to be added to an
+ * event document.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class PreparedCalendarEvent
+{
+    private final CalendarEvent event;
+
+    private final String title;
+
+    private final String description;
+
+    private final List<String> modificationTitles;
+
+    private final List<String> modificationDescriptions;
+
+    /**
+     * Creates a new prepared event.
+     *
+     * @param event the event read from the ical file
+     * @param title the converted title of the event
+     * @param description the converted description of the event
+     * @param modificationTitles the converted titles of the modified instances, in the order of
+     *     {@link CalendarEvent#getModificationList()}
+     * @param modificationDescriptions the converted descriptions of the modified instances, in the order of
+     *     {@link CalendarEvent#getModificationList()}
+     */
+    public PreparedCalendarEvent(CalendarEvent event, String title, String description,
+        List<String> modificationTitles, List<String> modificationDescriptions)
+    {
+        this.event = event;
+        this.title = title;
+        this.description = description;
+        this.modificationTitles = modificationTitles;
+        this.modificationDescriptions = modificationDescriptions;
+    }
+
+    /**
+     * @return the event read from the ical file
+     */
+    public CalendarEvent getEvent()
+    {
+        return event;
+    }
+
+    /**
+     * @return the title of the event, in XWiki syntax
+     */
+    public String getTitle()
+    {
+        return title;
+    }
+
+    /**
+     * @return the description of the event, in XWiki syntax
+     */
+    public String getDescription()
+    {
+        return description;
+    }
+
+    /**
+     * @param index the index of the modification in {@link CalendarEvent#getModificationList()}
+     * @return the title of the modified instance, in XWiki syntax
+     */
+    public String getModificationTitle(int index)
+    {
+        return modificationTitles.get(index);
+    }
+
+    /**
+     * @param index the index of the modification in {@link CalendarEvent#getModificationList()}
+     * @return the description of the modified instance, in XWiki syntax
+     */
+    public String getModificationDescription(int index)
+    {
+        return modificationDescriptions.get(index);
+    }
+}
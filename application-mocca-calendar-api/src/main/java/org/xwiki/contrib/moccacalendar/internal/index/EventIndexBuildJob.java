@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.GroupedJob;
+import org.xwiki.job.JobGroupPath;
+
+/**
+ * Builds the event table of a wiki from the existing events, so that the page requests querying the events do not
+ * wait for it.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component
+@Named(EventIndexBuildJob.JOB_TYPE)
+public class EventIndexBuildJob extends AbstractJob<EventIndexBuildRequest, DefaultJobStatus<EventIndexBuildRequest>>
+    implements GroupedJob
+{
+    /**
+     * Mocca calendar event table build job type.
+     */
+    public static final String JOB_TYPE = "moccacalendar.eventIndex";
+
+    @Inject
+    private EventIndexStore eventIndexStore;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    public JobGroupPath getGroupPath()
+    {
+        return new JobGroupPath(Arrays.asList("moccacalendar", "eventIndex", request.getWiki()));
+    }
+
+    @Override
+    protected DefaultJobStatus<EventIndexBuildRequest> createNewStatus(EventIndexBuildRequest request)
+    {
+        return new DefaultJobStatus<>(JOB_TYPE, request, null, observationManager, loggerManager);
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        this.eventIndexStore.build(request.getWiki());
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.util.Arrays;
+
+import org.xwiki.job.AbstractRequest;
+
+/**
+ * The request of the job building the event table of a wiki.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class EventIndexBuildRequest extends AbstractRequest
+{
+    private final String wiki;
+
+    /**
+     * @param wiki the wiki whose event table is built
+     */
+    public EventIndexBuildRequest(String wiki)
+    {
+        this.wiki = wiki;
+        setId(Arrays.asList("moccacalendar", "eventIndex", wiki));
+        // the completion of the build is recorded in the table itself
+        setStatusSerialized(false);
+    }
+
+    /**
+     * @return the wiki whose event table is built
+     */
+    public String getWiki()
+    {
+        return wiki;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.hibernate.HibernateStore;
+
+/**
+ * Gives access to the tables of the event index. Their mapping is added to the Hibernate configuration of XWiki the
+ * same way as the custom mappings of the XWiki classes, and they are created in each wiki by the schema update of
+ * XWiki, so that the column types and the indexes match the database.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventIndexDatabase.class)
+@Singleton
+public class EventIndexDatabase
+{
+    /** The entity holding the events, one per event object. */
+    public static final String EVENT_ENTITY = "MoccaCalendarIndexedEvent";
+
+    /** The entity holding the state of the event table of each wiki. */
+    public static final String STATE_ENTITY = "MoccaCalendarEventIndexState";
+
+    private static final String MAPPING_RESOURCE = "/moccacalendar.hbm.xml";
+
+    private static final String ENABLED_PROPERTY = "moccacalendar.eventIndex.enabled";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private HibernateStore hibernateStore;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * The wikis whose schema has been updated since the start.
+     */
+    private final Set<String> updatedWikis = ConcurrentHashMap.newKeySet();
+
+    private boolean mapped;
+
+    /**
+     * @return {@code true} if the event table should be used to query the events
+     */
+    public boolean isEnabled()
+    {
+        return this.configuration.getProperty(ENABLED_PROPERTY, false);
+    }
+
+    /**
+     * Run the given callback in a read transaction on the database of the given wiki, creating the tables if needed.
+     *
+     * @param <T> the type of the result
+     * @param wikiId the wiki whose tables are read
+     * @param callback the code to run
+     * @return the result of the callback
+     * @throws XWikiException if the tables could not be created or the callback failed
+     */
+    public <T> T executeRead(String wikiId, HibernateCallback<T> callback) throws XWikiException
+    {
+        prepare(wikiId);
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWikiId = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiId);
+            return xcontext.getWiki().getHibernateStore().executeRead(xcontext, callback);
+        } finally {
+            xcontext.setWikiId(currentWikiId);
+        }
+    }
+
+    /**
+     * Run the given callback in a write transaction on the database of the given wiki, creating the tables if needed.
+     *
+     * @param <T> the type of the result
+     * @param wikiId the wiki whose tables are written
+     * @param callback the code to run
+     * @return the result of the callback
+     * @throws XWikiException if the tables could not be created or the callback failed
+     */
+    public <T> T executeWrite(String wikiId, HibernateCallback<T> callback) throws XWikiException
+    {
+        prepare(wikiId);
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWikiId = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiId);
+            return xcontext.getWiki().getHibernateStore().executeWrite(xcontext, callback);
+        } finally {
+            xcontext.setWikiId(currentWikiId);
+        }
+    }
+
+    private void prepare(String wikiId) throws XWikiException
+    {
+        if (!this.updatedWikis.contains(wikiId)) {
+            updateSchema(wikiId);
+        }
+    }
+
+    private synchronized void updateSchema(String wikiId) throws XWikiException
+    {
+        if (this.updatedWikis.contains(wikiId)) {
+            return;
+        }
+        try {
+            // the mapping survives the reload of the extension
+            if (!this.mapped
+                && this.hibernateStore.getConfigurationMetadata().getEntityBinding(EVENT_ENTITY) == null) {
+                try (InputStream mapping = getClass().getResourceAsStream(MAPPING_RESOURCE)) {
+                    this.hibernateStore.getConfiguration().addInputStream(mapping);
+                }
+                this.hibernateStore.build();
+            }
+            this.mapped = true;
+            this.hibernateStore.updateDatabase(wikiId);
+            this.updatedWikis.add(wikiId);
+        } catch (IOException | HibernateException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_CREATE_DATABASE,
+                String.format("Failed to create the calendar event table of wiki [%s]", wikiId), e);
+        }
+    }
+}
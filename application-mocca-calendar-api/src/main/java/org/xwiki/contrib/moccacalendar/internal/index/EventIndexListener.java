@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keep the rows of the {@link EventIndexStore} in sync with the event documents. The table is shared by the members
+ * of a cluster, so only the member where a document is saved or deleted updates its rows.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Named("org.xwiki.contrib.moccacalendar.internal.index.EventIndexListener")
+@Singleton
+@Component
+public class EventIndexListener implements EventListener
+{
+    @Inject
+    private EventIndexStore eventIndexStore;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return getClass().getName();
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.remoteObservationManagerContext.isRemoteState()) {
+            return;
+        }
+        XWikiDocument doc = (XWikiDocument) source;
+        if (!isEvent(doc) && (doc.getOriginalDocument() == null || !isEvent(doc.getOriginalDocument()))) {
+            return;
+        }
+        try {
+            this.eventIndexStore.update(doc);
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to update the calendar event table for [{}]. Root cause is: [{}]",
+                doc.getDocumentReference(), e.getMessage());
+            this.logger.debug("Full stack trace: ", e);
+        }
+    }
+
+    private boolean isEvent(XWikiDocument doc)
+    {
+        return doc.getXObject(doc.resolveClassReference(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME)) != null;
+    }
+}
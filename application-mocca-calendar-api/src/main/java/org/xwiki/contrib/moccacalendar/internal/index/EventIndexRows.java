@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.hibernate.Session;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.contrib.moccacalendar.internal.Utils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Reads the rows of the event table, either from an event document or from the event objects in the database.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventIndexRows.class)
+@Singleton
+public class EventIndexRows
+{
+    /** The property holding the identifier of the event object. */
+    public static final String ID = "id";
+
+    /** The value stored for the events which have not been migrated to the recurrent property yet. */
+    public static final int UNKNOWN_RECURRENCE = -1;
+
+    /** The page holding the template of the events, which is not an event. */
+    public static final String EVENT_TEMPLATE = "MoccaCalendar.MoccaCalendarEventTemplate";
+
+    /** The properties of a row, except the wiki, in the order of the values of a row. */
+    private static final String[] PROPERTIES =
+        {ID, "document", "space", "parentSpace", "startDate", "endDate", "recurrent", "allDay", "hidden"};
+
+    private static final String EXISTING_EVENTS_QUERY = "select obj.id, doc.fullName, doc.space, space.parent, "
+        + "startdate.value, enddate.value, recurrent.value, allday.value, doc.hidden "
+        + "from XWikiDocument doc, XWikiSpace space, BaseObject obj, DateProperty startdate "
+        + "left join DateProperty enddate on enddate.id.id = startdate.id.id and enddate.id.name = :endDate "
+        + "left join IntegerProperty recurrent on recurrent.id.id = startdate.id.id and recurrent.id.name = :recurrent "
+        + "left join IntegerProperty allday on allday.id.id = startdate.id.id and allday.id.name = :allDay "
+        + "where obj.className = :className and obj.name = doc.fullName and doc.translation = 0 "
+        + "and doc.fullName <> :template and space.reference = doc.space "
+        + "and startdate.id.id = obj.id and startdate.id.name = :startDate and obj.id > :lastId order by obj.id";
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * @param document an event document
+     * @return the rows of the events of the given document
+     */
+    public List<Map<String, Object>> readRows(XWikiDocument document)
+    {
+        String wikiId = document.getDocumentReference().getWikiReference().getName();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (BaseObject event : document.getXObjects(
+            document.resolveClassReference(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME))) {
+            Date startDate = event == null ? null : event.getDateValue(EventConstants.PROPERTY_STARTDATE_NAME);
+            if (startDate != null && !EVENT_TEMPLATE.equals(document.getFullName())) {
+                EntityReference space = document.getDocumentReference().getParent();
+                rows.add(toRow(wikiId, event.getId(), document.getFullName(), this.localSerializer.serialize(space),
+                    serializeParentSpace(space), startDate.getTime(), Utils.fetchOrGuessEndDate(event).getTime(),
+                    event.getIntValue(EventConstants.PROPERTY_RECURRENT_NAME, UNKNOWN_RECURRENCE),
+                    event.getIntValue(EventConstants.PROPERTY_ALLDAY_NAME), document.isHidden() ? 1 : 0));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Read the rows of the events stored in the database, in the order of their identifiers.
+     *
+     * @param session the session on the database of the given wiki
+     * @param wikiId the wiki of the events
+     * @param lastId the events are read after this identifier
+     * @param count the maximal number of events to read
+     * @return the rows of the events
+     */
+    public List<Map<String, Object>> readExistingEvents(Session session, String wikiId, long lastId, int count)
+    {
+        List<Object[]> events = session.createQuery(EXISTING_EVENTS_QUERY, Object[].class)
+            .setParameter("className", EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME)
+            .setParameter("template", EVENT_TEMPLATE)
+            .setParameter("startDate", EventConstants.PROPERTY_STARTDATE_NAME)
+            .setParameter("endDate", EventConstants.PROPERTY_ENDDATE_NAME)
+            .setParameter("recurrent", EventConstants.PROPERTY_RECURRENT_NAME)
+            .setParameter("allDay", EventConstants.PROPERTY_ALLDAY_NAME)
+            .setParameter("lastId", lastId)
+            .setMaxResults(count)
+            .list();
+
+        List<Map<String, Object>> rows = new ArrayList<>(events.size());
+        for (Object[] event : events) {
+            Date startDate = (Date) event[4];
+            boolean allDay = event[7] != null && ((Integer) event[7]) == 1;
+            Date endDate = event[5] != null ? (Date) event[5] : Utils.guessEndDate(startDate, allDay);
+            rows.add(toRow(wikiId, event[0], event[1], event[2], event[3], startDate.getTime(), endDate.getTime(),
+                event[6] != null ? event[6] : UNKNOWN_RECURRENCE, allDay ? 1 : 0,
+                Boolean.TRUE.equals(event[8]) ? 1 : 0));
+        }
+        return rows;
+    }
+
+    private Map<String, Object> toRow(String wikiId, Object... values)
+    {
+        Map<String, Object> row = new HashMap<>();
+        row.put("wiki", wikiId);
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            row.put(PROPERTIES[i], values[i]);
+        }
+        return row;
+    }
+
+    private String serializeParentSpace(EntityReference space)
+    {
+        EntityReference parent = space.getParent();
+        return parent.getType() == EntityType.SPACE ? this.localSerializer.serialize(parent) : null;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.job.JobRequestContext;
+
+/**
+ * The state of the event table of each wiki. It is stored in the database, so that all the members of a cluster see
+ * when a table is built, complete or failed, and only one of them builds it, with {@link EventIndexBuildJob}.
+ * <p>
+ * The member building a table updates its state after each batch of events. A build whose state has not been updated
+ * for ten minutes, because the member stopped, or which failed that long ago, is started again by the next member
+ * querying the events.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventIndexState.class)
+@Singleton
+public class EventIndexState
+{
+    private static final long RETRY_MINUTES = 10;
+
+    /** A complete table stays complete, unless it fails to catch up with the end of its build. */
+    private static final long READY_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String WIKI = "wiki";
+
+    private static final String STATE = "state";
+
+    private static final String STARTED = "started";
+
+    private static final String UPDATED = "updated";
+
+    private static final String NOW = "now";
+
+    private static final String STATE_STATEMENT = "update " + EventIndexDatabase.STATE_ENTITY
+        + " s set s.state = :state, s.updated = :now where s.wiki = :wiki";
+
+    private static final String TAKE_OVER_STATEMENT = "update " + EventIndexDatabase.STATE_ENTITY
+        + " s set s.state = :state, s.started = :now, s.updated = :now where s.wiki = :wiki and s.updated = :updated";
+
+    /** The state of the event table of a wiki. */
+    private enum State
+    {
+        /** The table is being built. */
+        BUILDING,
+        /** The table is complete and kept up to date. */
+        READY,
+        /** The table could not be built. */
+        FAILED
+    }
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EventIndexDatabase database;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The wikis whose table was complete when last checked, with the time of the check.
+     */
+    private final Map<String, Long> readyWikis = new ConcurrentHashMap<>();
+
+    /**
+     * @param wikiId a wiki
+     * @return {@code true} if the event table of the given wiki is complete
+     * @throws XWikiException if the state could not be read
+     */
+    public boolean isReady(String wikiId) throws XWikiException
+    {
+        Long checked = this.readyWikis.get(wikiId);
+        if (checked != null && System.currentTimeMillis() - checked < READY_CHECK_INTERVAL) {
+            return true;
+        }
+        Map<String, Object> state = read(wikiId);
+        if (state != null && State.READY.name().equals(state.get(STATE))) {
+            this.readyWikis.put(wikiId, System.currentTimeMillis());
+            return true;
+        }
+        this.readyWikis.remove(wikiId);
+        return false;
+    }
+
+    /**
+     * Start building the table of the given wiki on this member of the cluster, if it has never been built, or if its
+     * previous build has been abandoned or has failed long enough ago.
+     *
+     * @param wikiId a wiki whose table is not complete
+     * @throws XWikiException if the state could not be read or written
+     */
+    public void startBuild(String wikiId) throws XWikiException
+    {
+        if (claimBuild(wikiId)) {
+            try {
+                EventIndexBuildRequest request = new EventIndexBuildRequest(wikiId);
+                JobRequestContext.set(request, this.xcontextProvider.get());
+                this.jobExecutor.execute(EventIndexBuildJob.JOB_TYPE, request);
+            } catch (JobException e) {
+                this.logger.warn("Failed to start building the calendar event table of wiki [{}]. "
+                    + "Root cause is: [{}]", wikiId, e.getMessage());
+                this.logger.debug("Full stack trace: ", e);
+                setFailed(wikiId);
+            }
+        }
+    }
+
+    /**
+     * @param wikiId a wiki
+     * @return the time when the build started, in milliseconds
+     * @throws XWikiException if the state could not be read
+     */
+    long getBuildStart(String wikiId) throws XWikiException
+    {
+        Map<String, Object> state = read(wikiId);
+        return state != null ? ((Number) state.get(STARTED)).longValue() : System.currentTimeMillis();
+    }
+
+    /**
+     * Record that the build of the table of the given wiki is still running.
+     *
+     * @param wikiId a wiki whose table is built by this member of the cluster
+     * @throws XWikiException if the state could not be written
+     */
+    void setBuilding(String wikiId) throws XWikiException
+    {
+        write(wikiId, State.BUILDING);
+    }
+
+    /**
+     * Record that the table of the given wiki is complete.
+     *
+     * @param wikiId a wiki whose table is built by this member of the cluster
+     * @throws XWikiException if the state could not be written
+     */
+    void setReady(String wikiId) throws XWikiException
+    {
+        write(wikiId, State.READY);
+    }
+
+    /**
+     * Record that the table of the given wiki could not be built.
+     *
+     * @param wikiId a wiki whose table is built by this member of the cluster
+     * @throws XWikiException if the state could not be written
+     */
+    void setFailed(String wikiId) throws XWikiException
+    {
+        this.readyWikis.remove(wikiId);
+        write(wikiId, State.FAILED);
+    }
+
+    /**
+     * Record that this member of the cluster builds the table, unless it is complete or built by another member.
+     */
+    private boolean claimBuild(String wikiId) throws XWikiException
+    {
+        Map<String, Object> previous = read(wikiId);
+        long now = System.currentTimeMillis();
+        if (previous == null) {
+            try {
+                return this.database.executeWrite(wikiId, session -> {
+                    Map<String, Object> state = new HashMap<>();
+                    state.put(WIKI, wikiId);
+                    state.put(STATE, State.BUILDING.name());
+                    state.put(STARTED, now);
+                    state.put(UPDATED, now);
+                    session.save(EventIndexDatabase.STATE_ENTITY, state);
+                    return true;
+                });
+            } catch (XWikiException e) {
+                // another member of the cluster has started the build in the meantime
+                if (read(wikiId) != null) {
+                    return false;
+                }
+                throw e;
+            }
+        } else if (!State.READY.name().equals(previous.get(STATE))
+            && now - ((Number) previous.get(UPDATED)).longValue() > TimeUnit.MINUTES.toMillis(RETRY_MINUTES))
+        {
+            // only one member of the cluster takes over
+            return this.database.executeWrite(wikiId, session -> session.createQuery(TAKE_OVER_STATEMENT)
+                .setParameter(STATE, State.BUILDING.name()).setParameter(NOW, now).setParameter(WIKI, wikiId)
+                .setParameter(UPDATED, previous.get(UPDATED)).executeUpdate() == 1);
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> read(String wikiId) throws XWikiException
+    {
+        return this.database.executeRead(wikiId,
+            session -> (Map<String, Object>) session.get(EventIndexDatabase.STATE_ENTITY, wikiId));
+    }
+
+    private void write(String wikiId, State state) throws XWikiException
+    {
+        long now = System.currentTimeMillis();
+        this.database.executeWrite(wikiId, session -> session.createQuery(STATE_STATEMENT)
+            .setParameter(STATE, state.name()).setParameter(NOW, now).setParameter(WIKI, wikiId).executeUpdate());
+        if (state == State.READY) {
+            this.readyWikis.put(wikiId, now);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.index;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Maintains a denormalized copy of the calendar events in a dedicated table, with one row per event object and
+ * indexed columns for the wiki, the start and end dates, the recurrent flag and the location of the event. Querying
+ * this table is a single indexed range scan, instead of joining the documents, the objects and several properties.
+ * <p>
+ * The table is optional: it is only created and used if {@code moccacalendar.eventIndex.enabled} is set to
+ * {@code true}, see {@link EventIndexDatabase}. It is built from the existing events by {@link EventIndexBuildJob} the
+ * first time the events of a wiki are queried, and then kept up to date by {@link EventIndexListener} when events are
+ * saved or deleted. The events are queried without the table until it is complete, as recorded by
+ * {@link EventIndexState}. The events saved, deleted or migrated by any member of a cluster while the table is built
+ * are found in the database at the end of the build. The dates are stored as milliseconds.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventIndexStore.class)
+@Singleton
+public class EventIndexStore
+{
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The documents saved up to one minute before the start of a build are written again at its end, to allow for the
+     * clock differences between the members of a cluster.
+     */
+    private static final long CLOCK_MARGIN = 60000L;
+
+    private static final String WIKI = "wiki";
+
+    private static final String OBJECT_IDS = "objectIds";
+
+    private static final String DELETE_STATEMENT =
+        "delete from " + EventIndexDatabase.EVENT_ENTITY + " ev where ev.wiki = :wiki and ev.document = :document";
+
+    private static final String CLEAR_STATEMENT =
+        "delete from " + EventIndexDatabase.EVENT_ENTITY + " ev where ev.wiki = :wiki";
+
+    private static final String MIGRATED_STATEMENT = "update " + EventIndexDatabase.EVENT_ENTITY
+        + " ev set ev.recurrent = 0 where ev.recurrent = -1 and ev.id in (:objectIds)";
+
+    private static final String RECURRENCE_STATEMENT =
+        "update " + EventIndexDatabase.EVENT_ENTITY + " ev set ev.recurrent = :value where ev.id in (:objectIds)";
+
+    private static final String DELETED_EVENTS_STATEMENT = "delete from " + EventIndexDatabase.EVENT_ENTITY
+        + " ev where ev.wiki = :wiki and not exists (select obj.id from BaseObject obj where obj.id = ev.id)";
+
+    private static final String MIGRATED_EVENTS_QUERY = "select ev.id, recurrent.value from "
+        + EventIndexDatabase.EVENT_ENTITY + " ev, IntegerProperty recurrent where ev.wiki = :wiki "
+        + "and ev.recurrent = -1 and recurrent.id.id = ev.id and recurrent.id.name = :recurrent";
+
+    private static final String SAVED_EVENTS_QUERY = "select distinct doc.fullName from XWikiDocument doc, "
+        + "BaseObject obj where obj.name = doc.fullName and obj.className = :className and doc.date >= :since";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private EventIndexDatabase database;
+
+    @Inject
+    private EventIndexState state;
+
+    @Inject
+    private EventIndexRows rows;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @return {@code true} if the event table should be used to query the events
+     */
+    public boolean isEnabled()
+    {
+        return this.database.isEnabled();
+    }
+
+    /**
+     * Check if the event table can be used to query the events of the given wiki, and start building it if needed.
+     *
+     * @param wikiId the wiki where the events are queried
+     * @return {@code true} if the event table is enabled and complete in the given wiki
+     */
+    public boolean isAvailable(String wikiId)
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+        try {
+            if (this.state.isReady(wikiId)) {
+                return true;
+            }
+            this.state.startBuild(wikiId);
+        } catch (XWikiException e) {
+            logFailure(wikiId, e);
+        }
+        return false;
+    }
+
+    /**
+     * Update the rows of the given document in the event table of its wiki, if the table is complete. While the
+     * table is built, the saved documents are found in the database at the end of the build.
+     *
+     * @param document the saved or deleted document
+     * @throws XWikiException if the table could not be updated
+     */
+    public void update(XWikiDocument document) throws XWikiException
+    {
+        String wikiId = document.getDocumentReference().getWikiReference().getName();
+        if (isEnabled() && this.state.isReady(wikiId)) {
+            writeRows(wikiId, document.getFullName(), this.rows.readRows(document));
+        }
+    }
+
+    /**
+     * Record that the given events have been given the recurrent property directly in the database, without saving
+     * their documents.
+     *
+     * @param wikiId the wiki of the events
+     * @param objectIds the identifiers of the migrated event objects
+     * @throws XWikiException if the table could not be updated
+     */
+    public void updateMigratedEvents(String wikiId, List<Long> objectIds) throws XWikiException
+    {
+        if (isEnabled() && !objectIds.isEmpty() && this.state.isReady(wikiId)) {
+            this.database.executeWrite(wikiId, session -> session.createQuery(MIGRATED_STATEMENT)
+                .setParameterList(OBJECT_IDS, objectIds).executeUpdate());
+        }
+    }
+
+    /**
+     * Build the event table of the given wiki from the existing events, replacing the rows of any previous build.
+     * The events changed in the meantime are caught up once the table is marked as complete, since from then on the
+     * members of the cluster keep it up to date themselves.
+     *
+     * @param wikiId the wiki whose table is built
+     * @throws XWikiException if the table could not be built
+     */
+    void build(String wikiId) throws XWikiException
+    {
+        try {
+            long started = this.state.getBuildStart(wikiId);
+            fill(wikiId);
+            this.state.setReady(wikiId);
+            catchUp(wikiId, new Date(started - CLOCK_MARGIN));
+        } catch (XWikiException | RuntimeException e) {
+            try {
+                this.state.setFailed(wikiId);
+            } catch (XWikiException stateException) {
+                e.addSuppressed(stateException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return the events matching the given query.
+     *
+     * @param wikiId the wiki whose events are queried
+     * @param statement the HQL query on the event table, selecting the document names
+     * @param parameters the values of the named parameters of the query
+     * @return the names of the matching event documents, relative to the wiki
+     * @throws XWikiException if the query failed
+     */
+    public List<String> query(String wikiId, String statement, Map<String, Object> parameters)
+        throws XWikiException
+    {
+        return this.database.executeRead(wikiId, session -> {
+            Query<String> query = session.createQuery(statement, String.class);
+            parameters.forEach(query::setParameter);
+            return query.list();
+        });
+    }
+
+    private void logFailure(String wikiId, XWikiException e)
+    {
+        this.logger.warn("Failed to prepare the calendar event table of wiki [{}]. Root cause is: [{}]", wikiId,
+            e.getMessage());
+        this.logger.debug("Full stack trace: ", e);
+    }
+
+    private void fill(String wikiId) throws XWikiException
+    {
+        this.logger.info("Building the calendar event table of wiki [{}].", wikiId);
+        this.database.executeWrite(wikiId,
+            session -> session.createQuery(CLEAR_STATEMENT).setParameter(WIKI, wikiId).executeUpdate());
+
+        long lastId = Long.MIN_VALUE;
+        int count = 0;
+        List<Map<String, Object>> batch;
+        do {
+            long fromId = lastId;
+            batch = this.database.executeRead(wikiId,
+                session -> this.rows.readExistingEvents(session, wikiId, fromId, BATCH_SIZE));
+            writeRows(wikiId, null, batch);
+            // tell the other members of the cluster that the build is still running
+            this.state.setBuilding(wikiId);
+            if (!batch.isEmpty()) {
+                lastId = (Long) batch.get(batch.size() - 1).get(EventIndexRows.ID);
+            }
+            count += batch.size();
+        } while (batch.size() == BATCH_SIZE);
+        this.logger.info("Added [{}] events to the calendar event table of wiki [{}].", count, wikiId);
+    }
+
+    /**
+     * Write again the events saved since the given date, and remove the events deleted since, by any member of the
+     * cluster.
+     */
+    private void catchUp(String wikiId, Date since) throws XWikiException
+    {
+        List<String> documentNames = this.database.executeRead(wikiId,
+            session -> session.createQuery(SAVED_EVENTS_QUERY, String.class)
+                .setParameter("className", EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME)
+                .setParameter("since", since)
+                .list());
+        XWikiContext xcontext = this.xcontextProvider.get();
+        for (String documentName : documentNames) {
+            XWikiDocument document = xcontext.getWiki().getDocument(
+                this.documentReferenceResolver.resolve(documentName, new WikiReference(wikiId)), xcontext);
+            writeRows(wikiId, documentName, this.rows.readRows(document));
+        }
+
+        this.database.executeWrite(wikiId, session -> {
+            session.createQuery(DELETED_EVENTS_STATEMENT).setParameter(WIKI, wikiId).executeUpdate();
+            // the events given the recurrent property by the bulk migration, which does not save their documents
+            Map<Object, List<Long>> migratedEvents = new HashMap<>();
+            for (Object[] event : session.createQuery(MIGRATED_EVENTS_QUERY, Object[].class)
+                .setParameter(WIKI, wikiId)
+                .setParameter("recurrent", EventConstants.PROPERTY_RECURRENT_NAME)
+                .list()) {
+                migratedEvents.computeIfAbsent(event[1], value -> new ArrayList<>()).add((Long) event[0]);
+            }
+            for (Map.Entry<Object, List<Long>> entry : migratedEvents.entrySet()) {
+                List<Long> objectIds = entry.getValue();
+                for (int i = 0; i < objectIds.size(); i += BATCH_SIZE) {
+                    session.createQuery(RECURRENCE_STATEMENT).setParameter("value", entry.getKey())
+                        .setParameterList(OBJECT_IDS, objectIds.subList(i, Math.min(i + BATCH_SIZE, objectIds.size())))
+                        .executeUpdate();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Replace the rows of the given document, if any, with the given rows, in a single transaction.
+     */
+    private void writeRows(String wikiId, String documentName, List<Map<String, Object>> documentRows)
+        throws XWikiException
+    {
+        this.database.executeWrite(wikiId, session -> {
+            if (documentName != null) {
+                session.createQuery(DELETE_STATEMENT).setParameter(WIKI, wikiId).setParameter("document", documentName)
+                    .executeUpdate();
+            }
+            for (Map<String, Object> row : documentRows) {
+                session.save(EventIndexDatabase.EVENT_ENTITY, row);
+            }
+            return null;
+        });
+    }
+}
@@ -35,6 +35,7 @@ import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.moccacalendar.EventInstance;
 import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.contrib.moccacalendar.internal.DescriptionRenderer;
 import org.xwiki.contrib.moccacalendar.internal.Utils;
 import org.xwiki.contrib.moccacalendar.internal.utils.DefaultEventAssembly;
 import org.xwiki.contrib.moccacalendar.internal.utils.EventQuery;
@@ -44,7 +45,6 @@ import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.LocalDocumentReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.query.QueryException;
-import org.xwiki.rendering.syntax.Syntax;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -81,6 +81,9 @@ public class MeetingEventSource implements EventSource
     @Inject
     private DefaultEventAssembly eventAssembly;
 
+    @Inject
+    private DescriptionRenderer descriptionRenderer;
+
     @Inject
     private Logger logger;
 
@@ -205,11 +208,11 @@ public class MeetingEventSource implements EventSource
             event.setEndDateExclusive(endDateTime);
 
             if (null == event.getTitle()) {
-                event.setTitle(eventDoc.getRenderedTitle(Syntax.PLAIN_1_0, context));
+                event.setTitle(descriptionRenderer.renderTitle(eventDoc));
             }
 
-            if (null == event.getDescription()) {
-                Utils.fillDescription(eventData, "description", context, event);
+            if (!event.hasDescription()) {
+                descriptionRenderer.fillDescription(eventData, "description", event);
             }
         } catch (XWikiException e) {
             logger.warn("cannot find meeting event data [{}]", meetingDocRef, e);
@@ -0,0 +1,219 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.moveJob;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReservation;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReserver;
+import org.xwiki.contrib.moccacalendar.moveJob.CalendarMoveJobRequest;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.GroupedJob;
+import org.xwiki.job.JobGroupPath;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Moves all the events of a calendar to another calendar, and optionally deletes the source calendar afterwards. The
+ * events and the names available in the target calendar are retrieved with one query each, instead of looking for an
+ * unused name for each event; only the chosen name is checked again, in case the page has been created since.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component
+@Named(CalendarMoveJob.JOB_TYPE)
+public class CalendarMoveJob extends AbstractJob<CalendarMoveJobRequest, DefaultJobStatus<CalendarMoveJobRequest>>
+    implements GroupedJob
+{
+    /**
+     * Mocca calendar move job type.
+     */
+    public static final String JOB_TYPE = "moccacalendar.move";
+
+    private static final String EVENTS_QUERY =
+        "from doc.object(MoccaCalendar.MoccaCalendarEventClass) as event where doc.parent = :parent";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("document")
+    private QueryFilter documentFilter;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private EntityReferenceProvider refProvider;
+
+    @Inject
+    private EventNameReserver eventNameReserver;
+
+    @Inject
+    private AuthorizationManager authorizationManager;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    public JobGroupPath getGroupPath()
+    {
+        // Share the group of the jobs moving single events, since both choose new names in the target calendar.
+        String wiki = request.getTargetCalendar().getWikiReference().getName();
+        return new JobGroupPath(Arrays.asList("moccacalendar", "relocation", wiki));
+    }
+
+    @Override
+    protected DefaultJobStatus<CalendarMoveJobRequest> createNewStatus(CalendarMoveJobRequest request)
+    {
+        DefaultJobStatus<CalendarMoveJobRequest> newStatus =
+            new DefaultJobStatus<>(JOB_TYPE, request, null, observationManager, loggerManager);
+        newStatus.setCancelable(true);
+        return newStatus;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        DocumentReference sourceCalendar = request.getSourceCalendar();
+        DocumentReference targetCalendar = request.getTargetCalendar();
+        if (!this.authorizationManager.hasAccess(Right.EDIT, request.getUserReference(), targetCalendar)) {
+            logger.error("The user [{}] is not allowed to add events to the calendar [{}].",
+                request.getUserReference(), targetCalendar);
+            return;
+        }
+
+        List<DocumentReference> eventReferences = getEvents(sourceCalendar);
+        EventNameReservation reservation = this.eventNameReserver.reserve(targetCalendar);
+
+        int movedCount = 0;
+        this.progressManager.pushLevelProgress(eventReferences.size(), this);
+        try {
+            for (DocumentReference eventReference : eventReferences) {
+                if (status.isCanceled()) {
+                    break;
+                }
+                this.progressManager.startStep(this);
+                if (moveEvent(eventReference, reservation)) {
+                    movedCount++;
+                }
+                this.progressManager.endStep(this);
+            }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+        logger.info("Moved [{}] of the [{}] events of [{}] to [{}].", movedCount, eventReferences.size(),
+            sourceCalendar, targetCalendar);
+
+        if (request.isMerge() && !status.isCanceled()) {
+            if (movedCount == eventReferences.size()) {
+                deleteSourceCalendar(sourceCalendar);
+            } else {
+                logger.warn("The calendar [{}] is not deleted since some of its events could not be moved.",
+                    sourceCalendar);
+            }
+        }
+    }
+
+    private List<DocumentReference> getEvents(DocumentReference calendarReference) throws QueryException
+    {
+        Query query = this.queryManager.createQuery(EVENTS_QUERY, Query.XWQL);
+        query.bindValue("parent", this.localSerializer.serialize(calendarReference));
+        query.setWiki(calendarReference.getWikiReference().getName());
+        query.addFilter(this.documentFilter);
+        return query.execute();
+    }
+
+    private boolean moveEvent(DocumentReference eventReference, EventNameReservation reservation)
+    {
+        if (!this.authorizationManager.hasAccess(Right.DELETE, request.getUserReference(), eventReference)) {
+            logger.warn("The user [{}] is not allowed to move the event [{}].", request.getUserReference(),
+                eventReference);
+            return false;
+        }
+
+        XWikiContext context = this.contextProvider.get();
+        XWiki wiki = context.getWiki();
+        try {
+            // Events are nested pages named after their space; terminal events are named after the page.
+            String defaultPageName = this.refProvider.getDefaultReference(EntityType.DOCUMENT).getName();
+            String eventName = defaultPageName.equals(eventReference.getName())
+                ? eventReference.getLastSpaceReference().getName() : eventReference.getName();
+            // The names of the target calendar are read once, pages created since then are skipped here.
+            DocumentReference targetReference = reservation.reserve(eventName);
+            while (wiki.exists(targetReference, context)) {
+                targetReference = reservation.reserve(eventName);
+            }
+
+            // Copy the event with its history and its new parent, so that the move adds a single revision, and the
+            // event is not moved again by the relocation of the events whose parent is another calendar.
+            XWikiDocument eventDoc = wiki.getDocument(eventReference, context);
+            XWikiDocument movedDoc = eventDoc.copyDocument(targetReference, context);
+            movedDoc.setParentReference(reservation.getCalendarReference());
+            wiki.saveDocument(movedDoc, "Moved to another calendar", true, context);
+            wiki.deleteDocument(eventDoc, false, context);
+            return true;
+        } catch (XWikiException e) {
+            logger.warn("Could not move the event [{}] to the calendar [{}].", eventReference,
+                reservation.getCalendarReference(), e);
+            return false;
+        }
+    }
+
+    private void deleteSourceCalendar(DocumentReference sourceCalendar) throws XWikiException
+    {
+        if (!this.authorizationManager.hasAccess(Right.DELETE, request.getUserReference(), sourceCalendar)) {
+            logger.warn("The user [{}] is not allowed to delete the calendar [{}].", request.getUserReference(),
+                sourceCalendar);
+            return;
+        }
+        XWikiContext context = this.contextProvider.get();
+        XWikiDocument sourceDoc = context.getWiki().getDocument(sourceCalendar, context);
+        context.getWiki().deleteDocument(sourceDoc, context);
+    }
+}
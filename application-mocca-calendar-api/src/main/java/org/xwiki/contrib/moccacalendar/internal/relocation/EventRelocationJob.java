@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.relocation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReservation;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.GroupedJob;
+import org.xwiki.job.JobGroupPath;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Moves the events whose calendar has changed below their new calendar. The events of a wiki are moved one job after
+ * the other, since the new names of the events depend on the events already moved. When asked to, the job also looks
+ * for all the events of the wiki which are not below their calendar, so that the moves which were still pending when
+ * the wiki was stopped are not lost.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component
+@Named(EventRelocationJob.JOB_TYPE)
+public class EventRelocationJob extends AbstractJob<EventRelocationRequest, DefaultJobStatus<EventRelocationRequest>>
+    implements GroupedJob
+{
+    /**
+     * Mocca calendar event relocation job type.
+     */
+    public static final String JOB_TYPE = "moccacalendar.relocation";
+
+    private static final String EVENTS_WITH_PARENT_QUERY = "select doc.fullName, doc.parent "
+        + "from XWikiDocument doc, BaseObject obj "
+        + "where obj.name = doc.fullName and obj.className = :className and doc.translation = 0";
+
+    @Inject
+    private EventRelocator eventRelocator;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("explicit")
+    private DocumentReferenceResolver<String> explicitResolver;
+
+    /**
+     * The names reserved in the calendars by the events moved so far.
+     */
+    private final Map<String, EventNameReservation> reservations = new HashMap<>();
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    public JobGroupPath getGroupPath()
+    {
+        return new JobGroupPath(Arrays.asList("moccacalendar", "relocation", request.getWiki()));
+    }
+
+    @Override
+    protected DefaultJobStatus<EventRelocationRequest> createNewStatus(EventRelocationRequest request)
+    {
+        DefaultJobStatus<EventRelocationRequest> newStatus =
+            new DefaultJobStatus<>(JOB_TYPE, request, null, observationManager, loggerManager);
+        newStatus.setCancelable(true);
+        return newStatus;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        Set<DocumentReference> eventReferences = new LinkedHashSet<>(request.getEventReferences());
+        if (request.isMisplacedEventsSearched()) {
+            eventReferences.addAll(findMisplacedEvents());
+        }
+
+        this.progressManager.pushLevelProgress(eventReferences.size(), this);
+        try {
+            for (DocumentReference eventReference : eventReferences) {
+                if (status.isCanceled()) {
+                    break;
+                }
+                this.progressManager.startStep(this);
+                relocate(eventReference);
+                this.progressManager.endStep(this);
+            }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    private Set<DocumentReference> findMisplacedEvents() throws QueryException, XWikiException
+    {
+        Query query = this.queryManager.createQuery(EVENTS_WITH_PARENT_QUERY, Query.HQL);
+        query.bindValue("className", EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME);
+        query.setWiki(request.getWiki());
+        List<Object[]> events = query.execute();
+
+        WikiReference wikiReference = new WikiReference(request.getWiki());
+        Set<DocumentReference> misplacedEvents = new LinkedHashSet<>();
+        for (Object[] event : events) {
+            String parent = (String) event[1];
+            if (parent == null || parent.isEmpty()) {
+                continue;
+            }
+            DocumentReference eventReference = this.explicitResolver.resolve((String) event[0], wikiReference);
+            // the parent is stored relative to the event
+            DocumentReference parentReference = this.explicitResolver.resolve(parent, eventReference);
+            if (this.eventRelocator.needsRelocation(eventReference, parentReference)) {
+                misplacedEvents.add(eventReference);
+            }
+        }
+        if (!misplacedEvents.isEmpty()) {
+            logger.info("Found [{}] events of wiki [{}] which are not below their calendar.", misplacedEvents.size(),
+                request.getWiki());
+        }
+        return misplacedEvents;
+    }
+
+    private void relocate(DocumentReference eventReference)
+    {
+        XWikiContext context = this.contextProvider.get();
+        try {
+            // The event might have been moved or deleted since it was saved.
+            XWikiDocument eventDoc = context.getWiki().getDocument(eventReference, context);
+            if (eventDoc.isNew() || eventDoc
+                .getXObject(eventDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME)) == null) {
+                return;
+            }
+            if (this.eventRelocator.needsRelocation(eventDoc)) {
+                this.eventRelocator.relocate(eventDoc, this.reservations);
+            }
+        } catch (XWikiException | QueryException e) {
+            logger.warn("could not move document [{}] to its new parent.", eventReference, e);
+        }
+    }
+}
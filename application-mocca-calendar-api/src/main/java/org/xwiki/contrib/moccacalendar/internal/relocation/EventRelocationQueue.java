@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.relocation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.job.JobRequestContext;
+
+/**
+ * Collects the events to move below their new calendar, and moves them a bit later with a background job, so that the
+ * save of an event does not wait for its rename. The events saved during the delay are moved by the same job, which
+ * coalesces the moves when many events are reparented at once. The pending moves are only kept in memory: the events
+ * whose move was lost because the wiki was stopped are found again by {@link #addMisplacedEvents(String)} when the
+ * wiki starts.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventRelocationQueue.class)
+@Singleton
+public class EventRelocationQueue implements Initializable, Disposable
+{
+    private static final String DELAY_PROPERTY = "moccacalendar.relocation.delay";
+
+    private static final long DEFAULT_DELAY = 2000L;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Logger logger;
+
+    private ScheduledExecutorService scheduler;
+
+    private long delay;
+
+    /**
+     * The pending requests, by wiki and user, since the events are moved with the rights of the user who saved them.
+     */
+    private Map<List<Object>, EventRelocationRequest> pendingRequests = new HashMap<>();
+
+    @Override
+    public void initialize()
+    {
+        this.delay = this.configuration.getProperty(DELAY_PROPERTY, DEFAULT_DELAY);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("Mocca Calendar event relocation").daemon(true).build());
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * Move the given event below its calendar, shortly after the current request.
+     *
+     * @param eventReference the reference of the event document
+     */
+    public void add(DocumentReference eventReference)
+    {
+        XWikiContext context = this.contextProvider.get();
+        String wiki = eventReference.getWikiReference().getName();
+        List<Object> key = new ArrayList<>();
+        key.add(wiki);
+        key.add(context.getUserReference());
+
+        synchronized (this) {
+            EventRelocationRequest request = this.pendingRequests.get(key);
+            if (request == null) {
+                request = new EventRelocationRequest(wiki);
+                JobRequestContext.set(request, context);
+                this.pendingRequests.put(key, request);
+                if (this.pendingRequests.size() == 1) {
+                    this.scheduler.schedule(this::startJobs, this.delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            request.getEventReferences().add(eventReference);
+        }
+    }
+
+    /**
+     * Move all the events of the given wiki which are not below their calendar, with a background job.
+     *
+     * @param wiki the wiki whose events are checked
+     */
+    public void addMisplacedEvents(String wiki)
+    {
+        EventRelocationRequest request = new EventRelocationRequest(wiki);
+        request.setMisplacedEventsSearched(true);
+        JobRequestContext.set(request, this.contextProvider.get());
+        try {
+            this.jobExecutor.execute(EventRelocationJob.JOB_TYPE, request);
+        } catch (JobException e) {
+            this.logger.warn("could not move the events of wiki [{}] which are not below their calendar.", wiki, e);
+        }
+    }
+
+    private void startJobs()
+    {
+        Map<List<Object>, EventRelocationRequest> requests;
+        synchronized (this) {
+            requests = this.pendingRequests;
+            this.pendingRequests = new HashMap<>();
+        }
+        for (EventRelocationRequest request : requests.values()) {
+            try {
+                this.jobExecutor.execute(EventRelocationJob.JOB_TYPE, request);
+            } catch (JobException e) {
+                this.logger.warn("could not move the events [{}] to their new parent.", request.getEventReferences(),
+                    e);
+            }
+        }
+    }
+}
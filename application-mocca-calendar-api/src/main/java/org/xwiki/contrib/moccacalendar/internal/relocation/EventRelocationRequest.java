@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.relocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The request of the job moving events below their new calendar.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class EventRelocationRequest extends AbstractRequest
+{
+    private final String wiki;
+
+    private final Set<DocumentReference> eventReferences = new LinkedHashSet<>();
+
+    private boolean misplacedEventsSearched;
+
+    /**
+     * @param wiki the wiki of the events to move
+     */
+    public EventRelocationRequest(String wiki)
+    {
+        this.wiki = wiki;
+        List<String> id = new ArrayList<>(Arrays.asList("moccacalendar", "relocation", wiki));
+        id.add(String.valueOf(System.nanoTime()));
+        setId(id);
+        // Each batch has its own job, whose status is not worth keeping once the events are moved.
+        setStatusSerialized(false);
+    }
+
+    /**
+     * @return the wiki of the events to move
+     */
+    public String getWiki()
+    {
+        return wiki;
+    }
+
+    /**
+     * @return the references of the events to move, in the order they have been saved
+     */
+    public Set<DocumentReference> getEventReferences()
+    {
+        return eventReferences;
+    }
+
+    /**
+     * @return {@code true} if the job also moves all the events of the wiki which are not below their calendar
+     */
+    public boolean isMisplacedEventsSearched()
+    {
+        return misplacedEventsSearched;
+    }
+
+    /**
+     * @param misplacedEventsSearched {@code true} if the job should also move all the events of the wiki which are
+     *     not below their calendar, e.g. because their move was still pending when the wiki was stopped
+     */
+    public void setMisplacedEventsSearched(boolean misplacedEventsSearched)
+    {
+        this.misplacedEventsSearched = misplacedEventsSearched;
+    }
+}
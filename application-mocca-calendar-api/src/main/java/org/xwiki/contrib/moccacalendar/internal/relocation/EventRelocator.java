@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.relocation;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.CalendarDocumentCache;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReservation;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReserver;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.QueryException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Moves an event below the calendar it belongs to, i.e. the calendar set as parent of the event document.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventRelocator.class)
+@Singleton
+public class EventRelocator
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private EntityReferenceProvider refProvider;
+
+    @Inject
+    private CalendarDocumentCache calendarDocumentCache;
+
+    @Inject
+    private EventNameReserver eventNameReserver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /**
+     * Check if the given event is not located below its calendar.
+     *
+     * @param eventDoc the event document
+     * @return {@code true} if the parent of the event is a calendar, and the event is not located below it
+     * @throws XWikiException if the parent of the event cannot be loaded
+     */
+    public boolean needsRelocation(XWikiDocument eventDoc) throws XWikiException
+    {
+        return needsRelocation(eventDoc.getDocumentReference(), eventDoc.getParentReference());
+    }
+
+    /**
+     * Check if the given event is not located below its calendar, without loading the event document.
+     *
+     * @param eventReference the reference of the event document
+     * @param parentReference the reference of the parent of the event, might be null
+     * @return {@code true} if the parent of the event is a calendar, and the event is not located below it
+     * @throws XWikiException if the parent of the event cannot be loaded
+     */
+    public boolean needsRelocation(DocumentReference eventReference, DocumentReference parentReference)
+        throws XWikiException
+    {
+        //
+        // if our parent reference does not point to a calendar, better do not move us there
+        //
+        if (!calendarDocumentCache.isCalendar(parentReference)) {
+            logger.debug("target parent [{}] for [{}] is not a calendar; do not move", parentReference,
+                eventReference);
+            return false;
+        }
+
+        //
+        // if the parent matches the location parent, we are fine, too
+        //
+        if (parentMatchesLocationParent(eventReference, parentReference)) {
+            logger.debug("calendar parent for event [{}] is ok - no move needed", eventReference);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move the given event below its calendar. The new name of the event is reserved in the calendar, so that the
+     * names of the calendar are only loaded once when several events are moved to it.
+     *
+     * @param eventDoc the event document
+     * @param reservations the names reserved so far in the calendars, kept by the caller while moving several events
+     * @return the new reference of the event document
+     * @throws XWikiException if the event cannot be renamed
+     * @throws QueryException if the names of the existing events of the calendar cannot be retrieved
+     */
+    public DocumentReference relocate(XWikiDocument eventDoc, Map<String, EventNameReservation> reservations)
+        throws XWikiException, QueryException
+    {
+        XWikiContext context = contextProvider.get();
+        DocumentReference targetReference = newDocumentLocation(eventDoc, reservations, context);
+        context.getWiki()
+            .renameDocument(eventDoc.getDocumentReference(), targetReference, true, List.of(), List.of(), context);
+        logger.debug("renamed document [{}] to [{}]", eventDoc.getDocumentReference(), targetReference);
+        return targetReference;
+    }
+
+    private boolean parentMatchesLocationParent(DocumentReference docRef, DocumentReference parentRef)
+    {
+        logger.trace("check document [{}] with parent ref [{}]", docRef, parentRef);
+
+        SpaceReference parentLocation = parentRef.getLastSpaceReference();
+        SpaceReference locationParent = docRef.getLastSpaceReference();
+
+        String defaultPageName = refProvider.getDefaultReference(EntityType.DOCUMENT).getName();
+        if (defaultPageName.equals(docRef.getName())) {
+            EntityReference locationParentParent = locationParent.getParent();
+            if (locationParentParent instanceof SpaceReference) {
+                locationParent = (SpaceReference) locationParentParent;
+            } else {
+                locationParent = null;
+            }
+        }
+
+        logger.trace("parent ref is [{}] while location parent is [{}]", parentLocation, locationParent);
+
+        return parentLocation.equals(locationParent);
+    }
+
+    private DocumentReference newDocumentLocation(XWikiDocument eventDocument,
+        Map<String, EventNameReservation> reservations, XWikiContext context) throws XWikiException, QueryException
+    {
+        DocumentReference docRef = eventDocument.getDocumentReference();
+        DocumentReference parentRef = eventDocument.getParentReference();
+
+        SpaceReference targetSpaceRef = parentRef.getLastSpaceReference();
+        if (targetSpaceRef == null) {
+            // XXX how can this happen?
+            logger.warn("could not move event [{}] to calendar [{}], as this has no space", docRef,
+                parentRef);
+            return docRef;
+        }
+
+        // we keep the event a non-terminal page if it is one
+        EntityReference defaultRef = refProvider.getDefaultReference(EntityType.DOCUMENT);
+        boolean terminal = !docRef.getName().equals(defaultRef.getName());
+        String eventName = terminal ? docRef.getName() : docRef.getLastSpaceReference().getName();
+
+        String reservationKey = (terminal ? "page:" : "space:") + serializer.serialize(parentRef);
+        EventNameReservation reservation = reservations.get(reservationKey);
+        if (reservation == null) {
+            reservation =
+                terminal ? eventNameReserver.reserveTerminal(parentRef) : eventNameReserver.reserve(parentRef);
+            reservations.put(reservationKey, reservation);
+        }
+
+        // the reservation does not know about the pages created since it has been loaded
+        DocumentReference targetReference = reservation.reserve(eventName);
+        while (context.getWiki().exists(targetReference, context)) {
+            logger.trace("doc already exists [{}]; retry", targetReference);
+            targetReference = reservation.reserve(eventName);
+        }
+
+        logger.trace("new location for document [{}] is computed to [{}]", docRef, targetReference);
+
+        return targetReference;
+    }
+}
@@ -20,9 +20,16 @@
 package org.xwiki.contrib.moccacalendar.internal.rest;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,22 +37,37 @@ import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventField;
+import org.xwiki.contrib.moccacalendar.EventInstance;
 import org.xwiki.contrib.moccacalendar.importJob.ImportJobRequest;
+import org.xwiki.contrib.moccacalendar.internal.CalendarDocumentCache;
+import org.xwiki.contrib.moccacalendar.internal.EventInstanceService;
 import org.xwiki.contrib.moccacalendar.internal.ical.ICalGenerator;
+import org.xwiki.contrib.moccacalendar.internal.importJob.ImportFileStore;
 import org.xwiki.contrib.moccacalendar.internal.importJob.ImportJob;
+import org.xwiki.contrib.moccacalendar.internal.moveJob.CalendarMoveJob;
+import org.xwiki.contrib.moccacalendar.moveJob.CalendarMoveJobRequest;
 import org.xwiki.contrib.moccacalendar.rest.MoccaCalendarResource;
 import org.xwiki.job.Job;
 import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.QueryException;
 import org.xwiki.rest.XWikiRestException;
 import org.xwiki.rest.internal.resources.pages.ModifiablePageResource;
 import org.xwiki.security.authorization.AccessDeniedException;
 import org.xwiki.stability.Unstable;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.job.JobRequestContext;
 
 /**
  * Default implementation of {@link MoccaCalendarResource}.
@@ -59,6 +81,8 @@ import com.xpn.xwiki.XWikiContext;
 @Singleton
 public class DefaultMoccaCalendarResource extends ModifiablePageResource implements MoccaCalendarResource
 {
+    private static final String EVENT_DATE_FORMAT = "yyyy-M-d";
+
     @Inject
     private Logger logger;
 
@@ -68,9 +92,29 @@ public class DefaultMoccaCalendarResource extends ModifiablePageResource impleme
     @Inject
     private ICalGenerator iCalGenerator;
 
+    @Inject
+    private ImportFileStore importFileStore;
+
+    @Inject
+    private CalendarDocumentCache calendarDocumentCache;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private EventInstanceService eventInstanceService;
+
+    @Inject
+    private EventFeedWriter eventFeedWriter;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
     @Override
-    public Response importCalendarFile(String parentCalendar, byte[] file)
+    public Response importCalendarFile(String parentCalendar, InputStream file, boolean sync, boolean resume)
     {
+        File storedFile = null;
         try {
             XWikiContext wikiContext = this.xcontextProvider.get();
             List<String> jobId = new ArrayList<>();
@@ -79,20 +123,61 @@ public class DefaultMoccaCalendarResource extends ModifiablePageResource impleme
             jobId.add(parentCalendar);
             Job job = this.jobExecutor.getJob(jobId);
             if (job == null) {
+                // Spool the uploaded content to disk instead of keeping it in the job request.
+                storedFile = this.importFileStore.store(file);
                 ImportJobRequest importJobRequest =
-                    new ImportJobRequest(jobId, file, parentCalendar, wikiContext.getUserReference());
+                    new ImportJobRequest(jobId, storedFile, parentCalendar, wikiContext.getUserReference());
+                importJobRequest.setSync(sync);
+                importJobRequest.setResume(resume);
                 this.jobExecutor.execute(ImportJob.JOB_TYPE, importJobRequest);
                 return Response.status(202).type(MediaType.TEXT_PLAIN_TYPE).build();
             } else {
                 return Response.notModified().type(MediaType.TEXT_PLAIN_TYPE).build();
             }
         } catch (Exception e) {
+            this.importFileStore.delete(storedFile);
             this.logger.warn("Failed to import .ics file data. Root cause: [{}]",
                 ExceptionUtils.getRootCauseMessage(e));
             throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
         }
     }
 
+    @Override
+    public Response moveCalendarEvents(String sourceCalendar, String targetCalendar, boolean merge)
+    {
+        try {
+            DocumentReference sourceReference = this.documentReferenceResolver.resolve(sourceCalendar);
+            DocumentReference targetReference = this.documentReferenceResolver.resolve(targetCalendar);
+            if (!this.calendarDocumentCache.isCalendar(sourceReference)
+                || !this.calendarDocumentCache.isCalendar(targetReference)) {
+                throw new WebApplicationException(Response.Status.NOT_FOUND);
+            }
+
+            XWikiContext wikiContext = this.xcontextProvider.get();
+            List<String> jobId = new ArrayList<>();
+            jobId.add("moccacalendar");
+            jobId.add("move");
+            jobId.add(sourceCalendar);
+            Job job = this.jobExecutor.getJob(jobId);
+            if (job == null) {
+                CalendarMoveJobRequest moveJobRequest = new CalendarMoveJobRequest(jobId, sourceReference,
+                    targetReference, wikiContext.getUserReference());
+                moveJobRequest.setMerge(merge);
+                JobRequestContext.set(moveJobRequest, wikiContext);
+                this.jobExecutor.execute(CalendarMoveJob.JOB_TYPE, moveJobRequest);
+                return Response.status(202).type(MediaType.TEXT_PLAIN_TYPE).build();
+            } else {
+                return Response.notModified().type(MediaType.TEXT_PLAIN_TYPE).build();
+            }
+        } catch (WebApplicationException e) {
+            throw e;
+        } catch (Exception e) {
+            this.logger.warn("Failed to move the events of calendar [{}]. Root cause: [{}]", sourceCalendar,
+                ExceptionUtils.getRootCauseMessage(e));
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     @Override
     public Response getICalContent(String calendarReference) throws XWikiRestException
     {
@@ -112,4 +197,71 @@ public class DefaultMoccaCalendarResource extends ModifiablePageResource impleme
             throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
         }
     }
+
+    @Override
+    public Response getEvents(String start, String end, String filter, String filterDoc, String calendarDoc,
+        List<String> wikis, String wiki, String outputView, boolean descriptions) throws XWikiRestException
+    {
+        Date dateFrom = parseDate(start);
+        if (dateFrom == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        Date dateTo = parseDate(end);
+        // the past events of the list view are displayed from the most recent one
+        boolean sortAscending = !("plainList".equals(outputView) && dateTo != null && dateTo.before(new Date()));
+        String parentReference = StringUtils.isEmpty(filterDoc) ? calendarDoc : filterDoc;
+        // rendering the descriptions of all the events of a month is expensive, and most views do not display them
+        Set<EventField> fields = descriptions ? EnumSet.allOf(EventField.class) : EnumSet.of(EventField.COLORS);
+
+        XWikiContext wikiContext = this.xcontextProvider.get();
+        String currentWiki = wikiContext.getWikiId();
+        String calendarWiki = StringUtils.isEmpty(wiki) ? currentWiki : wiki;
+        try {
+            if (!this.wikiDescriptorManager.exists(calendarWiki)) {
+                throw new WebApplicationException(Response.Status.NOT_FOUND);
+            }
+            List<EventInstance> events;
+            wikiContext.setWikiId(calendarWiki);
+            try {
+                if (wikis != null && !wikis.isEmpty()) {
+                    events = this.eventInstanceService.queryEvents(dateFrom, dateTo, wikis, sortAscending, fields);
+                } else {
+                    events = this.eventInstanceService.queryEvents(dateFrom, dateTo, StringUtils.defaultString(filter),
+                        calendarWiki, parentReference, sortAscending, fields);
+                }
+            } finally {
+                wikiContext.setWikiId(currentWiki);
+            }
+
+            // the URLs and the rights of the events are computed while they are written
+            StreamingOutput output = outputStream -> {
+                XWikiContext context = this.xcontextProvider.get();
+                String previousWiki = context.getWikiId();
+                context.setWikiId(calendarWiki);
+                try {
+                    this.eventFeedWriter.write(events, calendarDoc, filter, filterDoc, outputStream);
+                } finally {
+                    context.setWikiId(previousWiki);
+                }
+            };
+            return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
+        } catch (WikiManagerException | QueryException e) {
+            this.logger.error("Failed to get the events of the calendar [{}]. Root cause: [{}]", calendarDoc,
+                ExceptionUtils.getRootCauseMessage(e));
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private Date parseDate(String date)
+    {
+        if (StringUtils.isEmpty(date)) {
+            return null;
+        }
+        try {
+            return new SimpleDateFormat(EVENT_DATE_FORMAT).parse(date);
+        } catch (ParseException e) {
+            this.logger.debug("Invalid event date [{}]", date, e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,280 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.contrib.moccacalendar.internal.SourceEventCollector;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.xml.XMLUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+
+/**
+ * Writes the events displayed by the calendar macro in the JSON format expected by fullcalendar, one event at a time.
+ * Each event comes with the URLs used to display, edit, save and delete it, the rights of the current user on it and
+ * its "agenda" view as HTML.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = EventFeedWriter.class)
+@Singleton
+public class EventFeedWriter
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String JSON_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm";
+
+    private static final String DEFAULT_DATE_FORMAT = "yyyy/MM/dd HH:mm";
+
+    private static final String DATE_FORMAT_PREFERENCE = "dateformat";
+
+    private static final String DEFAULT_TIME_FORMAT = "HH:mm";
+
+    private static final String EVENT_CLASS_SPACE = "MoccaCalendar";
+
+    private static final String EVENT_CLASS_NAME = "MoccaCalendarEventClass";
+
+    private static final String VIEW_ACTION = "view";
+
+    private static final String DATE_SEPARATOR = " - ";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("compact")
+    private EntityReferenceSerializer<String> compactSerializer;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private ContextualAuthorizationManager authorizationManager;
+
+    @Inject
+    private ContextualLocalizationManager localizationManager;
+
+    @Inject
+    private SourceEventCollector sourceEventCollector;
+
+    /**
+     * Write the given events as a JSON array.
+     *
+     * @param events the events to write
+     * @param calendarDoc the calendar displaying the events, passed along to the event pages; might be null
+     * @param filter the filter used to select the events, passed along to the event pages; might be null
+     * @param filterDoc the document used by the filter, passed along to the event pages; might be null
+     * @param outputStream where to write the events
+     * @throws IOException if the events cannot be written
+     */
+    public void write(List<EventInstance> events, String calendarDoc, String filter, String filterDoc,
+        OutputStream outputStream) throws IOException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        DateTimeFormatter jsonDateFormat = DateTimeFormat.forPattern(JSON_DATE_FORMAT).withLocale(context.getLocale());
+        String calendarParameters = String.format("calendarDoc=%s&calendarParentFilter=%s&parentFROM=%s",
+            encode(calendarDoc), encode(filter), encode(filterDoc));
+        DocumentReference calendarReference =
+            StringUtils.isEmpty(calendarDoc) ? null : this.documentReferenceResolver.resolve(calendarDoc);
+        Map<String, String> dateFormats = new HashMap<>();
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.writeStartArray();
+            for (EventInstance event : events) {
+                String extraParameters = calendarParameters;
+                // the other sources need the start date to find the occurrence to display
+                if (event.isRecurrent() || event.getSource() != null) {
+                    DateTime originalStartDate =
+                        event.getOriginalStartDate() != null ? event.getOriginalStartDate() : event.getStartDate();
+                    extraParameters += "&instanceStart=" + encode(jsonDateFormat.print(originalStartDate));
+                }
+                String modalViewParameters = extraParameters;
+                String eventSheet = this.sourceEventCollector.getDisplaySheet(event);
+                if (eventSheet != null) {
+                    modalViewParameters +=
+                        String.format("&sheet=%s&eventSource=%s", encode(eventSheet), encode(event.getSource()));
+                }
+                String format = dateFormats.computeIfAbsent(
+                    event.getSource() == null ? event.getEventDocRef().getWikiReference().getName() : "",
+                    wiki -> getDateFormat(wiki, calendarReference, context));
+                writeEvent(generator, event, extraParameters, modalViewParameters, jsonDateFormat, format, context);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private void writeEvent(JsonGenerator generator, EventInstance event, String extraParameters,
+        String modalViewParameters, DateTimeFormatter jsonDateFormat, String dateFormat, XWikiContext context)
+        throws IOException
+    {
+        DocumentReference eventDocRef = event.getEventDocRef();
+        boolean canEdit = event.isModifiable() && this.authorizationManager.hasAccess(Right.EDIT, eventDocRef);
+
+        generator.writeStartObject();
+        generator.writeStringField("id", this.compactSerializer.serialize(eventDocRef));
+        generator.writeStringField("title", event.getTitle());
+        generator.writeStringField("url", getURL(eventDocRef, VIEW_ACTION, modalViewParameters, context));
+        generator.writeStringField("viewUrl", getURL(eventDocRef, VIEW_ACTION, extraParameters, context));
+        generator.writeStringField("editUrl", getURL(eventDocRef, "edit", modalViewParameters, context));
+        generator.writeStringField("saveUrl", getURL(eventDocRef, "save", extraParameters, context));
+        generator.writeStringField("deleteUrl", getURL(eventDocRef, "delete", extraParameters, context));
+        generator.writeBooleanField("canEdit", canEdit);
+        // the document of an event from another source, e.g. a subscription, holds more than this event
+        boolean canDelete = event.getSource() == null && this.authorizationManager.hasAccess(Right.DELETE, eventDocRef);
+        generator.writeBooleanField("canDelete", canDelete);
+        // all events are considered movable by the client; the update service reports those which are not
+        generator.writeBooleanField("canMove", canEdit && event.isMovable());
+        generator.writeStringField("start", jsonDateFormat.print(event.getStartDate()));
+        generator.writeStringField("end", jsonDateFormat.print(event.getEndDateExclusive()));
+        generator.writeBooleanField("allDay", event.isAllDay());
+        // the colors of the events are already HTML escaped by the event instance service
+        String color = event.getBackgroundColor();
+        generator.writeStringField("color", color);
+        generator.writeBooleanField("recurrent", event.isRecurrent());
+        if (StringUtils.isNotEmpty(event.getTextColor())) {
+            generator.writeStringField("textColor", event.getTextColor());
+        }
+        // fullcalendar keeps the events when switching views, so the agenda view is sent in every case, with the
+        // descriptions if they have been requested
+        generator.writeStringField("html", renderAgendaView(event, color, dateFormat, context));
+        generator.writeEndObject();
+    }
+
+    private String renderAgendaView(EventInstance event, String color, String dateFormat, XWikiContext context)
+    {
+        DateTime startDate = event.getStartDate();
+        DateTime endDate = event.getEndDate();
+        boolean sameDay =
+            endDate.getYear() == startDate.getYear() && endDate.getDayOfYear() == startDate.getDayOfYear();
+
+        String format = dateFormat;
+        String timeFormat = DEFAULT_TIME_FORMAT;
+        int timeIndex = format.indexOf('H');
+        if (timeIndex > 0) {
+            timeFormat = format.substring(timeIndex).trim();
+            if (event.isAllDay()) {
+                format = format.substring(0, timeIndex).trim();
+            }
+        }
+        DateTimeFormatter datePrinter = DateTimeFormat.forPattern(format).withLocale(context.getLocale());
+        DateTimeFormatter timePrinter = DateTimeFormat.forPattern(timeFormat).withLocale(context.getLocale());
+
+        StringBuilder html = new StringBuilder();
+        html.append("<div class=\"moccaevent\" style=\"border-color:").append(color).append("\">");
+        html.append("<h5><a href=\"").append(getURL(event.getEventDocRef(), VIEW_ACTION, null, context))
+            .append("\">").append(escape(event.getTitle())).append("</a></h5>");
+        html.append("<p class=\"date\">").append(datePrinter.print(startDate));
+        if (event.isAllDay()) {
+            if (!sameDay) {
+                html.append(DATE_SEPARATOR).append(datePrinter.print(endDate));
+            }
+            String allDayText = this.localizationManager.getTranslationPlain("xwiki.calendar.allDayText");
+            html.append(' ').append(allDayText != null ? allDayText : "xwiki.calendar.allDayText");
+        } else {
+            html.append(DATE_SEPARATOR).append(sameDay ? timePrinter.print(endDate) : datePrinter.print(endDate));
+        }
+        html.append("</p>");
+        // the descriptions are only queried when the client asks for them
+        if (event.hasDescription()) {
+            html.append(StringUtils.defaultString(event.getDescriptionHtml()));
+        }
+        html.append("</div>");
+        return html.toString();
+    }
+
+    /**
+     * The events stored in documents are displayed with the date format of the event class; the events of the other
+     * sources, which do not have an event object, with the date format of the space of the calendar.
+     */
+    private String getDateFormat(String wiki, DocumentReference calendarReference, XWikiContext context)
+    {
+        String format = null;
+        if (StringUtils.isNotEmpty(wiki)) {
+            try {
+                BaseClass eventClass = context.getWiki().getXClass(
+                    new DocumentReference(wiki, EVENT_CLASS_SPACE, EVENT_CLASS_NAME), context);
+                PropertyClass startDateProperty =
+                    (PropertyClass) eventClass.get(EventConstants.PROPERTY_STARTDATE_NAME);
+                format = startDateProperty != null ? startDateProperty.getStringValue("dateFormat") : null;
+            } catch (XWikiException e) {
+                // fall back on the date format of the wiki
+            }
+        }
+        if (StringUtils.isEmpty(format)) {
+            if (calendarReference != null) {
+                format = context.getWiki().getSpacePreference(DATE_FORMAT_PREFERENCE,
+                    calendarReference.getLastSpaceReference(), DEFAULT_DATE_FORMAT, context);
+            } else {
+                format = context.getWiki().getSpacePreference(DATE_FORMAT_PREFERENCE, DEFAULT_DATE_FORMAT, context);
+            }
+        }
+        return format;
+    }
+
+    private String getURL(DocumentReference documentReference, String action, String queryString,
+        XWikiContext context)
+    {
+        return context.getWiki().getURL(documentReference, action, queryString, null, context);
+    }
+
+    private String escape(String value)
+    {
+        return value != null ? XMLUtils.escape(value) : null;
+    }
+
+    private String encode(String value)
+    {
+        if (value == null) {
+            return "";
+        }
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
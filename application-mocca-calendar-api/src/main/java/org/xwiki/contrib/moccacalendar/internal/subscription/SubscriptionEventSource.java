@@ -0,0 +1,289 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Safelist;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.fullcalendar.model.CalendarEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.api.Document;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Shows the events of the subscribed ical feeds, served from the {@link SubscriptionFeedCache} instead of being
+ * downloaded by the browser each time a calendar is displayed.
+ * <p>
+ * With the "page" filter, the events of the subscription stored in the given document are returned. With the "wiki"
+ * filter, the events of all the subscriptions displayed globally are returned, but only to the main calendar of the
+ * wiki, as before. Google calendars are still loaded by the browser, as they are read through the Google API.
+ * <p>
+ * The events are displayed in the time zone of the current user. They cannot be modified or deleted, as they belong
+ * to the remote calendar.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Named(SubscriptionEventSource.NAME)
+@Singleton
+@Component
+public class SubscriptionEventSource implements EventSource
+{
+    /** The name of this event source. */
+    public static final String NAME = "subscriptions";
+
+    private static final LocalDocumentReference SUBSCRIPTION_CLASS =
+        new LocalDocumentReference("MoccaCalendar", "MoccaCalendarSubscribeClass");
+
+    private static final String GLOBAL_SUBSCRIPTIONS_QUERY = "select distinct doc.fullName from Document doc, "
+        + "doc.object(MoccaCalendar.MoccaCalendarSubscribeClass) as subscription where subscription.globalDisplay = 1 "
+        + "and doc.fullName <> 'MoccaCalendar.MoccaCalendarSubscribeTemplate'";
+
+    private static final String ICAL_FIELD = "iCal";
+
+    private static final String WIKI_FILTER = "wiki";
+
+    /** The calendars which display the global subscriptions: the main calendar page and the calendar it shows. */
+    private static final List<LocalDocumentReference> MAIN_CALENDARS =
+        Arrays.asList(new LocalDocumentReference("MoccaCalendar", "WebHome"),
+            new LocalDocumentReference("MoccaCalendar", "Events"));
+
+    /** The format of the start date given by the calendar to display an occurrence, see {@link #getEventInstance}. */
+    private static final String INSTANCE_START_FORMAT = "yyyy-MM-dd'T'HH:mm";
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Inject
+    private SubscriptionFeedCache feedCache;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public LocalDocumentReference getConfigurationClass()
+    {
+        return null;
+    }
+
+    @Override
+    public List<EventInstance> getEvents(Date dateFrom, Date dateTo, String filter, DocumentReference parentRef,
+        boolean sortAscending)
+    {
+        List<EventInstance> events = new ArrayList<>();
+        try {
+            for (DocumentReference subscriptionRef : getSubscriptions(filter, parentRef)) {
+                addEvents(subscriptionRef, dateFrom, dateTo, events);
+            }
+        } catch (QueryException | XWikiException e) {
+            this.logger.error("unexpected error while fetching the subscribed calendars", e);
+        }
+        return events;
+    }
+
+    /**
+     * The events of the subscriptions are not stored in documents: the occurrence starting at the given date is looked
+     * up in the cached feeds of the subscription stored in the given document. The start date is the one sent to the
+     * calendar, printed in the time zone of the current user and parsed in the time zone of the server.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public EventInstance getEventInstance(Document eventDoc, Date eventStartDate)
+    {
+        if (eventStartDate == null) {
+            return null;
+        }
+        BaseObject subscription;
+        try {
+            XWikiContext context = this.xcontextProvider.get();
+            subscription = context.getWiki().getDocument(eventDoc.getDocumentReference(), context)
+                .getXObject(SUBSCRIPTION_CLASS);
+        } catch (XWikiException e) {
+            this.logger.warn("cannot load the subscription [{}]", eventDoc.getDocumentReference(), e);
+            return null;
+        }
+        if (subscription == null) {
+            return null;
+        }
+        String instanceStart = DateTimeFormat.forPattern(INSTANCE_START_FORMAT).print(eventStartDate.getTime());
+        DateTimeZone zone = getUserZone();
+        DateTimeFormatter userFormat = DateTimeFormat.forPattern(INSTANCE_START_FORMAT).withZone(zone);
+        for (String url : subscription.getStringValue(ICAL_FIELD).split(",")) {
+            if (StringUtils.isBlank(url)) {
+                continue;
+            }
+            for (CalendarEvent calendarEvent : this.feedCache.getEvents(url)) {
+                DateTime startDate = toDateTime(calendarEvent.getStart(), calendarEvent.isAllDay(), zone);
+                if (instanceStart.equals(userFormat.print(startDate))) {
+                    EventInstance event =
+                        convertToEventInstance(calendarEvent, eventDoc.getDocumentReference(), zone);
+                    event.setTextColor(subscription.getStringValue("textColor"));
+                    event.setBackgroundColor(subscription.getStringValue("color"));
+                    event.setSource(NAME);
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<DocumentReference> getSubscriptions(String filter, DocumentReference parentRef)
+        throws QueryException
+    {
+        List<DocumentReference> subscriptions = new ArrayList<>();
+        if (WIKI_FILTER.equals(filter) && parentRef != null
+            && MAIN_CALENDARS.contains(new LocalDocumentReference(parentRef))) {
+            Query query = this.queryManager.createQuery(GLOBAL_SUBSCRIPTIONS_QUERY, Query.XWQL);
+            query.setWiki(parentRef.getWikiReference().getName());
+            for (Object fullName : query.execute()) {
+                subscriptions.add(
+                    this.documentReferenceResolver.resolve((String) fullName, parentRef.getWikiReference()));
+            }
+        } else if ("page".equals(filter) && parentRef != null) {
+            subscriptions.add(parentRef);
+        }
+        return subscriptions;
+    }
+
+    private void addEvents(DocumentReference subscriptionRef, Date dateFrom, Date dateTo, List<EventInstance> events)
+        throws XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        XWikiDocument subscriptionDoc = context.getWiki().getDocument(subscriptionRef, context);
+        BaseObject subscription = subscriptionDoc.getXObject(SUBSCRIPTION_CLASS);
+        if (subscription == null) {
+            return;
+        }
+
+        DateTimeZone zone = getUserZone();
+        String textColor = subscription.getStringValue("textColor");
+        String backgroundColor = subscription.getStringValue("color");
+        for (String url : subscription.getStringValue(ICAL_FIELD).split(",")) {
+            if (StringUtils.isBlank(url)) {
+                continue;
+            }
+            for (CalendarEvent calendarEvent : this.feedCache.getEvents(url)) {
+                if (overlaps(calendarEvent, dateFrom, dateTo)) {
+                    EventInstance event = convertToEventInstance(calendarEvent, subscriptionRef, zone);
+                    event.setTextColor(textColor);
+                    event.setBackgroundColor(backgroundColor);
+                    events.add(event);
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(CalendarEvent calendarEvent, Date dateFrom, Date dateTo)
+    {
+        Date start = calendarEvent.getStart();
+        Date end = calendarEvent.getEnd() != null ? calendarEvent.getEnd() : start;
+        if (dateTo == null) {
+            return !start.after(dateFrom) && !end.before(dateFrom);
+        }
+        return !start.after(dateTo) && !end.before(dateFrom);
+    }
+
+    private EventInstance convertToEventInstance(CalendarEvent calendarEvent, DocumentReference subscriptionRef,
+        DateTimeZone zone)
+    {
+        EventInstance event = new EventInstance();
+        event.setEventDocRef(subscriptionRef);
+        // the events belong to the remote calendar, so they can be neither modified nor deleted
+        event.setModifiable(false);
+        event.setMovable(false);
+        boolean allDay = calendarEvent.isAllDay();
+        event.setAllDay(allDay);
+        event.setRecurrent(calendarEvent.isRecurrent() == 1);
+
+        DateTime startDate = toDateTime(calendarEvent.getStart(), allDay, zone);
+        event.setStartDate(startDate);
+        event.setOriginalStartDate(startDate);
+        Date end = calendarEvent.getEnd() != null ? calendarEvent.getEnd() : calendarEvent.getStart();
+        DateTime endDateExclusive = toDateTime(end, allDay, zone);
+        event.setEndDateExclusive(endDateExclusive);
+        if (allDay && end.after(calendarEvent.getStart())) {
+            // The end date of all day events is exclusive in ical, but inclusive in the calendar.
+            event.setEndDate(toDateTime(new Date(end.getTime() - DAY), true, zone));
+        } else {
+            event.setEndDate(endDateExclusive);
+        }
+
+        event.setTitle(StringUtils.defaultString(calendarEvent.getTitle()));
+        String description = StringUtils.defaultString(calendarEvent.getDescription());
+        event.setDescription(Jsoup.parse(description).text());
+        event.setDescriptionHtml(Jsoup.clean(description, Safelist.basic()));
+        return event;
+    }
+
+    /**
+     * The dates of all day events are the days themselves, as parsed in the time zone of the server; the other dates
+     * are instants displayed in the time zone of the current user.
+     */
+    private DateTime toDateTime(Date date, boolean allDay, DateTimeZone zone)
+    {
+        return allDay ? new LocalDate(date.getTime()).toDateTimeAtStartOfDay(zone) : new DateTime(date.getTime(), zone);
+    }
+
+    private DateTimeZone getUserZone()
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        return DateTimeZone.forTimeZone(TimeZone.getTimeZone(context.getWiki().getUserTimeZone(context)));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.subscription;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.fullcalendar.model.CalendarEvent;
+
+/**
+ * The events of a subscribed ical feed, as they were expanded the last time the feed was downloaded, together with
+ * the validators needed to ask the remote server if the feed has changed since.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class SubscriptionFeed
+{
+    private final List<CalendarEvent> events;
+
+    private final String entityTag;
+
+    private final String lastModified;
+
+    private final long expansionTime;
+
+    private volatile long lastAccessTime;
+
+    /**
+     * @param events the events of the feed, with the recurrent events expanded
+     * @param entityTag the value of the {@code ETag} header returned with the feed, might be null
+     * @param lastModified the value of the {@code Last-Modified} header returned with the feed, might be null
+     * @param expansionTime the time when the recurrent events were expanded
+     */
+    public SubscriptionFeed(List<CalendarEvent> events, String entityTag, String lastModified, long expansionTime)
+    {
+        this.events = Collections.unmodifiableList(events);
+        this.entityTag = entityTag;
+        this.lastModified = lastModified;
+        this.expansionTime = expansionTime;
+        this.lastAccessTime = expansionTime;
+    }
+
+    /**
+     * @return the events of the feed, with the recurrent events expanded
+     */
+    public List<CalendarEvent> getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * @return the value of the {@code ETag} header returned with the feed, might be null
+     */
+    public String getEntityTag()
+    {
+        return entityTag;
+    }
+
+    /**
+     * @return the value of the {@code Last-Modified} header returned with the feed, might be null
+     */
+    public String getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * @return the time when the recurrent events were expanded
+     */
+    public long getExpansionTime()
+    {
+        return expansionTime;
+    }
+
+    /**
+     * @return the last time the events of the feed were requested
+     */
+    public long getLastAccessTime()
+    {
+        return lastAccessTime;
+    }
+
+    /**
+     * @param lastAccessTime the last time the events of the feed were requested
+     */
+    public void setLastAccessTime(long lastAccessTime)
+    {
+        this.lastAccessTime = lastAccessTime;
+    }
+}
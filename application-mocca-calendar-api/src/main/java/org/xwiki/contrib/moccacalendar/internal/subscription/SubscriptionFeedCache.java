@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.subscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.fullcalendar.FullCalendarManager;
+import org.xwiki.fullcalendar.model.CalendarEvent;
+
+/**
+ * Keeps the events of the subscribed ical feeds in memory. Each feed is downloaded and parsed once, then refreshed in
+ * the background with conditional requests, so that displaying a calendar does not depend on the remote servers.
+ * Feeds which are not displayed any more are dropped from the cache.
+ * <p>
+ * A new feed is also downloaded in the background: it has no events until the download is done. A feed which cannot be
+ * downloaded keeps its previous events; if it has none yet, the download is retried a minute later, then with a
+ * doubling delay up to the refresh interval.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = SubscriptionFeedCache.class)
+@Singleton
+public class SubscriptionFeedCache implements Initializable, Disposable
+{
+    private static final String REFRESH_INTERVAL_PROPERTY = "moccacalendar.subscription.refreshInterval";
+
+    private static final String PAST_DAYS_PROPERTY = "moccacalendar.subscription.pastDays";
+
+    private static final String FUTURE_DAYS_PROPERTY = "moccacalendar.subscription.futureDays";
+
+    private static final int DEFAULT_REFRESH_INTERVAL = 30;
+
+    private static final long FIRST_RETRY_DELAY = 1;
+
+    private static final int DEFAULT_PAST_DAYS = 366;
+
+    private static final int DEFAULT_FUTURE_DAYS = 731;
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final int READ_TIMEOUT = 30000;
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final String WEBCAL_PREFIX = "webcal://";
+
+    @Inject
+    private FullCalendarManager fullCalendarManager;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, SubscriptionFeed> feeds = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private int pastDays;
+
+    private int futureDays;
+
+    private int refreshInterval;
+
+    @Override
+    public void initialize()
+    {
+        this.pastDays = this.configuration.getProperty(PAST_DAYS_PROPERTY, DEFAULT_PAST_DAYS);
+        this.futureDays = this.configuration.getProperty(FUTURE_DAYS_PROPERTY, DEFAULT_FUTURE_DAYS);
+        this.refreshInterval = this.configuration.getProperty(REFRESH_INTERVAL_PROPERTY, DEFAULT_REFRESH_INTERVAL);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("Mocca Calendar subscription refresh").daemon(true).build());
+        this.scheduler.scheduleWithFixedDelay(this::refresh, this.refreshInterval, this.refreshInterval,
+            TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * Return the events of the given feed. A feed which is not in the cache yet is downloaded in the background, so
+     * that the page displaying it does not wait for the remote server; it has no events until then.
+     *
+     * @param url the URL of the feed, as entered in the subscription
+     * @return the events of the feed, with the recurrent events expanded
+     */
+    public List<CalendarEvent> getEvents(String url)
+    {
+        String feedURL = normalizeURL(url);
+        SubscriptionFeed feed = this.feeds.get(feedURL);
+        if (feed == null) {
+            SubscriptionFeed pendingFeed = new SubscriptionFeed(Collections.emptyList(), null, null, 0);
+            pendingFeed.setLastAccessTime(System.currentTimeMillis());
+            feed = this.feeds.putIfAbsent(feedURL, pendingFeed);
+            if (feed == null) {
+                feed = pendingFeed;
+                this.scheduler.execute(() -> load(feedURL, pendingFeed, FIRST_RETRY_DELAY));
+            }
+        }
+        feed.setLastAccessTime(System.currentTimeMillis());
+        return feed.getEvents();
+    }
+
+    /**
+     * Download a feed which has no events yet, and retry later if it fails, as long as the feed is displayed and has
+     * not been downloaded by a refresh in the meantime.
+     */
+    private void load(String url, SubscriptionFeed pendingFeed, long retryDelay)
+    {
+        if (this.feeds.get(url) != pendingFeed) {
+            return;
+        }
+        try {
+            SubscriptionFeed feed = fetch(url, null);
+            feed.setLastAccessTime(pendingFeed.getLastAccessTime());
+            this.feeds.replace(url, pendingFeed, feed);
+        } catch (Exception e) {
+            logFailure(url, e);
+            long nextRetryDelay = Math.min(retryDelay * 2, this.refreshInterval);
+            this.scheduler.schedule(() -> load(url, pendingFeed, nextRetryDelay), retryDelay, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Download again the feeds used recently, if they have changed, and drop the feeds which have not been used since
+     * the last day.
+     */
+    void refresh()
+    {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, SubscriptionFeed> entry : this.feeds.entrySet()) {
+            SubscriptionFeed feed = entry.getValue();
+            if (now - feed.getLastAccessTime() > DAY) {
+                this.feeds.remove(entry.getKey(), feed);
+            } else {
+                SubscriptionFeed refreshedFeed = fetchOrKeep(entry.getKey(), feed);
+                refreshedFeed.setLastAccessTime(feed.getLastAccessTime());
+                this.feeds.replace(entry.getKey(), feed, refreshedFeed);
+            }
+        }
+    }
+
+    private SubscriptionFeed fetchOrKeep(String url, SubscriptionFeed previousFeed)
+    {
+        try {
+            return fetch(url, previousFeed);
+        } catch (Exception e) {
+            logFailure(url, e);
+            // keep the events downloaded before, if any
+            return previousFeed;
+        }
+    }
+
+    private void logFailure(String url, Exception e)
+    {
+        this.logger.warn("Failed to download the subscribed calendar [{}]. Root cause is: [{}]", url, e.getMessage());
+        this.logger.debug("Full stack trace: ", e);
+    }
+
+    private SubscriptionFeed fetch(String url, SubscriptionFeed previousFeed) throws Exception
+    {
+        long now = System.currentTimeMillis();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        // The expansion window moves with time, so the feed is expanded again at least once a day even if the remote
+        // server reports it as unchanged.
+        boolean conditional = previousFeed != null && now - previousFeed.getExpansionTime() < DAY;
+        if (conditional && previousFeed.getEntityTag() != null) {
+            connection.setRequestProperty("If-None-Match", previousFeed.getEntityTag());
+        }
+        if (conditional && previousFeed.getLastModified() != null) {
+            connection.setRequestProperty("If-Modified-Since", previousFeed.getLastModified());
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            if (conditional && status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return previousFeed;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Unexpected response status [%d]", status));
+            }
+
+            byte[] content;
+            try (InputStream inputStream = connection.getInputStream()) {
+                content = IOUtils.toByteArray(inputStream);
+            }
+            Date windowStart = new Date(now - this.pastDays * DAY);
+            Date windowEnd = new Date(now + this.futureDays * DAY);
+            List<CalendarEvent> events =
+                this.fullCalendarManager.getICalEventsFromFile(content, windowStart, windowEnd, false);
+            return new SubscriptionFeed(events, connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"), now);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String normalizeURL(String url)
+    {
+        String feedURL = StringUtils.strip(url);
+        if (StringUtils.startsWithIgnoreCase(feedURL, WEBCAL_PREFIX)) {
+            feedURL = "https://" + feedURL.substring(WEBCAL_PREFIX.length());
+        }
+        return feedURL;
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.moccacalendar.internal.utils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,16 +31,21 @@ import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.moccacalendar.internal.index.EventIndexStore;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryFilter;
 import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.stability.Unstable;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 
 /**
  * Fetch documents according to some criteria from the database.
@@ -78,6 +85,13 @@ public class DefaultEventAssembly
     @Named("viewable")
     private QueryFilter viewableFilter;
 
+    @Inject
+    private EventIndexStore eventIndexStore;
+
+    @Inject
+    @Named("user")
+    private ConfigurationSource userPreferences;
+
     @Inject
     private Logger logger;
 
@@ -93,6 +107,10 @@ public class DefaultEventAssembly
      */
     public List<DocumentReference> executeQuery(EventQuery query) throws QueryException
     {
+        if (query.isIndexed()) {
+            return executeIndexedQuery(query);
+        }
+
         StringBuilder hql = new StringBuilder();
         hql.append(query.selectClause).append(' ').append(query.whereClause).append(' ').append(query.orderClause);
         Query hqlQuery = queryManager.createQuery(hql.toString(), Query.HQL);
@@ -108,4 +126,40 @@ public class DefaultEventAssembly
         logger.debug("sending query [{}] and params [{}]", hqlQuery.getStatement(), query.queryParams);
         return hqlQuery.execute();
     }
+
+    /**
+     * Run a query on the event table and apply the same filters as for the other queries.
+     */
+    private List<DocumentReference> executeIndexedQuery(EventQuery query) throws QueryException
+    {
+        StringBuilder hql = new StringBuilder();
+        hql.append(query.selectClause).append(' ').append(query.whereClause);
+        // same as the "hidden" query filter
+        if (userPreferences.getProperty("displayHiddenDocuments", 0) != 1) {
+            hql.append(" and ev.hidden = 0");
+        }
+        hql.append(' ').append(query.orderClause);
+
+        XWikiContext xcontext = xcontextProvider.get();
+        String wikiId = query.getWikiId() != null ? query.getWikiId() : xcontext.getWikiId();
+        Map<String, Object> queryParams = new HashMap<>(query.queryParams);
+        queryParams.put("wiki", wikiId);
+
+        logger.debug("sending event table query [{}] and params [{}]", hql, queryParams);
+        List<String> documentNames;
+        try {
+            documentNames = eventIndexStore.query(wikiId, hql.toString(), queryParams);
+        } catch (XWikiException e) {
+            throw new QueryException("Failed to query the calendar event table", null, e);
+        }
+
+        List<DocumentReference> visibleEvents = new ArrayList<>(documentNames.size());
+        for (String documentName : documentNames) {
+            DocumentReference eventDocRef = stringDocRefResolver.resolve(documentName, new WikiReference(wikiId));
+            if (authorizationManager.hasAccess(Right.VIEW, xcontext.getUserReference(), eventDocRef)) {
+                visibleEvents.add(eventDocRef);
+            }
+        }
+        return visibleEvents;
+    }
 }
@@ -30,6 +30,7 @@ import org.slf4j.LoggerFactory;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.contrib.moccacalendar.internal.index.EventIndexDatabase;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.stability.Unstable;
@@ -56,6 +57,11 @@ public class EventQuery
         + " and obj.id=enddate.id.id and enddate.id.name='%s'" + " and doc.fullName=obj.name and doc.fullName!='%s'"
         + " and obj.className='%s'";
 
+    private static final String INDEX_SELECT_CLAUSE = "select ev.document from " + EventIndexDatabase.EVENT_ENTITY
+        + " ev";
+
+    private static final String INDEX_WHERE_CLAUSE = "where ev.wiki = :wiki and ev.document <> :template";
+
     private static final String FILTER_WIKI = "wiki";
     private static final String FILTER_SPACE = "space";
     private static final String FILTER_PAGE = "page";
@@ -70,6 +76,8 @@ public class EventQuery
 
     private Logger logger;
 
+    private boolean indexed;
+
     protected StringBuilder selectClause = new StringBuilder();
     protected StringBuilder whereClause = new StringBuilder();
     protected StringBuilder orderClause = new StringBuilder();
@@ -110,6 +118,36 @@ public class EventQuery
             .append(String.format(BASE_WHERE_CLAUSE_FORMAT, startDateName, endDateName, templatePageName, className));
     }
 
+    /**
+     * Query the denormalized event table instead of the event objects. This must be called before adding any
+     * criteria, and only works for calendar events; in this mode the query targets the event table alone, with the
+     * {@code wiki} parameter left to the caller, and {@link #addObjectProperty(String, String)} cannot be used.
+     *
+     * @return this query
+     * @since 2.20
+     * @see org.xwiki.contrib.moccacalendar.internal.index.EventIndexStore
+     */
+    public EventQuery useEventIndex()
+    {
+        indexed = true;
+        selectClause.setLength(0);
+        whereClause.setLength(0);
+        queryParams.clear();
+        selectClause.append(INDEX_SELECT_CLAUSE);
+        whereClause.append(INDEX_WHERE_CLAUSE);
+        queryParams.put("template", templatePageName);
+        return this;
+    }
+
+    /**
+     * @return {@code true} if this query targets the denormalized event table
+     * @since 2.20
+     */
+    public boolean isIndexed()
+    {
+        return indexed;
+    }
+
     public EventQuery addSelect(String wherePart)
     {
         selectClause.append(wherePart);
@@ -118,6 +156,9 @@ public class EventQuery
 
     public EventQuery addObjectProperty(String propertyType, String propertyName)
     {
+        if (indexed) {
+            throw new IllegalStateException("object properties cannot be queried in the event table");
+        }
         addSelect(String.format(", %s as %s", propertyType, propertyName));
         addCondition(
             String.format(" and obj.id = %s.id.id and %s.id.name = '%s'", propertyName, propertyName, propertyName));
@@ -141,8 +182,35 @@ public class EventQuery
     // special clause creations:
     //
 
+    /**
+     * Only search recurrent or only single events.
+     *
+     * @param recurrent {@code true} to search recurrent events, {@code false} for single events
+     * @return this query
+     * @since 2.20
+     */
+    public EventQuery addRecurrentCondition(boolean recurrent)
+    {
+        if (indexed) {
+            whereClause.append(" and ev.recurrent = :recurrent");
+            queryParams.put("recurrent", recurrent ? 1 : 0);
+        } else {
+            addObjectProperty("IntegerProperty", "recurrent")
+                .addCondition(String.format(" and recurrent.value = %d ", recurrent ? 1 : 0));
+        }
+        return this;
+    }
+
     public EventQuery addDateLimits(Date dateFrom, Date dateTo)
     {
+        if (indexed) {
+            // same day based limits as below, but as a range on the stored milliseconds
+            whereClause.append(" and (ev.endDate >= :start or ev.startDate >= :start) and ev.startDate < :end");
+            queryParams.put("start", startOfDay(dateFrom, 0));
+            queryParams.put("end", startOfDay(dateTo, 1));
+            return this;
+        }
+
         // start date / lower limit check: find all events which are not finished before the start date
         // for this, confusingly, one need to compare the end date of the event with the start date for the range
         // as a complication: to find events without end date, use the start date for them
@@ -171,6 +239,11 @@ public class EventQuery
             EntityReferenceSerializer<String> compactWikiSerializer = Utils.getComponentManager()
                 .getInstance(stringSerializerType, "compact");
 
+            if (indexed) {
+                addIndexedLocationFilter(filter, parentReference);
+                return this;
+            }
+
             switch (filter) {
             case FILTER_PAGE:
                 selectClause.append(", XWikiSpace space");
@@ -195,9 +268,33 @@ public class EventQuery
         return this;
     }
 
+    private void addIndexedLocationFilter(String filter, DocumentReference parentReference)
+        throws ComponentLookupException
+    {
+        @SuppressWarnings("deprecation")
+        EntityReferenceSerializer<String> localSerializer = Utils.getComponentManager()
+            .getInstance(new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class), "local");
+        switch (filter) {
+        case FILTER_PAGE:
+            whereClause.append(" and ev.parentSpace = :space");
+            queryParams.put("space", localSerializer.serialize(parentReference.getLastSpaceReference()));
+            break;
+        case FILTER_SPACE:
+            whereClause.append(" and ev.space like :space escape '!'");
+            String spaceRefStr = localSerializer.serialize(parentReference.getLastSpaceReference());
+            queryParams.put("space", spaceRefStr.replaceAll("([%_!])", "!$1").concat(".%"));
+            break;
+        case FILTER_WIKI:
+        default:
+            // get events from the complete wiki: no filter to be added
+            break;
+        }
+    }
+
     public EventQuery setAscending(boolean direction)
     {
-        orderClause.append("ORDER BY startdate.value ").append(direction ? "ASC" : "DESC");
+        orderClause.append(indexed ? "ORDER BY ev.startDate " : "ORDER BY startdate.value ")
+            .append(direction ? "ASC" : "DESC");
         return this;
     }
 
@@ -223,6 +320,18 @@ public class EventQuery
         whereClause.append(')');
     }
 
+    private long startOfDay(Date date, int dayOffset)
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.DAY_OF_MONTH, dayOffset);
+        return cal.getTimeInMillis();
+    }
+
     protected void appendDateParameters(String prefix, Date date)
     {
         Calendar cal = Calendar.getInstance();
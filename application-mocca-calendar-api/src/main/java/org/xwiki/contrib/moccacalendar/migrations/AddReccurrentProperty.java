@@ -19,7 +19,10 @@
  */
 package org.xwiki.contrib.moccacalendar.migrations;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -39,6 +42,8 @@ import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.event.ExtensionEvent;
 import org.xwiki.extension.event.ExtensionInstalledEvent;
 import org.xwiki.extension.event.ExtensionUpgradedEvent;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.observation.EventListener;
@@ -94,6 +99,17 @@ public class AddReccurrentProperty implements EventListener
     private static final List<Event> EVENTS_STARTUP = Arrays.asList(new ApplicationReadyEvent(),
         new WikiReadyEvent(), new ExtensionUpgradedEvent(), new DocumentDeletedEvent(OLD_MACRO_LOCATION));
 
+    /**
+     * The name under which the completion of this migration is remembered in each wiki.
+     */
+    private static final String MIGRATION_NAME = "recurrent";
+
+    /**
+     * The version of the event data produced by this migration; increase it when the migration has to run again on
+     * wikis where it has already been completed.
+     */
+    private static final int MIGRATION_VERSION = 1;
+
     @Inject
     private WikiDescriptorManager wikiManager;
 
@@ -120,6 +136,12 @@ public class AddReccurrentProperty implements EventListener
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private MigrationStateStore migrationStateStore;
+
     @Inject
     private Logger logger;
 
@@ -201,10 +223,7 @@ public class AddReccurrentProperty implements EventListener
      */
     public long countAllEvents() throws QueryException
     {
-        Query query = allEventsQuery();
-        query.addFilter(uniqueResults).addFilter(countFilter);
-        long result = (Long) query.execute().get(0);
-        return result;
+        return countEvents(allEventsQuery());
     }
 
     /**
@@ -214,12 +233,58 @@ public class AddReccurrentProperty implements EventListener
      */
     public long countMigratedEvents() throws QueryException
     {
-        Query query = allMigratedEventsQuery();
+        return countEvents(allMigratedEventsQuery());
+    }
+
+    private long countEvents(Query query) throws QueryException
+    {
         query.addFilter(uniqueResults).addFilter(countFilter);
         long result = (Long) query.execute().get(0);
         return result;
     }
 
+    /**
+     * Check if the events of the given wiki still have to be migrated. Once the migration has been completed in a
+     * wiki, this is remembered so that no event has to be counted again.
+     *
+     * @param wikiId the wiki to check
+     * @return {@code true} if some events of the wiki might miss the recurrent property
+     * @since 2.20
+     */
+    public boolean needsMigration(String wikiId)
+    {
+        try {
+            if (migrationStateStore.isCompleted(wikiId, MIGRATION_NAME, MIGRATION_VERSION)) {
+                return false;
+            }
+            // the wiki might have been migrated before its completion was remembered
+            Query allEvents = allEventsQuery().setWiki(wikiId);
+            Query migratedEvents = allMigratedEventsQuery().setWiki(wikiId);
+            if (countEvents(allEvents) == countEvents(migratedEvents)) {
+                markMigrated(wikiId);
+                return false;
+            }
+        } catch (QueryException | XWikiException e) {
+            logger.warn("could not check if the events of wiki [{}] are migrated; migrate them again", wikiId, e);
+        }
+        return true;
+    }
+
+    /**
+     * Remember that the events of the given wiki have been migrated.
+     *
+     * @param wikiId the migrated wiki
+     * @since 2.20
+     */
+    public void markMigrated(String wikiId)
+    {
+        try {
+            migrationStateStore.setCompleted(wikiId, MIGRATION_NAME, MIGRATION_VERSION);
+        } catch (XWikiException e) {
+            logger.warn("could not remember that the events of wiki [{}] are migrated", wikiId, e);
+        }
+    }
+
     /**
      * Migrate a number of events as given by the parameters.
      * Actually first loads each event and checks if it already has
@@ -235,7 +300,36 @@ public class AddReccurrentProperty implements EventListener
         Query query = allEventsQuery();
         query.setOffset(offset).setLimit(limit);
 
-        return addRecurrentPropertyToEvents(query, null, false);
+        return addRecurrentPropertyToEvents(query);
+    }
+
+    /**
+     * Migrate a number of events of the given wiki.
+     *
+     * @param wikiId the wiki whose events are migrated
+     * @param offset the number of events to skip, in the order of their creation
+     * @param limit the maximal number of events
+     * @return the number of events checked
+     * @throws QueryException if fetching the events failed
+     * @throws XWikiException if migration on of the events failed
+     * @since 2.20
+     */
+    public int addRecurrentPropertyToEvents(String wikiId, int offset, int limit)
+        throws QueryException, XWikiException
+    {
+        final XWikiContext xcontext = this.xcontextProvider.get();
+        final String currentWikiId = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiId);
+
+            // we cannot query for events with a missing property;
+            // so instead we have to query all events and check each of them
+            Query query = allEventsQuery();
+            query.setOffset(offset).setLimit(limit);
+            return addRecurrentPropertyToEvents(query);
+        } finally {
+            xcontext.setWikiId(currentWikiId);
+        }
     }
 
     private void addRecurrentPropertyToEvents(ExtensionEvent xie)
@@ -246,9 +340,7 @@ public class AddReccurrentProperty implements EventListener
             if (namespace == null || "".equals(namespace)) {
                 // upgrade on all wikis
                 try {
-                    for (String wikiId : wikiManager.getAllIds()) {
-                        addRecurrentPropertyToEvents(wikiId);
-                    }
+                    startMigration(wikiManager.getAllIds(), true);
                 } catch (WikiManagerException e) {
                     logger.error("failed to migrate events", e);
                 }
@@ -264,34 +356,43 @@ public class AddReccurrentProperty implements EventListener
 
     private void addRecurrentPropertyToEvents(String wikiId)
     {
-        final XWikiContext xcontext = this.xcontextProvider.get();
-        final String currentWikiId = xcontext.getWikiId();
-
-        try {
-            logger.info("migrate existing calendar events for wiki [{}]", wikiId);
-
-            try {
-                xcontext.setWikiId(wikiId);
+        startMigration(Collections.singletonList(wikiId), false);
+    }
 
-                // we cannot query for events with a missing property;
-                // so instead we have to query all events and check each of them
-                Query query = allEventsQuery();
-                addRecurrentPropertyToEvents(query, wikiId, true);
-            } finally {
-                xcontext.setWikiId(currentWikiId);
+    /**
+     * Migrate the events in a background job, so that the extension upgrade or the startup of the wiki do not wait
+     * for the migration of all the events.
+     */
+    private void startMigration(Collection<String> allWikiIds, boolean allWikis)
+    {
+        List<String> wikiIds = new ArrayList<>(allWikiIds.size());
+        for (String wikiId : allWikiIds) {
+            if (needsMigration(wikiId)) {
+                wikiIds.add(wikiId);
+            } else {
+                logger.debug("calendar events of wiki [{}] are already migrated", wikiId);
             }
-        } catch (Exception e) {
-            this.logger.error("Error while migrating calendar events in wiki [{}].", wikiId, e);
+        }
+        if (wikiIds.isEmpty()) {
+            return;
+        }
+
+        logger.info("migrate existing calendar events for wikis [{}]", wikiIds);
+        RecurrentPropertyMigrationRequest request =
+            new RecurrentPropertyMigrationRequest(wikiIds, allWikis);
+        // continue the migration interrupted by a restart, if any
+        request.setResume(true);
+        try {
+            jobExecutor.execute(RecurrentPropertyMigrationJob.JOB_TYPE, request);
+        } catch (JobException e) {
+            this.logger.error("Error while migrating calendar events in wikis [{}].", wikiIds, e);
         }
     }
 
-    private int addRecurrentPropertyToEvents(final Query eventQuery, final String wikiIdOrNull,
-        final boolean logProgress) throws QueryException, XWikiException
+    private int addRecurrentPropertyToEvents(final Query eventQuery) throws QueryException, XWikiException
     {
         final XWikiContext xcontext = this.xcontextProvider.get();
-        final String wikiId = (wikiIdOrNull == null) ? xcontext.getWikiId() : wikiIdOrNull;
         final List<String> results = eventQuery.execute();
-        final int step = Math.max(results.size() / 100 * 10, 10);
         int counter = 0;
 
         try {
@@ -299,12 +400,6 @@ public class AddReccurrentProperty implements EventListener
             for (String docName : results) {
                 addRecurrentPropertyToDocument(xcontext, docName);
                 counter++;
-                if (logProgress && counter % step == 0) {
-                    logger.info("migrated {} events on wiki [{}]", counter, wikiId);
-                }
-            }
-            if (logProgress) {
-                logger.info("migrated all events on wiki [{}]", wikiId);
             }
         } finally {
             observationManager.notify(new FinishMigrationEvent(), null);
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.migrations;
+
+import java.util.Arrays;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * The class of the objects remembering which data migrations have been completed in a wiki.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component
+@Named(MigrationStateClassInitializer.CLASS_NAME)
+@Singleton
+public class MigrationStateClassInitializer extends AbstractMandatoryClassInitializer
+{
+    /** The name of the class. */
+    public static final String CLASS_NAME = "MoccaCalendar.Code.MigrationStateClass";
+
+    /** The reference of the class. */
+    public static final LocalDocumentReference CLASS_REFERENCE =
+        new LocalDocumentReference(Arrays.asList("MoccaCalendar", "Code"), "MigrationStateClass");
+
+    /** The name of the field holding the name of the migration. */
+    public static final String MIGRATION_FIELD = "migration";
+
+    /** The name of the field holding the version of the data produced by the migration. */
+    public static final String VERSION_FIELD = "version";
+
+    /** The name of the field telling if the migration has been completed. */
+    public static final String COMPLETED_FIELD = "completed";
+
+    /**
+     * Default constructor.
+     */
+    public MigrationStateClassInitializer()
+    {
+        super(CLASS_REFERENCE);
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addTextField(MIGRATION_FIELD, "Migration", 30);
+        xclass.addNumberField(VERSION_FIELD, "Version", 5, "integer");
+        xclass.addBooleanField(COMPLETED_FIELD, "Completed", "yesno");
+    }
+
+    /**
+     * We do not need a document sheet for this class.
+     */
+    protected boolean updateDocumentSheet(XWikiDocument document)
+    {
+        return false;
+    }
+}
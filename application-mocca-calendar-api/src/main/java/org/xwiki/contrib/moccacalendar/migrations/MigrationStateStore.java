@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.migrations;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Remembers in each wiki which data migrations have been completed, so that they are not checked again on each
+ * startup. The state is stored in the {@code MoccaCalendar.Code.MigrationState} document of the wiki.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = MigrationStateStore.class)
+@Singleton
+public class MigrationStateStore
+{
+    private static final String STATE_DOCUMENT_NAME = "MigrationState";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * @param wikiId the wiki
+     * @param migration the name of the migration
+     * @param version the version of the data produced by the current migration
+     * @return {@code true} if the migration has been completed in the given wiki, for the given version
+     * @throws XWikiException if the migration state cannot be loaded
+     */
+    public boolean isCompleted(String wikiId, String migration, int version) throws XWikiException
+    {
+        BaseObject state = getState(getStateDocument(wikiId), migration);
+        return state != null && state.getIntValue(MigrationStateClassInitializer.COMPLETED_FIELD) == 1
+            && state.getIntValue(MigrationStateClassInitializer.VERSION_FIELD) >= version;
+    }
+
+    /**
+     * Remember that the given migration has been completed in the given wiki.
+     *
+     * @param wikiId the wiki
+     * @param migration the name of the migration
+     * @param version the version of the data produced by the migration
+     * @throws XWikiException if the migration state cannot be saved
+     */
+    public void setCompleted(String wikiId, String migration, int version) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        XWikiDocument stateDoc = getStateDocument(wikiId).clone();
+        BaseObject state = getState(stateDoc, migration);
+        if (state == null) {
+            state = stateDoc.newXObject(MigrationStateClassInitializer.CLASS_REFERENCE, xcontext);
+            state.setStringValue(MigrationStateClassInitializer.MIGRATION_FIELD, migration);
+        }
+        state.setIntValue(MigrationStateClassInitializer.VERSION_FIELD, version);
+        state.setIntValue(MigrationStateClassInitializer.COMPLETED_FIELD, 1);
+        stateDoc.setHidden(true);
+        xcontext.getWiki().saveDocument(stateDoc, String.format("Completed migration [%s]", migration), true,
+            xcontext);
+    }
+
+    private XWikiDocument getStateDocument(String wikiId) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        DocumentReference stateDocRef = new DocumentReference(STATE_DOCUMENT_NAME,
+            new SpaceReference(wikiId, Arrays.asList("MoccaCalendar", "Code")));
+        return xcontext.getWiki().getDocument(stateDocRef, xcontext);
+    }
+
+    private BaseObject getState(XWikiDocument stateDoc, String migration)
+    {
+        return stateDoc.getXObject(MigrationStateClassInitializer.CLASS_REFERENCE,
+            MigrationStateClassInitializer.MIGRATION_FIELD, migration, false);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.migrations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.LocaleUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.contrib.moccacalendar.internal.index.EventIndexStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+/**
+ * Adds the recurrent property to the events directly in the database, without loading and saving each event
+ * document. The properties are saved as mapped entities, so they end up in the tables configured for Hibernate. This
+ * creates no new revision of the events and triggers no listener, so the migrated documents are removed from the
+ * document cache, in all their locales, and updated in the event table afterwards. The other members of a cluster are
+ * not notified, so the job does not use this migrator when the remote observation is enabled.
+ * <p>
+ * Only the events without any recurrent property are migrated this way; events with an empty value are left to
+ * {@link AddReccurrentProperty}.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component(roles = RecurrentPropertyBulkMigrator.class)
+@Singleton
+public class RecurrentPropertyBulkMigrator
+{
+    private static final String UNMIGRATED_EVENTS_QUERY = "select obj.id, obj.name from BaseObject obj "
+        + "where obj.className = :className and not exists (select prop.id.id from BaseProperty prop "
+        + "where prop.id.id = obj.id and prop.id.name = :propertyName) order by obj.id";
+
+    private static final String DOCUMENT_LOCALES_QUERY = "select doc.fullName, doc.language from XWikiDocument doc "
+        + "where doc.fullName in (:documentNames)";
+
+    private static final String PROPERTY_NAME = "propertyName";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private EventIndexStore eventIndexStore;
+
+    /**
+     * Add the recurrent property to a batch of events of the given wiki.
+     *
+     * @param wikiId the wiki whose events are migrated
+     * @param batchSize the maximal number of event objects migrated at once
+     * @return the number of event objects migrated; if lower than the batch size, no event is left to migrate
+     * @throws XWikiException if the database could not be updated
+     */
+    public int migrateBatch(String wikiId, int batchSize) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWikiId = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiId);
+
+            List<Long> objectIds = new ArrayList<>(batchSize);
+            List<String> migratedDocuments = new ArrayList<>(batchSize);
+            List<Object[]> migratedTranslations = new ArrayList<>(batchSize);
+            int migratedCount = xcontext.getWiki().getHibernateStore().executeWrite(xcontext, session -> {
+                List<Object[]> events = session.createQuery(UNMIGRATED_EVENTS_QUERY, Object[].class)
+                    .setParameter("className", EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME)
+                    .setParameter(PROPERTY_NAME, EventConstants.PROPERTY_RECURRENT_NAME)
+                    .setMaxResults(batchSize)
+                    .list();
+                if (events.isEmpty()) {
+                    return 0;
+                }
+
+                for (Object[] event : events) {
+                    objectIds.add((Long) event[0]);
+                    migratedDocuments.add((String) event[1]);
+                    IntegerProperty recurrent = new IntegerProperty();
+                    recurrent.setId((Long) event[0]);
+                    recurrent.setName(EventConstants.PROPERTY_RECURRENT_NAME);
+                    recurrent.setValue(0);
+                    session.save(recurrent);
+                }
+                // the cache holds each translation of the documents separately
+                migratedTranslations.addAll(session.createQuery(DOCUMENT_LOCALES_QUERY, Object[].class)
+                    .setParameterList("documentNames", migratedDocuments)
+                    .list());
+                return objectIds.size();
+            });
+
+            invalidateDocuments(xcontext, migratedTranslations);
+            this.eventIndexStore.updateMigratedEvents(wikiId, objectIds);
+            return migratedCount;
+        } finally {
+            xcontext.setWikiId(currentWikiId);
+        }
+    }
+
+    private void invalidateDocuments(XWikiContext xcontext, List<Object[]> translations)
+    {
+        XWikiStoreInterface store = xcontext.getWiki().getStore();
+        if (store instanceof XWikiCacheStore) {
+            XWikiCacheStore cacheStore = (XWikiCacheStore) store;
+            for (Object[] translation : translations) {
+                Locale locale = LocaleUtils.toLocale(StringUtils.defaultString((String) translation[1]));
+                DocumentReference documentReference =
+                    new DocumentReference(this.documentReferenceResolver.resolve((String) translation[0]), locale);
+                String key = cacheStore.getKey(new XWikiDocument(documentReference), xcontext);
+                cacheStore.getCache().remove(key);
+            }
+        }
+    }
+}
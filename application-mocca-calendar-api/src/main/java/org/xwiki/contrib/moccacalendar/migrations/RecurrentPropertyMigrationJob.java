@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.migrations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.JobStatusStore;
+import org.xwiki.job.event.status.JobStatus;
+
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Adds the recurrent property to the events of one or several wikis. The events of each wiki are checked in chunks,
+ * several wikis are migrated at the same time, and the progress is stored after each chunk so that a migration
+ * interrupted by a restart can be resumed.
+ * <p>
+ * Unless {@code moccacalendar.migration.bulk} is set to {@code false}, the missing properties are first added directly
+ * in the database, and the events are only checked one by one if some of them could not be migrated this way. This is
+ * not done when {@code observation.remote.enabled} is set, since the other members of the cluster would keep the
+ * documents in their cache. Several XWiki instances sharing a database without the remote observation are not
+ * detected: {@code moccacalendar.migration.bulk} must be set to {@code false} on them, or the other instances must be
+ * restarted after the migration.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Component
+@Named(RecurrentPropertyMigrationJob.JOB_TYPE)
+public class RecurrentPropertyMigrationJob
+    extends AbstractJob<RecurrentPropertyMigrationRequest, RecurrentPropertyMigrationStatus>
+{
+    /**
+     * Mocca calendar recurrent property migration job type.
+     */
+    public static final String JOB_TYPE = "moccacalendar.migration.recurrent";
+
+    private static final String CHUNK_SIZE_PROPERTY = "moccacalendar.migration.chunkSize";
+
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final String THREADS_PROPERTY = "moccacalendar.migration.threads";
+
+    private static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Must be set to {@code false} when several instances share the database without the remote observation, since
+     * the bulk migration only clears the document cache of the instance running it.
+     */
+    private static final String BULK_PROPERTY = "moccacalendar.migration.bulk";
+
+    private static final String REMOTE_OBSERVATION_PROPERTY = "observation.remote.enabled";
+
+    @Inject
+    @Named("org.xwiki.contrib.moccacalendar.migrations.AddReccurrentProperty")
+    private AddReccurrentProperty recurrentMigrator;
+
+    @Inject
+    private RecurrentPropertyBulkMigrator bulkMigrator;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private JobStatusStore jobStatusStore;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    protected RecurrentPropertyMigrationStatus createNewStatus(RecurrentPropertyMigrationRequest request)
+    {
+        return new RecurrentPropertyMigrationStatus(JOB_TYPE, request, observationManager, loggerManager);
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        if (request.isResume()) {
+            resumeFromCheckpoint();
+        }
+
+        List<String> wikis = request.getWikis();
+        int chunkSize = Math.max(this.configuration.getProperty(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE), 1);
+        int threadCount = Math.max(this.configuration.getProperty(THREADS_PROPERTY, DEFAULT_THREADS), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, Math.max(wikis.size(), 1)),
+            new BasicThreadFactory.Builder().namingPattern("Mocca Calendar migration worker %d").daemon(true).build());
+
+        this.progressManager.pushLevelProgress(wikis.size(), this);
+        try {
+            List<Future<?>> migrations = new ArrayList<>(wikis.size());
+            for (String wiki : wikis) {
+                migrations.add(executor.submit(new AbstractXWikiRunnable()
+                {
+                    @Override
+                    protected void runInternal()
+                    {
+                        migrateWiki(wiki, chunkSize);
+                    }
+                }));
+            }
+            // The progress can only be reported by the job thread, so it moves each time a wiki is done.
+            for (int i = 0; i < wikis.size(); i++) {
+                this.progressManager.startStep(this);
+                waitForMigration(wikis.get(i), migrations.get(i));
+                this.progressManager.endStep(this);
+            }
+        } finally {
+            executor.shutdownNow();
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    private void waitForMigration(String wiki, Future<?> migration) throws InterruptedException
+    {
+        try {
+            migration.get();
+            logger.info("Checked [{}] events on wiki [{}].", status.getCheckedEventCount(wiki), wiki);
+        } catch (ExecutionException e) {
+            logger.error("Error while migrating calendar events in wiki [{}].", wiki, e.getCause());
+        }
+    }
+
+    private void migrateWiki(String wiki, int chunkSize)
+    {
+        if (this.configuration.getProperty(BULK_PROPERTY, true)
+            && !this.configuration.getProperty(REMOTE_OBSERVATION_PROPERTY, false)) {
+            migrateWikiInBulk(wiki, chunkSize);
+            if (status.isCanceled() || !this.recurrentMigrator.needsMigration(wiki)) {
+                return;
+            }
+            logger.info("Some calendar events of wiki [{}] could not be migrated in bulk, checking them one by one.",
+                wiki);
+        }
+
+        int offset = status.getCheckedEventCount(wiki);
+        int checkedEventCount = chunkSize;
+        while (checkedEventCount == chunkSize && !status.isCanceled()) {
+            try {
+                checkedEventCount = this.recurrentMigrator.addRecurrentPropertyToEvents(wiki, offset, chunkSize);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            offset += checkedEventCount;
+            status.setCheckedEventCount(wiki, offset);
+            storeCheckpoint();
+        }
+        if (!status.isCanceled()) {
+            this.recurrentMigrator.markMigrated(wiki);
+        }
+    }
+
+    /**
+     * Add the missing properties directly in the database, which is much faster than saving each event but is not
+     * able to fix the events having an empty value.
+     */
+    private void migrateWikiInBulk(String wiki, int chunkSize)
+    {
+        int migratedEventCount = chunkSize;
+        while (migratedEventCount == chunkSize && !status.isCanceled()) {
+            try {
+                migratedEventCount = this.bulkMigrator.migrateBatch(wiki, chunkSize);
+            } catch (Exception e) {
+                logger.warn("Failed to migrate the calendar events of wiki [{}] in bulk. Root cause is: [{}]", wiki,
+                    e.getMessage());
+                logger.debug("Full stack trace: ", e);
+                return;
+            }
+        }
+    }
+
+    private void resumeFromCheckpoint()
+    {
+        JobStatus previousStatus = this.jobStatusStore.getJobStatus(request.getId());
+        // A finished migration is not resumed, since the events might have been imported again since.
+        if (previousStatus instanceof RecurrentPropertyMigrationStatus
+            && previousStatus.getState() != JobStatus.State.FINISHED) {
+            ((RecurrentPropertyMigrationStatus) previousStatus).getCheckedEventCounts()
+                .forEach(status::setCheckedEventCount);
+            logger.info("Resuming the previous migration of the calendar events.");
+        }
+    }
+
+    /**
+     * Remember the progress of the migration, so that it can be resumed. The other workers keep updating the status
+     * while it is serialized, so a copy of the counters is stored instead of the status itself.
+     */
+    private synchronized void storeCheckpoint()
+    {
+        RecurrentPropertyMigrationStatus checkpoint =
+            new RecurrentPropertyMigrationStatus(JOB_TYPE, request, observationManager, loggerManager);
+        status.getCheckedEventCounts().forEach(checkpoint::setCheckedEventCount);
+        this.jobStatusStore.store(checkpoint);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.migrations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+
+/**
+ * The request of the job adding the recurrent property to the events of one or several wikis.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class RecurrentPropertyMigrationRequest extends AbstractRequest
+{
+    private final List<String> wikis;
+
+    private boolean resume;
+
+    /**
+     * @param wikis the wikis whose events are migrated
+     * @param allWikis {@code true} if the given wikis are all the wikis of the farm
+     */
+    public RecurrentPropertyMigrationRequest(List<String> wikis, boolean allWikis)
+    {
+        this.wikis = new ArrayList<>(wikis);
+        List<String> id = new ArrayList<>(Arrays.asList("moccacalendar", "migration", "recurrent"));
+        id.add(allWikis ? "all" : String.join(",", wikis));
+        setId(id);
+    }
+
+    /**
+     * @return the wikis whose events are migrated
+     */
+    public List<String> getWikis()
+    {
+        return wikis;
+    }
+
+    /**
+     * Whether the job should skip the events checked by the previous job with the same ID, e.g. when the previous
+     * migration has been interrupted by a restart.
+     *
+     * @return {@code true} to resume the previous migration
+     */
+    public boolean isResume()
+    {
+        return resume;
+    }
+
+    /**
+     * @param resume {@code true} to resume the previous migration, see {@link #isResume()}
+     */
+    public void setResume(boolean resume)
+    {
+        this.resume = resume;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.migrations;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+
+/**
+ * The status of the job adding the recurrent property to the events, holding the number of events checked in each
+ * wiki so that an interrupted migration can be resumed.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+public class RecurrentPropertyMigrationStatus extends DefaultJobStatus<RecurrentPropertyMigrationRequest>
+{
+    private final Map<String, Integer> checkedEventCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param jobType the job type
+     * @param request the request provided when the job was started
+     * @param observationManager the observation manager
+     * @param loggerManager the logger manager
+     */
+    public RecurrentPropertyMigrationStatus(String jobType, RecurrentPropertyMigrationRequest request,
+        ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(jobType, request, null, observationManager, loggerManager);
+        setCancelable(true);
+    }
+
+    /**
+     * @param wiki a wiki migrated by the job
+     * @return the number of events of the wiki checked so far, in the order of their creation
+     */
+    public int getCheckedEventCount(String wiki)
+    {
+        return checkedEventCounts.getOrDefault(wiki, 0);
+    }
+
+    /**
+     * @param wiki a wiki migrated by the job
+     * @param checkedEventCount the number of events of the wiki checked so far
+     */
+    public void setCheckedEventCount(String wiki, int checkedEventCount)
+    {
+        checkedEventCounts.put(wiki, checkedEventCount);
+    }
+
+    /**
+     * @return the number of events checked so far, by wiki
+     */
+    public Map<String, Integer> getCheckedEventCounts()
+    {
+        return Collections.unmodifiableMap(checkedEventCounts);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.moveJob;
+
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The request of the job moving all the events of a calendar to another calendar.
+ *
+ * @version $Id$
+ * @since 2.20
+ */
+@Unstable
+public class CalendarMoveJobRequest extends AbstractRequest
+{
+    private DocumentReference sourceCalendar;
+
+    private DocumentReference targetCalendar;
+
+    private DocumentReference userReference;
+
+    private boolean merge;
+
+    /**
+     * Default constructor.
+     */
+    public CalendarMoveJobRequest()
+    {
+    }
+
+    /**
+     * Creates a request moving the events of a calendar to another calendar.
+     *
+     * @param requestId the ID of the request
+     * @param sourceCalendar the calendar whose events are moved
+     * @param targetCalendar the calendar receiving the events
+     * @param userReference the user who requests the move
+     */
+    public CalendarMoveJobRequest(List<String> requestId, DocumentReference sourceCalendar,
+        DocumentReference targetCalendar, DocumentReference userReference)
+    {
+        setId(requestId);
+        this.sourceCalendar = sourceCalendar;
+        this.targetCalendar = targetCalendar;
+        this.userReference = userReference;
+    }
+
+    /**
+     * @return the calendar whose events are moved
+     */
+    public DocumentReference getSourceCalendar()
+    {
+        return sourceCalendar;
+    }
+
+    /**
+     * @return the calendar receiving the events
+     */
+    public DocumentReference getTargetCalendar()
+    {
+        return targetCalendar;
+    }
+
+    /**
+     * @return the user who requests the move
+     */
+    public DocumentReference getUserReference()
+    {
+        return userReference;
+    }
+
+    /**
+     * Whether the source calendar should be deleted once all its events have been moved, i.e. if the two calendars
+     * are merged.
+     *
+     * @return {@code true} to delete the source calendar after the move
+     */
+    public boolean isMerge()
+    {
+        return merge;
+    }
+
+    /**
+     * @param merge {@code true} to delete the source calendar after the move, see {@link #isMerge()}
+     */
+    public void setMerge(boolean merge)
+    {
+        this.merge = merge;
+    }
+}
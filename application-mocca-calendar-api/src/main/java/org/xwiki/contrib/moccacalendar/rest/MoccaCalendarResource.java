@@ -19,13 +19,18 @@
  */
 package org.xwiki.contrib.moccacalendar.rest;
 
+import java.io.InputStream;
+import java.util.List;
+
 import org.xwiki.rest.XWikiRestException;
 import org.xwiki.stability.Unstable;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 /**
@@ -42,13 +47,35 @@ public interface MoccaCalendarResource
      * Import a given ical file and create a job that handles the event processing.
      *
      * @param parentCalendar the calendar for which the events are created.
-     * @param file           the file to be processed.
+     * @param file           the content of the file to be processed, which is stored on disk until it is imported.
+     * @param sync           {@code true} to update the events imported before from the same file instead of importing
+     *                       them again, and skip the events that were not modified since.
+     * @param resume         {@code true} to continue the previous import of the file in the same calendar, e.g. after
+     *                       a failure, skipping the events it has already saved.
      * @return HTML status code 202 to hint that the file had been accepted and the job started.
      * @throws XWikiRestException if an error occurred while creating the job.
      */
     @POST
     @Path("/import")
-    Response importCalendarFile(@QueryParam("parentCalendar") String parentCalendar, byte[] file)
+    Response importCalendarFile(@QueryParam("parentCalendar") String parentCalendar, InputStream file,
+        @QueryParam("sync") boolean sync, @QueryParam("resume") boolean resume) throws XWikiRestException;
+
+    /**
+     * Move all the events of a calendar to another calendar, with a job.
+     *
+     * @param sourceCalendar the calendar whose events are moved
+     * @param targetCalendar the calendar receiving the events
+     * @param merge          {@code true} to delete the source calendar once all its events have been moved
+     * @return HTML status code 202 to hint that the job has been started, or code 404 if one of the calendars does not
+     *     exist
+     * @throws XWikiRestException if an error occurred while creating the job
+     * @since 2.20
+     */
+    @POST
+    @Path("/move")
+    @Unstable
+    Response moveCalendarEvents(@QueryParam("sourceCalendar") String sourceCalendar,
+        @QueryParam("targetCalendar") String targetCalendar, @QueryParam("merge") boolean merge)
         throws XWikiRestException;
 
     /**
@@ -65,4 +92,33 @@ public interface MoccaCalendarResource
     @Path("/ical")
     @Unstable
     Response getICalContent(@QueryParam("calendar") String calendarReference) throws XWikiRestException;
+
+    /**
+     * Get the events displayed by the calendar macro, in the JSON format expected by fullcalendar.
+     *
+     * @param start the first day of the displayed range, formatted as {@code yyyy-M-d}
+     * @param end the last day of the displayed range, formatted as {@code yyyy-M-d}
+     * @param filter how to filter the events: "wiki", "space" or "page"; all events of the wiki if empty
+     * @param filterDoc the document used by the filter
+     * @param calendarDoc the calendar displaying the events, also used by the filter if no filter document is given
+     * @param wikis the wikis whose events are displayed, instead of filtering the events of the current wiki
+     * @param wiki the wiki of the calendar, the current wiki if empty
+     * @param outputView the view of the calendar; the events of the "plainList" view in the past are sorted from the
+     *     most recent one
+     * @param descriptions {@code true} to render the descriptions of the events in their agenda view; they are left
+     *     out by default, as only the "plainList" view displays them
+     * @return code 200 with the events as a JSON array, code 400 if the start date is missing or invalid, and code
+     *     404 if the given wiki does not exist
+     * @throws XWikiRestException if an error occurred while querying the events
+     * @since 2.20
+     */
+    @GET
+    @Path("/events")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Unstable
+    Response getEvents(@QueryParam("start") String start, @QueryParam("end") String end,
+        @QueryParam("filter") String filter, @QueryParam("filterDoc") String filterDoc,
+        @QueryParam("calendarDoc") String calendarDoc, @QueryParam("wikis") List<String> wikis,
+        @QueryParam("wiki") String wiki, @QueryParam("outputView") String outputView,
+        @QueryParam("descriptions") boolean descriptions) throws XWikiRestException;
 }
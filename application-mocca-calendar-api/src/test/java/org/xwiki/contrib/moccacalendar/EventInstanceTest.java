@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link EventInstance}.
+ *
+ * @version $Id$
+ */
+public class EventInstanceTest
+{
+    private static final DateTimeZone ZONE = DateTimeZone.forID("Europe/Paris");
+
+    @Test
+    void datesAreKeptWithTheirZone()
+    {
+        DateTime start = new DateTime(2024, 3, 30, 10, 0, ZONE);
+        EventInstance event = new EventInstance();
+        event.setStartDate(start);
+        event.setEndDate(start.plusHours(2));
+
+        assertEquals(start, event.getStartDate());
+        assertEquals(start.plusHours(2), event.getEndDate());
+        assertNull(event.getOriginalStartDate());
+    }
+
+    @Test
+    void eachDateKeepsItsOwnZone()
+    {
+        DateTime start = new DateTime(2024, 3, 30, 10, 0, ZONE);
+        DateTime end = start.plusHours(2).withZone(DateTimeZone.UTC);
+        EventInstance event = new EventInstance();
+        event.setStartDate(start);
+        event.setEndDate(end);
+
+        assertEquals(ZONE, event.getStartDate().getZone());
+        assertEquals(start, event.getStartDate());
+        assertEquals(DateTimeZone.UTC, event.getEndDate().getZone());
+        assertEquals(end, event.getEndDate());
+    }
+
+    @Test
+    void endDateExclusiveIsComputedFromAllDay()
+    {
+        // the night from March 30 to March 31 2024 has only 23 hours in Paris
+        DateTime day = new DateTime(2024, 3, 30, 0, 0, ZONE);
+        EventInstance event = new EventInstance();
+        event.setStartDate(day);
+        event.setEndDate(day);
+
+        assertEquals(day, event.getEndDateExclusive());
+
+        event.setAllDay(true);
+        assertEquals(new DateTime(2024, 3, 31, 0, 0, ZONE), event.getEndDateExclusive());
+
+        event.setEndDateExclusive(day.plusDays(2));
+        assertEquals(day.plusDays(2), event.getEndDateExclusive());
+    }
+
+    @Test
+    void descriptionIsRenderedOnlyWhenRequested()
+    {
+        AtomicInteger renderings = new AtomicInteger();
+        EventInstance event = new EventInstance();
+        event.setDescriptionProvider(lazyEvent -> {
+            renderings.incrementAndGet();
+            lazyEvent.setDescription("Agenda");
+            lazyEvent.setDescriptionHtml("<p>Agenda</p>");
+        });
+
+        assertTrue(event.hasDescription());
+        assertEquals(0, renderings.get());
+
+        assertEquals("<p>Agenda</p>", event.getDescriptionHtml());
+        assertEquals("Agenda", event.getDescription());
+        assertEquals(1, renderings.get());
+    }
+
+    @Test
+    void colorsAndSourceAreNotCopied()
+    {
+        // the events of a calendar or a source share the strings of its cache
+        String color = "#ff0000";
+        String source = "meetings";
+        EventInstance first = new EventInstance();
+        EventInstance second = new EventInstance();
+        first.setBackgroundColor(color);
+        second.setBackgroundColor(color);
+        first.setSource(source);
+
+        assertSame(first.getBackgroundColor(), second.getBackgroundColor());
+        assertSame(source, first.getSource());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.XObjectAddedEvent;
+import com.xpn.xwiki.internal.event.XObjectDeletedEvent;
+import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CalendarClassListener}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class CalendarClassListenerTest
+{
+    private static final DocumentReference CALENDAR = new DocumentReference("wiki", "Team", "WebHome");
+
+    @InjectMockComponents
+    private CalendarClassListener listener;
+
+    @MockComponent
+    private CalendarDocumentCache calendarDocumentCache;
+
+    @MockComponent
+    private CalendarColorCache calendarColorCache;
+
+    private XWikiDocument calendarDoc;
+
+    @BeforeEach
+    void setUp()
+    {
+        this.calendarDoc = mock(XWikiDocument.class);
+        when(this.calendarDoc.getDocumentReference()).thenReturn(CALENDAR);
+    }
+
+    @Test
+    void addedCalendarObjectInvalidatesDocument()
+    {
+        this.listener.onEvent(new XObjectAddedEvent(), this.calendarDoc, null);
+
+        verify(this.calendarDocumentCache).invalidate(CALENDAR);
+    }
+
+    @Test
+    void deletedCalendarObjectInvalidatesDocument()
+    {
+        this.listener.onEvent(new XObjectDeletedEvent(), this.calendarDoc, null);
+
+        verify(this.calendarDocumentCache).invalidate(CALENDAR);
+    }
+
+    @Test
+    void updatedCalendarObjectKeepsDocument()
+    {
+        this.listener.onEvent(new XObjectUpdatedEvent(), this.calendarDoc, null);
+
+        verify(this.calendarDocumentCache, never()).invalidate(CALENDAR);
+    }
+
+    @Test
+    void changedCalendarObjectInvalidatesColors()
+    {
+        this.listener.onEvent(new XObjectAddedEvent(), this.calendarDoc, null);
+        this.listener.onEvent(new XObjectUpdatedEvent(), this.calendarDoc, null);
+        this.listener.onEvent(new XObjectDeletedEvent(), this.calendarDoc, null);
+
+        verify(this.calendarColorCache, times(3)).invalidate(CALENDAR);
+    }
+}
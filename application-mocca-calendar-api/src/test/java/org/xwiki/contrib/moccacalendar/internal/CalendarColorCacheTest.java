@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CalendarColorCache}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class CalendarColorCacheTest
+{
+    private static final DocumentReference CALENDAR = new DocumentReference("wiki", "Team", "WebHome");
+
+    @InjectMockComponents
+    private CalendarColorCache colorCache;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    private XWiki wiki;
+
+    private XWikiContext context;
+
+    private BaseObject calendarData;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        CacheMocks.createMapCaches(this.cacheManager);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        this.wiki = mock(XWiki.class);
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.wiki);
+        when(this.serializer.serialize(any())).thenAnswer(invocation -> invocation.getArgument(0).toString());
+
+        DocumentReference calendarClass = new DocumentReference("wiki", "MoccaCalendar", "MoccaCalendarClass");
+        XWikiDocument calendarDoc = mock(XWikiDocument.class);
+        this.calendarData = mock(BaseObject.class);
+        when(this.wiki.getDocument(CALENDAR, this.context)).thenReturn(calendarDoc);
+        when(calendarDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_CLASS_NAME)).thenReturn(calendarClass);
+        when(calendarDoc.getXObject(calendarClass)).thenReturn(this.calendarData);
+        when(this.calendarData.getStringValue(EventConstants.PROPERTY_TEXTCOLOR_NAME)).thenReturn("#ffffff");
+        when(this.calendarData.getStringValue("color")).thenReturn("#0000ff");
+    }
+
+    @Test
+    void eventsOfCalendarShareItsColors() throws Exception
+    {
+        String[] colors = this.colorCache.getColors(CALENDAR);
+
+        assertArrayEquals(new String[] {"#ffffff", "#0000ff"}, colors);
+        assertSame(colors[0], this.colorCache.getColors(CALENDAR)[0]);
+        assertSame(colors[1], this.colorCache.getColors(CALENDAR)[1]);
+        verify(this.wiki, times(1)).getDocument(CALENDAR, this.context);
+    }
+
+    @Test
+    void invalidateForgetsColors() throws Exception
+    {
+        assertArrayEquals(new String[] {"#ffffff", "#0000ff"}, this.colorCache.getColors(CALENDAR));
+
+        when(this.calendarData.getStringValue("color")).thenReturn("#ff0000");
+        this.colorCache.invalidate(CALENDAR);
+
+        assertArrayEquals(new String[] {"#ffffff", "#ff0000"}, this.colorCache.getColors(CALENDAR));
+        verify(this.wiki, times(2)).getDocument(CALENDAR, this.context);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CalendarDocumentCache}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class CalendarDocumentCacheTest
+{
+    private static final DocumentReference CALENDAR = new DocumentReference("wiki", "Team", "WebHome");
+
+    private static final DocumentReference CALENDAR_CLASS =
+        new DocumentReference("wiki", "MoccaCalendar", "MoccaCalendarClass");
+
+    @InjectMockComponents
+    private CalendarDocumentCache documentCache;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    private XWiki wiki;
+
+    private XWikiContext context;
+
+    private XWikiDocument calendarDoc;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        CacheMocks.createMapCaches(this.cacheManager);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        this.wiki = mock(XWiki.class);
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.wiki);
+        when(this.serializer.serialize(any())).thenAnswer(invocation -> invocation.getArgument(0).toString());
+
+        this.calendarDoc = mock(XWikiDocument.class);
+        when(this.wiki.getDocument(CALENDAR, this.context)).thenReturn(this.calendarDoc);
+        when(this.calendarDoc.resolveClassReference(EventConstants.MOCCA_CALENDAR_CLASS_NAME))
+            .thenReturn(CALENDAR_CLASS);
+        when(this.calendarDoc.getXObjectSize(CALENDAR_CLASS)).thenReturn(1);
+    }
+
+    @Test
+    void calendarIsLoadedOnce() throws Exception
+    {
+        assertTrue(this.documentCache.isCalendar(CALENDAR));
+        assertTrue(this.documentCache.isCalendar(CALENDAR));
+        assertFalse(this.documentCache.isCalendar(null));
+
+        verify(this.wiki, times(1)).getDocument(CALENDAR, this.context);
+    }
+
+    @Test
+    void invalidateForgetsCalendar() throws Exception
+    {
+        assertTrue(this.documentCache.isCalendar(CALENDAR));
+
+        when(this.calendarDoc.getXObjectSize(CALENDAR_CLASS)).thenReturn(0);
+        this.documentCache.invalidate(CALENDAR);
+
+        assertFalse(this.documentCache.isCalendar(CALENDAR));
+        verify(this.wiki, times(2)).getDocument(CALENDAR, this.context);
+    }
+}
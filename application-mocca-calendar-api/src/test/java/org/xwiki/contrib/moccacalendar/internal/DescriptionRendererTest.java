@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Locale;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.rendering.parser.ContentParser;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DescriptionRenderer}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class DescriptionRendererTest
+{
+    private static final String DESCRIPTION_PROPERTY = "description";
+
+    private static final String EVENT_CLASS = "MoccaCalendar.MoccaCalendarEventClass";
+
+    @InjectMockComponents
+    private DescriptionRenderer descriptionRenderer;
+
+    @MockComponent
+    private RenderedEventTextCache textCache;
+
+    @MockComponent
+    private ContentParser contentParser;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    private final XWikiDocument eventDoc = mock(XWikiDocument.class);
+
+    private final BaseObject eventData = mock(BaseObject.class);
+
+    @BeforeEach
+    void setUp()
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(this.xcontextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getLocale()).thenReturn(Locale.ENGLISH);
+
+        when(this.eventData.getOwnerDocument()).thenReturn(this.eventDoc);
+        when(this.eventData.getClassName()).thenReturn(EVENT_CLASS);
+        when(this.eventData.getStringValue(DESCRIPTION_PROPERTY)).thenReturn("Agenda");
+        when(this.textCache.get(same(this.eventDoc), anyString(), any()))
+            .thenReturn(new String[] {"Agenda", "<p>Agenda</p>"});
+    }
+
+    @Test
+    void descriptionIsRenderedOnlyWhenRequested()
+    {
+        EventInstance event = new EventInstance();
+        this.descriptionRenderer.fillDescription(this.eventData, DESCRIPTION_PROPERTY, event);
+
+        assertTrue(event.hasDescription());
+        // neither the description nor its rendered text are looked up before a getter is called
+        verifyNoInteractions(this.textCache, this.contentParser, this.eventData);
+
+        assertEquals("<p>Agenda</p>", event.getDescriptionHtml());
+        assertEquals("Agenda", event.getDescription());
+        // both descriptions come from a single rendering, and the event does not ask for them again
+        verify(this.textCache).get(same(this.eventDoc), eq(EVENT_CLASS + "/0/description/description/en"), any());
+    }
+}
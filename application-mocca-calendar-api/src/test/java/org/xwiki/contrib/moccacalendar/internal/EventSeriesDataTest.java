@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.moccacalendar.EventInstance;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link EventSeriesData}.
+ *
+ * @version $Id$
+ */
+public class EventSeriesDataTest
+{
+    private static final String SERIES_TITLE = "Weekly meeting";
+
+    @Test
+    void occurrencesShareTheSeriesData()
+    {
+        EventSeriesData series = new EventSeriesData(createPrototype());
+
+        EventInstance occurrence = new EventInstance();
+        occurrence.setStartDate(new DateTime(2024, 5, 6, 10, 0));
+        series.applyTo(occurrence);
+
+        assertSame(SERIES_TITLE, occurrence.getTitle());
+        assertEquals("<p>Agenda</p>", occurrence.getDescriptionHtml());
+        assertEquals("#ffffff", occurrence.getTextColor());
+        assertEquals(new DocumentReference("wiki", "Calendar", "Meeting"), occurrence.getEventDocRef());
+        assertTrue(occurrence.isRecurrent());
+        assertTrue(occurrence.isModifiable());
+        assertFalse(occurrence.isMovable());
+    }
+
+    @Test
+    void modifiedOccurrenceKeepsItsData()
+    {
+        EventSeriesData series = new EventSeriesData(createPrototype());
+
+        EventInstance occurrence = new EventInstance();
+        occurrence.setTitle("Moved meeting");
+        occurrence.setBackgroundColor("#00ff00");
+        series.applyTo(occurrence);
+
+        assertEquals("Moved meeting", occurrence.getTitle());
+        assertEquals("#00ff00", occurrence.getBackgroundColor());
+        assertEquals("Agenda", occurrence.getDescription());
+    }
+
+    @Test
+    void seriesWithoutDescriptionLeavesItOut()
+    {
+        EventInstance prototype = new EventInstance();
+        prototype.setTitle(SERIES_TITLE);
+        EventSeriesData series = new EventSeriesData(prototype);
+
+        EventInstance occurrence = new EventInstance();
+        series.applyTo(occurrence);
+
+        assertFalse(occurrence.hasDescription());
+        assertNull(occurrence.getDescriptionHtml());
+    }
+
+    private EventInstance createPrototype()
+    {
+        EventInstance prototype = new EventInstance();
+        prototype.setEventDocRef(new DocumentReference("wiki", "Calendar", "Meeting"));
+        prototype.setTitle(SERIES_TITLE);
+        prototype.setDescription("Agenda");
+        prototype.setDescriptionHtml("<p>Agenda</p>");
+        prototype.setTextColor("#ffffff");
+        prototype.setBackgroundColor("#0000ff");
+        return prototype;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EventSourceSettingsCache}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class EventSourceSettingsCacheTest
+{
+    private static final String WIKI = "wiki";
+
+    private static final DocumentReference CALENDAR = new DocumentReference(WIKI, "Team", "WebHome");
+
+    private static final Set<String> SOURCES = Collections.singleton("meetings");
+
+    @InjectMockComponents
+    private EventSourceSettingsCache settingsCache;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private EventSourceSettingsReader settingsReader;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    private EventSourceSettings settings;
+
+    private EventSourceSettings newSettings;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        CacheMocks.createMapCaches(this.cacheManager);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(context);
+        when(context.getWikiId()).thenReturn(WIKI);
+        when(this.serializer.serialize(any())).thenAnswer(invocation -> invocation.getArgument(0).toString());
+
+        this.settings = createSettings();
+        this.newSettings = createSettings();
+        when(this.settingsReader.readSettings()).thenReturn(this.settings, this.newSettings);
+        when(this.settingsReader.readLocallyEnabledSources(any(), any())).thenReturn(SOURCES);
+    }
+
+    @Test
+    void settingsAreReadOnce() throws Exception
+    {
+        assertSame(this.settings, this.settingsCache.getSettings());
+        assertEquals(SOURCES, this.settingsCache.getLocallyEnabledSources(CALENDAR));
+        assertEquals(SOURCES, this.settingsCache.getLocallyEnabledSources(CALENDAR));
+
+        verify(this.settingsReader, times(1)).readSettings();
+        verify(this.settingsReader, times(1)).readLocallyEnabledSources(this.settings, CALENDAR);
+    }
+
+    @Test
+    void invalidateWikiReadsCalendarsAgain() throws Exception
+    {
+        this.settingsCache.getLocallyEnabledSources(CALENDAR);
+
+        this.settingsCache.invalidateWiki(WIKI);
+        this.settingsCache.getLocallyEnabledSources(CALENDAR);
+
+        verify(this.settingsReader, times(2)).readSettings();
+        verify(this.settingsReader, times(1)).readLocallyEnabledSources(this.settings, CALENDAR);
+        verify(this.settingsReader, times(1)).readLocallyEnabledSources(this.newSettings, CALENDAR);
+    }
+
+    @Test
+    void invalidateCalendarKeepsWikiSettings() throws Exception
+    {
+        this.settingsCache.getLocallyEnabledSources(CALENDAR);
+
+        this.settingsCache.invalidateCalendar(CALENDAR);
+        this.settingsCache.getLocallyEnabledSources(CALENDAR);
+
+        verify(this.settingsReader, times(1)).readSettings();
+        verify(this.settingsReader, times(2)).readLocallyEnabledSources(this.settings, CALENDAR);
+    }
+
+    @Test
+    void invalidateAllReadsEverythingAgain() throws Exception
+    {
+        this.settingsCache.getLocallyEnabledSources(CALENDAR);
+
+        this.settingsCache.invalidateAll();
+
+        assertSame(this.newSettings, this.settingsCache.getSettings());
+        this.settingsCache.getLocallyEnabledSources(CALENDAR);
+        verify(this.settingsReader, times(1)).readLocallyEnabledSources(this.newSettings, CALENDAR);
+    }
+
+    private EventSourceSettings createSettings()
+    {
+        return new EventSourceSettings(Collections.emptyMap(), new HashSet<>(SOURCES), new HashSet<>(SOURCES));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.contrib.moccacalendar.EventSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EventSourceSettingsListener}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class EventSourceSettingsListenerTest
+{
+    private static final WikiReference WIKI = new WikiReference("wiki");
+
+    @InjectMockComponents
+    private EventSourceSettingsListener listener;
+
+    @MockComponent
+    private EventSourceSettingsCache settingsCache;
+
+    @Test
+    void globalSettingsInvalidateWiki()
+    {
+        this.listener.onEvent(new DocumentUpdatedEvent(),
+            mockDocument(new DocumentReference(EventSourceSettingsReader.GLOBAL_SETTINGS_PAGE, WIKI)), null);
+
+        verify(this.settingsCache).invalidateWiki(WIKI.getName());
+    }
+
+    @Test
+    void meetingClassInvalidatesWiki()
+    {
+        this.listener.onEvent(new DocumentDeletedEvent(),
+            mockDocument(new DocumentReference(EventSourceSettingsReader.MEETING_CLASS, WIKI)), null);
+
+        verify(this.settingsCache).invalidateWiki(WIKI.getName());
+    }
+
+    @Test
+    void otherDocumentInvalidatesCalendar()
+    {
+        DocumentReference calendar = new DocumentReference(WIKI.getName(), "Team", "WebHome");
+
+        this.listener.onEvent(new DocumentUpdatedEvent(), mockDocument(calendar), null);
+
+        verify(this.settingsCache).invalidateCalendar(calendar);
+        verify(this.settingsCache, never()).invalidateWiki(WIKI.getName());
+    }
+
+    @Test
+    void sourceRegistrationInvalidatesAll()
+    {
+        this.listener.onEvent(new ComponentDescriptorAddedEvent(EventSource.class), null, null);
+
+        verify(this.settingsCache).invalidateAll();
+    }
+
+    private XWikiDocument mockDocument(DocumentReference documentReference)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(documentReference);
+        return document;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.fullcalendar.model.CalendarEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CalendarEntryImporter}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class CalendarEntryImporterTest
+{
+    private static final String UID = "weekly-meeting@example.com";
+
+    @InjectMockComponents
+    private CalendarEntryImporter entryImporter;
+
+    @MockComponent
+    private CalendarEventImporter calendarEventImporter;
+
+    @MockComponent
+    private ImportedEventIndex importedEventIndex;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    private XWiki wiki;
+
+    private XWikiContext wikiContext;
+
+    private final EventNameReservation reservation = mock(EventNameReservation.class);
+
+    @BeforeEach
+    void setUp()
+    {
+        this.wiki = mock(XWiki.class);
+        this.wikiContext = mock(XWikiContext.class);
+        when(this.wikiContextProvider.get()).thenReturn(this.wikiContext);
+        when(this.wikiContext.getWiki()).thenReturn(this.wiki);
+    }
+
+    @Test
+    void resyncModifiedRecurringEntry() throws Exception
+    {
+        // the recurrent event had two instances stored in their own documents, one of them is now a regular instance
+        ImportedEvent series = mockImportedEvent("Meeting", false);
+        ImportedEvent movedInstance = mockImportedEvent("Meeting1", false);
+        ImportedEvent canceledInstance = mockImportedEvent("Meeting2", false);
+        PreparedCalendarEntry entry = prepareEntry("Weekly meeting", "Moved meeting");
+        List<DocumentReference> obsoleteDocuments = new ArrayList<>();
+
+        List<XWikiDocument> eventDocuments = this.entryImporter.importEntry(entry,
+            Arrays.asList(series, movedInstance, canceledInstance), this.reservation, obsoleteDocuments);
+
+        assertEquals(Arrays.asList(getDocument(series), getDocument(movedInstance)), eventDocuments);
+        assertEquals(Collections.singletonList(canceledInstance.getDocumentReference()), obsoleteDocuments);
+        verify(getDocument(series)).setTitle("Weekly meeting");
+        verify(getDocument(movedInstance)).setTitle("Moved meeting");
+        // every event of the entry is indexed, so that the next synchronization finds all of them
+        verify(this.importedEventIndex).setImportedEvent(getDocument(series), entry.getEntry());
+        verify(this.importedEventIndex).setImportedEvent(getDocument(movedInstance), entry.getEntry());
+        verify(this.calendarEventImporter, never()).getUniqueEventName(any(), any());
+    }
+
+    @Test
+    void importNewEventsOfEntry() throws Exception
+    {
+        ImportedEvent deletedSeries = mockImportedEvent("Meeting", true);
+        XWikiDocument newDocument = mock(XWikiDocument.class);
+        when(this.calendarEventImporter.getUniqueEventName("Moved meeting", this.reservation)).thenReturn(newDocument);
+        PreparedCalendarEntry entry = prepareEntry("Moved meeting");
+        List<DocumentReference> obsoleteDocuments = new ArrayList<>();
+
+        List<XWikiDocument> eventDocuments = this.entryImporter.importEntry(entry,
+            Collections.singletonList(deletedSeries), this.reservation, obsoleteDocuments);
+
+        assertEquals(Collections.singletonList(newDocument), eventDocuments);
+        assertEquals(Collections.emptyList(), obsoleteDocuments);
+        verify(this.calendarEventImporter).importCalendarEvent(newDocument, entry.getEvents().get(0));
+        verify(this.importedEventIndex).setImportedEvent(newDocument, entry.getEntry());
+    }
+
+    private ImportedEvent mockImportedEvent(String name, boolean deleted) throws Exception
+    {
+        DocumentReference reference = new DocumentReference("wiki", "Calendar", name);
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.clone()).thenReturn(document);
+        when(document.isNew()).thenReturn(deleted);
+        when(this.wiki.getDocument(reference, this.wikiContext)).thenReturn(document);
+        return new ImportedEvent(reference, "1");
+    }
+
+    private XWikiDocument getDocument(ImportedEvent importedEvent) throws Exception
+    {
+        return this.wiki.getDocument(importedEvent.getDocumentReference(), this.wikiContext);
+    }
+
+    private PreparedCalendarEntry prepareEntry(String... titles)
+    {
+        List<PreparedCalendarEvent> events = new ArrayList<>();
+        for (String title : titles) {
+            CalendarEvent event = mock(CalendarEvent.class);
+            when(event.getTitle()).thenReturn(title);
+            events.add(new PreparedCalendarEvent(event, title, "", Collections.emptyList(), Collections.emptyList()));
+        }
+        CalendarEventEntry entry = new CalendarEventEntry(UID, "2", "BEGIN:VCALENDAR".getBytes(StandardCharsets.UTF_8));
+        return new PreparedCalendarEntry(entry, events);
+    }
+}
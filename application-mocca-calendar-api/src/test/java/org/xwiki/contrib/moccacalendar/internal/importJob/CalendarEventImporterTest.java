@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.Arrays;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wysiwyg.converter.HTMLConverter;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CalendarEventImporter}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class CalendarEventImporterTest
+{
+    private static final String XWIKI_SYNTAX = "xwiki/2.1";
+
+    @InjectMockComponents
+    private CalendarEventImporter importer;
+
+    @MockComponent
+    private HTMLConverter htmlConverter;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Test
+    void convertPlainText()
+    {
+        ConvertedContentCache cache = new ConvertedContentCache();
+
+        assertEquals("Team meeting (weekly), don't miss it!",
+            this.importer.convertContent("  Team\n meeting  (weekly), don't miss it! ", cache));
+        assertEquals("", this.importer.convertContent(" \n", cache));
+        assertEquals("", this.importer.convertContent(null, cache));
+
+        verify(this.htmlConverter, never()).fromHTML(any(), any());
+    }
+
+    @Test
+    void convertContentWithMarkup()
+    {
+        ConvertedContentCache cache = new ConvertedContentCache();
+        when(this.htmlConverter.fromHTML("<b>Team</b> meeting", XWIKI_SYNTAX)).thenReturn("**Team** meeting");
+        when(this.htmlConverter.fromHTML("Q&amp;A -- planning", XWIKI_SYNTAX)).thenReturn("Q&A ~-- planning");
+        when(this.htmlConverter.fromHTML("1. Planning", XWIKI_SYNTAX)).thenReturn("1~. Planning");
+
+        assertEquals("**Team** meeting", this.importer.convertContent("<b>Team</b> meeting", cache));
+        assertEquals("**Team** meeting", this.importer.convertContent("<b>Team</b> meeting", cache));
+        assertEquals("Q&A ~-- planning", this.importer.convertContent("Q&A -- planning", cache));
+        assertEquals("1~. Planning", this.importer.convertContent("1. Planning", cache));
+
+        // Identical content is converted only once per import.
+        verify(this.htmlConverter, times(1)).fromHTML("<b>Team</b> meeting", XWIKI_SYNTAX);
+    }
+
+    @Test
+    void uniqueEventNameSkipsDocumentsCreatedSinceTheReservation() throws Exception
+    {
+        DocumentReference calendar = new DocumentReference("xwiki", "Calendar", "WebHome");
+        DocumentReference taken = new DocumentReference("xwiki", Arrays.asList("Calendar", "Meeting"), "WebHome");
+        DocumentReference free = new DocumentReference("xwiki", Arrays.asList("Calendar", "Meeting_2"), "WebHome");
+        EventNameReservation reservation = mock(EventNameReservation.class);
+        when(reservation.reserve("Meeting")).thenReturn(taken, free);
+        when(reservation.getCalendarReference()).thenReturn(calendar);
+
+        XWikiContext wikiContext = mock(XWikiContext.class);
+        XWiki wiki = mock(XWiki.class);
+        when(this.wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        XWikiDocument existingDoc = mock(XWikiDocument.class);
+        XWikiDocument freeDoc = mock(XWikiDocument.class);
+        XWikiDocument eventDoc = mock(XWikiDocument.class);
+        when(wiki.getDocument(taken, wikiContext)).thenReturn(existingDoc);
+        when(wiki.getDocument(free, wikiContext)).thenReturn(freeDoc);
+        when(freeDoc.isNew()).thenReturn(true);
+        when(freeDoc.clone()).thenReturn(eventDoc);
+
+        assertSame(eventDoc, this.importer.getUniqueEventName("Meeting", reservation));
+
+        verify(eventDoc).setTitle("Meeting");
+        verify(eventDoc).setParentReference(calendar);
+        verify(existingDoc, never()).clone();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link CalendarEventReader}.
+ *
+ * @version $Id$
+ */
+public class CalendarEventReaderTest
+{
+    private static final String HEADER = "BEGIN:VCALENDAR\r\n"
+        + "VERSION:2.0\r\n"
+        + "BEGIN:VTIMEZONE\r\n"
+        + "TZID:Europe/Paris\r\n"
+        + "END:VTIMEZONE\r\n";
+
+    @Test
+    void readEventsOneByOne() throws IOException
+    {
+        String ics = "some junk before the calendar\r\n"
+            + HEADER
+            + "BEGIN:VEVENT\r\n"
+            + "UID:first\r\n"
+            + "SUMMARY:First\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VTODO\r\n"
+            + "UID:todo\r\n"
+            + "END:VTODO\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:second\r\n"
+            + "SUMMARY:Second\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n"
+            + "some junk after the calendar\r\n";
+
+        try (CalendarEventReader reader = reader(ics)) {
+            CalendarEventEntry entry = reader.next();
+            assertEquals("first", entry.getUid());
+            assertEquals(HEADER
+                + "BEGIN:VEVENT\r\n"
+                + "UID:first\r\n"
+                + "SUMMARY:First\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n", content(entry));
+
+            entry = reader.next();
+            assertEquals("second", entry.getUid());
+            assertEquals(HEADER
+                + "BEGIN:VEVENT\r\n"
+                + "UID:second\r\n"
+                + "SUMMARY:Second\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n", content(entry));
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void readModifiedInstancesWithTheirEvent() throws IOException
+    {
+        String ics = HEADER
+            + "BEGIN:VEVENT\r\n"
+            + "UID:recurrent\r\n"
+            + "RRULE:FREQ=DAILY\r\n"
+            + "BEGIN:VALARM\r\n"
+            + "UID:alarm\r\n"
+            + "END:VALARM\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:recurrent\r\n"
+            + "RECURRENCE-ID:20260101T100000Z\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID;X-PARAM=\"a:b\":single\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n";
+
+        try (CalendarEventReader reader = reader(ics)) {
+            CalendarEventEntry entry = reader.next();
+            assertEquals("recurrent", entry.getUid());
+            assertEquals(HEADER
+                + "BEGIN:VEVENT\r\n"
+                + "UID:recurrent\r\n"
+                + "RRULE:FREQ=DAILY\r\n"
+                + "BEGIN:VALARM\r\n"
+                + "UID:alarm\r\n"
+                + "END:VALARM\r\n"
+                + "END:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "UID:recurrent\r\n"
+                + "RECURRENCE-ID:20260101T100000Z\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n", content(entry));
+
+            assertEquals("single", reader.next().getUid());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void readModifiedInstanceBeforeItsEvent() throws IOException
+    {
+        String ics = HEADER
+            + "BEGIN:VEVENT\r\n"
+            + "UID:recurrent\r\n"
+            + "RECURRENCE-ID:20260101T100000Z\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:single\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:recurrent\r\n"
+            + "RRULE:FREQ=DAILY\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n";
+
+        Map<String, Integer> scatteredEventCounts;
+        try (CalendarEventReader reader = reader(ics)) {
+            while (reader.next() != null) {
+                // Read the whole file to find the scattered events.
+            }
+            scatteredEventCounts = reader.getScatteredEventCounts();
+        }
+        assertEquals(Map.of("recurrent", 2), scatteredEventCounts);
+
+        try (CalendarEventReader reader = new CalendarEventReader(
+            new ByteArrayInputStream(ics.getBytes(StandardCharsets.UTF_8)), scatteredEventCounts)) {
+            assertEquals("single", reader.next().getUid());
+
+            CalendarEventEntry entry = reader.next();
+            assertEquals("recurrent", entry.getUid());
+            assertEquals(HEADER
+                + "BEGIN:VEVENT\r\n"
+                + "UID:recurrent\r\n"
+                + "RECURRENCE-ID:20260101T100000Z\r\n"
+                + "END:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "UID:recurrent\r\n"
+                + "RRULE:FREQ=DAILY\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n", content(entry));
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void unfoldLines() throws IOException
+    {
+        String ics = "BEGIN:VCALENDAR\n"
+            + "BEGIN:VEVENT\n"
+            + "UID:fol\n"
+            + " ded\n"
+            + "SUMMARY:A long\n"
+            + "  title\n"
+            + "END:VEVENT\n"
+            + "END:VCALENDAR\n";
+
+        try (CalendarEventReader reader = reader(ics)) {
+            CalendarEventEntry entry = reader.next();
+            assertEquals("folded", entry.getUid());
+            assertEquals("BEGIN:VCALENDAR\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "UID:folded\r\n"
+                + "SUMMARY:A long title\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n", content(entry));
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void readRevision() throws IOException
+    {
+        String ics = HEADER
+            + "BEGIN:VEVENT\r\n"
+            + "UID:modified\r\n"
+            + "SEQUENCE:2\r\n"
+            + "LAST-MODIFIED:20260101T100000Z\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:modified\r\n"
+            + "RECURRENCE-ID:20260101T100000Z\r\n"
+            + "LAST-MODIFIED:20260102T100000Z\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n";
+
+        try (CalendarEventReader reader = reader(ics)) {
+            assertEquals("2/20260101T100000Z,0/20260102T100000Z", reader.next().getRevision());
+        }
+    }
+
+    @Test
+    void ignoreTimeStampInRevision() throws IOException
+    {
+        String event = HEADER
+            + "BEGIN:VEVENT\r\n"
+            + "UID:exported\r\n"
+            + "DTSTAMP:%s\r\n"
+            + "SUMMARY:%s\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n";
+
+        String revision = revision(String.format(event, "20260101T100000Z", "Title"));
+        assertEquals(revision, revision(String.format(event, "20260301T100000Z", "Title")));
+        assertNotEquals(revision, revision(String.format(event, "20260101T100000Z", "Other title")));
+    }
+
+    private String revision(String ics) throws IOException
+    {
+        try (CalendarEventReader reader = reader(ics)) {
+            return reader.next().getRevision();
+        }
+    }
+
+    private CalendarEventReader reader(String ics)
+    {
+        return new CalendarEventReader(new ByteArrayInputStream(ics.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String content(CalendarEventEntry entry)
+    {
+        return new String(entry.getContent(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.importJob;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link EventNameReservation}.
+ *
+ * @version $Id$
+ */
+public class EventNameReservationTest
+{
+    private static final DocumentReference CALENDAR =
+        new DocumentReference("wiki", Arrays.asList("Calendars", "Team"), "WebHome");
+
+    @Test
+    void reserveUniqueNames()
+    {
+        EventNameReservation reservation =
+            new EventNameReservation(CALENDAR, new HashSet<>(Arrays.asList("Meeting", "Meeting_2")), "WebHome", false);
+
+        assertEquals(event("Lunch"), reservation.reserve("Lunch"));
+        assertEquals(event("Lunch_1"), reservation.reserve("Lunch"));
+        assertEquals(event("Meeting_1"), reservation.reserve("Meeting"));
+        assertEquals(event("Meeting_3"), reservation.reserve("Meeting"));
+        assertEquals(event("Meeting_4"), reservation.reserve("Meeting"));
+    }
+
+    private DocumentReference event(String name)
+    {
+        return new DocumentReference("wiki", Arrays.asList("Calendars", "Team", name), "WebHome");
+    }
+}
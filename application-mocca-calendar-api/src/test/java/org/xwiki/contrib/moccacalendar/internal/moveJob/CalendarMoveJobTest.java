@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.moveJob;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReservation;
+import org.xwiki.contrib.moccacalendar.internal.importJob.EventNameReserver;
+import org.xwiki.contrib.moccacalendar.moveJob.CalendarMoveJobRequest;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CalendarMoveJob}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class CalendarMoveJobTest
+{
+    private static final String WIKI = "wiki";
+
+    private static final String EVENT_NAME = "Meeting";
+
+    private static final DocumentReference SOURCE_CALENDAR = new DocumentReference(WIKI, "Source", "WebHome");
+
+    private static final DocumentReference TARGET_CALENDAR = new DocumentReference(WIKI, "Target", "WebHome");
+
+    private static final DocumentReference USER = new DocumentReference(WIKI, "XWiki", "Alice");
+
+    private static final DocumentReference EVENT =
+        new DocumentReference(WIKI, Arrays.asList("Source", EVENT_NAME), "WebHome");
+
+    private static final DocumentReference MOVED_EVENT =
+        new DocumentReference(WIKI, Arrays.asList("Target", EVENT_NAME), "WebHome");
+
+    @InjectMockComponents
+    private CalendarMoveJob moveJob;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private EntityReferenceProvider refProvider;
+
+    @MockComponent
+    private EventNameReserver eventNameReserver;
+
+    @MockComponent
+    private AuthorizationManager authorizationManager;
+
+    private final XWikiContext context = mock(XWikiContext.class);
+
+    private final XWiki wiki = mock(XWiki.class);
+
+    private final EventNameReservation reservation = mock(EventNameReservation.class);
+
+    private final XWikiDocument eventDoc = mock(XWikiDocument.class);
+
+    private final XWikiDocument movedDoc = mock(XWikiDocument.class);
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.wiki);
+        when(this.refProvider.getDefaultReference(EntityType.DOCUMENT))
+            .thenReturn(new EntityReference("WebHome", EntityType.DOCUMENT));
+
+        Query query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        doReturn(Collections.singletonList(EVENT)).when(query).execute();
+
+        when(this.eventNameReserver.reserve(TARGET_CALENDAR)).thenReturn(this.reservation);
+        when(this.reservation.getCalendarReference()).thenReturn(TARGET_CALENDAR);
+        when(this.reservation.reserve(EVENT_NAME)).thenReturn(MOVED_EVENT);
+
+        when(this.wiki.getDocument(EVENT, this.context)).thenReturn(this.eventDoc);
+        when(this.eventDoc.copyDocument(any(DocumentReference.class), any(XWikiContext.class)))
+            .thenReturn(this.movedDoc);
+
+        when(this.authorizationManager.hasAccess(Right.EDIT, USER, TARGET_CALENDAR)).thenReturn(true);
+        when(this.authorizationManager.hasAccess(Right.DELETE, USER, EVENT)).thenReturn(true);
+        when(this.authorizationManager.hasAccess(Right.DELETE, USER, SOURCE_CALENDAR)).thenReturn(true);
+    }
+
+    @Test
+    void moveEvents() throws Exception
+    {
+        runJob(false);
+
+        verify(this.eventDoc).copyDocument(MOVED_EVENT, this.context);
+        // the parent is changed with the move, in a single revision
+        verify(this.movedDoc).setParentReference(TARGET_CALENDAR);
+        verify(this.wiki).saveDocument(this.movedDoc, "Moved to another calendar", true, this.context);
+        verify(this.wiki).deleteDocument(this.eventDoc, false, this.context);
+        verify(this.wiki, never()).deleteDocument(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    @Test
+    void mergeCalendars() throws Exception
+    {
+        XWikiDocument sourceCalendarDoc = mock(XWikiDocument.class);
+        when(this.wiki.getDocument(SOURCE_CALENDAR, this.context)).thenReturn(sourceCalendarDoc);
+
+        runJob(true);
+
+        verify(this.wiki).deleteDocument(this.eventDoc, false, this.context);
+        verify(this.wiki).deleteDocument(sourceCalendarDoc, this.context);
+    }
+
+    @Test
+    void moveEventToNameCreatedSinceTheReservation() throws Exception
+    {
+        DocumentReference otherName =
+            new DocumentReference(WIKI, Arrays.asList("Target", EVENT_NAME + "_1"), "WebHome");
+        when(this.reservation.reserve(EVENT_NAME)).thenReturn(MOVED_EVENT, otherName);
+        when(this.wiki.exists(MOVED_EVENT, this.context)).thenReturn(true);
+
+        runJob(false);
+
+        verify(this.eventDoc).copyDocument(otherName, this.context);
+        verify(this.eventDoc, never()).copyDocument(MOVED_EVENT, this.context);
+    }
+
+    @Test
+    void keepEventsWithoutDeleteRight() throws Exception
+    {
+        when(this.authorizationManager.hasAccess(Right.DELETE, USER, EVENT)).thenReturn(false);
+
+        runJob(true);
+
+        verify(this.eventDoc, never()).copyDocument(any(DocumentReference.class), any(XWikiContext.class));
+        verify(this.wiki, never()).deleteDocument(any(XWikiDocument.class), anyBoolean(), any(XWikiContext.class));
+        // the source calendar still holds an event, so it is not deleted
+        verify(this.wiki, never()).deleteDocument(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    private void runJob(boolean merge) throws Exception
+    {
+        CalendarMoveJobRequest request =
+            new CalendarMoveJobRequest(Arrays.asList("moccacalendar", "move"), SOURCE_CALENDAR, TARGET_CALENDAR, USER);
+        request.setMerge(merge);
+        this.moveJob.initialize(request);
+        this.moveJob.runInternal();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.relocation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EventRelocationQueue}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class EventRelocationQueueTest
+{
+    private static final long DELAY = 200L;
+
+    private static final long TIMEOUT = 5000L;
+
+    private static final DocumentReference USER = new DocumentReference("xwiki", "XWiki", "Alice");
+
+    private static final DocumentReference OTHER_USER = new DocumentReference("xwiki", "XWiki", "Bob");
+
+    private static final DocumentReference EVENT = new DocumentReference("wiki", "Team", "Meeting");
+
+    private static final DocumentReference OTHER_EVENT = new DocumentReference("wiki", "Team", "Review");
+
+    private static final DocumentReference SUBWIKI_EVENT = new DocumentReference("subwiki", "Team", "Meeting");
+
+    @InjectMockComponents
+    private EventRelocationQueue queue;
+
+    @MockComponent
+    private JobExecutor jobExecutor;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private XWikiContext context;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getProperty("moccacalendar.relocation.delay", 2000L)).thenReturn(DELAY);
+    }
+
+    @BeforeEach
+    void setUp()
+    {
+        this.context = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getUserReference()).thenReturn(USER);
+    }
+
+    @Test
+    void eventsSavedDuringDelayAreMovedByOneJob() throws Exception
+    {
+        this.queue.add(EVENT);
+        this.queue.add(OTHER_EVENT);
+        this.queue.add(EVENT);
+
+        List<EventRelocationRequest> requests = awaitRequests(1);
+        assertEquals(Arrays.asList(EVENT, OTHER_EVENT), List.copyOf(requests.get(0).getEventReferences()));
+        assertEquals("wiki", requests.get(0).getWiki());
+        assertFalse(requests.get(0).isMisplacedEventsSearched());
+    }
+
+    @Test
+    void eventsOfEachWikiAndUserAreMovedSeparately() throws Exception
+    {
+        this.queue.add(EVENT);
+        this.queue.add(SUBWIKI_EVENT);
+        when(this.context.getUserReference()).thenReturn(OTHER_USER);
+        this.queue.add(OTHER_EVENT);
+
+        Set<Set<DocumentReference>> movedEvents = awaitRequests(3).stream()
+            .map(EventRelocationRequest::getEventReferences).collect(Collectors.toSet());
+        assertEquals(Set.of(Collections.singleton(EVENT), Collections.singleton(SUBWIKI_EVENT),
+            Collections.singleton(OTHER_EVENT)), movedEvents);
+    }
+
+    @Test
+    void eventsSavedAfterJobStartAreMovedByNextJob() throws Exception
+    {
+        this.queue.add(EVENT);
+        awaitRequests(1);
+
+        this.queue.add(OTHER_EVENT);
+
+        List<EventRelocationRequest> requests = awaitRequests(2);
+        assertEquals(Collections.singleton(OTHER_EVENT), requests.get(1).getEventReferences());
+    }
+
+    @Test
+    void addMisplacedEventsStartsJobAtOnce() throws Exception
+    {
+        this.queue.addMisplacedEvents("wiki");
+
+        ArgumentCaptor<EventRelocationRequest> request = ArgumentCaptor.forClass(EventRelocationRequest.class);
+        verify(this.jobExecutor).execute(eq(EventRelocationJob.JOB_TYPE), request.capture());
+        assertTrue(request.getValue().isMisplacedEventsSearched());
+        assertTrue(request.getValue().getEventReferences().isEmpty());
+        assertEquals("wiki", request.getValue().getWiki());
+    }
+
+    private List<EventRelocationRequest> awaitRequests(int count) throws Exception
+    {
+        // capture once the jobs are started, since a captor would collect the arguments of every verification try
+        verify(this.jobExecutor, timeout(TIMEOUT).times(count)).execute(any(), any());
+        ArgumentCaptor<EventRelocationRequest> requests = ArgumentCaptor.forClass(EventRelocationRequest.class);
+        verify(this.jobExecutor, times(count)).execute(eq(EventRelocationJob.JOB_TYPE), requests.capture());
+        return requests.getAllValues();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.subscription;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.fullcalendar.FullCalendarManager;
+import org.xwiki.fullcalendar.model.CalendarEvent;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SubscriptionFeedCache}, using a local HTTP server as subscribed calendar.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class SubscriptionFeedCacheTest
+{
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private static final String FEED_PATH = "/calendar.ics";
+
+    private static final String ENTITY_TAG = "\"v1\"";
+
+    private static final String NO_ENTITY_TAG = "none";
+
+    private static final byte[] FEED =
+        "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nEND:VCALENDAR\r\n".getBytes(StandardCharsets.UTF_8);
+
+    @InjectMockComponents
+    private SubscriptionFeedCache feedCache;
+
+    @MockComponent
+    private FullCalendarManager fullCalendarManager;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private HttpServer server;
+
+    private final List<String> receivedEntityTags = new CopyOnWriteArrayList<>();
+
+    private volatile boolean serverFailing;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getProperty(anyString(), anyInt()))
+            .thenAnswer(invocation -> invocation.getArgument(1));
+    }
+
+    @BeforeEach
+    void startServer() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress(LOCALHOST, 0), 0);
+        this.server.createContext(FEED_PATH, exchange -> {
+            String entityTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            this.receivedEntityTags.add(entityTag != null ? entityTag : NO_ENTITY_TAG);
+            if (this.serverFailing) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+            } else if (ENTITY_TAG.equals(entityTag)) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            } else {
+                exchange.getResponseHeaders().add("ETag", ENTITY_TAG);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, FEED.length);
+                exchange.getResponseBody().write(FEED);
+            }
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    @AfterEach
+    void stopServer()
+    {
+        this.server.stop(0);
+    }
+
+    @Test
+    void getEventsDownloadsFeedOnce() throws Exception
+    {
+        CalendarEvent event = mock(CalendarEvent.class);
+        when(this.fullCalendarManager.getICalEventsFromFile(any(), any(), any(), eq(false)))
+            .thenReturn(Collections.singletonList(event));
+
+        // the feed is downloaded in the background
+        assertEquals(Collections.emptyList(), this.feedCache.getEvents(getURL(FEED_PATH)));
+        assertEquals(Collections.singletonList(event), awaitEvents(getURL(FEED_PATH)));
+        assertEquals(Collections.singletonList(event), this.feedCache.getEvents(" " + getURL(FEED_PATH) + " "));
+
+        assertEquals(Collections.singletonList(NO_ENTITY_TAG), this.receivedEntityTags);
+        verify(this.fullCalendarManager, times(1)).getICalEventsFromFile(any(), any(), any(), eq(false));
+    }
+
+    @Test
+    void refreshUsesConditionalRequest() throws Exception
+    {
+        CalendarEvent event = mock(CalendarEvent.class);
+        when(this.fullCalendarManager.getICalEventsFromFile(any(), any(), any(), eq(false)))
+            .thenReturn(Collections.singletonList(event));
+
+        awaitEvents(getURL(FEED_PATH));
+        this.feedCache.refresh();
+
+        // The feed has not changed, so it is not parsed again.
+        assertEquals(Arrays.asList(NO_ENTITY_TAG, ENTITY_TAG), this.receivedEntityTags);
+        assertEquals(Collections.singletonList(event), this.feedCache.getEvents(getURL(FEED_PATH)));
+        verify(this.fullCalendarManager, times(1)).getICalEventsFromFile(any(), any(), any(), eq(false));
+    }
+
+    @Test
+    void refreshKeepsEventsOnFailure() throws Exception
+    {
+        CalendarEvent event = mock(CalendarEvent.class);
+        when(this.fullCalendarManager.getICalEventsFromFile(any(), any(), any(), eq(false)))
+            .thenReturn(Collections.singletonList(event));
+
+        awaitEvents(getURL(FEED_PATH));
+        this.serverFailing = true;
+        this.feedCache.refresh();
+
+        assertEquals(Arrays.asList(NO_ENTITY_TAG, ENTITY_TAG), this.receivedEntityTags);
+        assertEquals(Collections.singletonList(event), this.feedCache.getEvents(getURL(FEED_PATH)));
+    }
+
+    @Test
+    void getEventsOfMissingFeed()
+    {
+        assertTrue(this.feedCache.getEvents(getURL("/missing.ics")).isEmpty());
+
+        verifyNoInteractions(this.fullCalendarManager);
+    }
+
+    private List<CalendarEvent> awaitEvents(String url) throws InterruptedException
+    {
+        long timeout = System.currentTimeMillis() + 10000;
+        List<CalendarEvent> events = this.feedCache.getEvents(url);
+        while (events.isEmpty() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+            events = this.feedCache.getEvents(url);
+        }
+        return events;
+    }
+
+    private String getURL(String path)
+    {
+        return String.format("http://%s:%d%s", LOCALHOST, this.server.getAddress().getPort(), path);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.contrib.moccacalendar.internal.index.EventIndexStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the event table queries of {@link DefaultEventAssembly}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class DefaultEventAssemblyTest
+{
+    private static final String TEMPLATE = "MoccaCalendar.MoccaCalendarEventTemplate";
+
+    private static final String DISPLAY_HIDDEN = "displayHiddenDocuments";
+
+    private static final WikiReference WIKI = new WikiReference("xwiki");
+
+    private static final DocumentReference USER = new DocumentReference("xwiki", "XWiki", "Alice");
+
+    @InjectMockComponents
+    private DefaultEventAssembly eventAssembly;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> resolver;
+
+    @MockComponent
+    private AuthorizationManager authorizationManager;
+
+    @MockComponent
+    private EventIndexStore eventIndexStore;
+
+    @MockComponent
+    @Named("user")
+    private ConfigurationSource userPreferences;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @BeforeEach
+    void setUp()
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(this.xcontextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getWikiId()).thenReturn("xwiki");
+        when(xcontext.getUserReference()).thenReturn(USER);
+    }
+
+    @Test
+    void queryTableAndKeepViewableEvents() throws Exception
+    {
+        when(this.userPreferences.getProperty(DISPLAY_HIDDEN, 0)).thenReturn(0);
+        DocumentReference meeting = new DocumentReference("xwiki", Arrays.asList("Team", "Meeting"), "WebHome");
+        DocumentReference review = new DocumentReference("xwiki", Arrays.asList("Team", "Review"), "WebHome");
+        when(this.resolver.resolve("Team.Meeting.WebHome", WIKI)).thenReturn(meeting);
+        when(this.resolver.resolve("Team.Review.WebHome", WIKI)).thenReturn(review);
+        when(this.authorizationManager.hasAccess(Right.VIEW, USER, meeting)).thenReturn(true);
+        when(this.eventIndexStore.query("xwiki",
+            "select ev.document from MoccaCalendarIndexedEvent ev where ev.wiki = :wiki and ev.document <> :template"
+                + " and ev.recurrent = :recurrent and ev.hidden = 0 ORDER BY ev.startDate DESC",
+            Map.of("wiki", "xwiki", "template", TEMPLATE, "recurrent", 1)))
+            .thenReturn(Arrays.asList("Team.Meeting.WebHome", "Team.Review.WebHome"));
+
+        EventQuery query = new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, TEMPLATE).useEventIndex();
+        query.addRecurrentCondition(true);
+        query.setAscending(false);
+
+        assertEquals(List.of(meeting), this.eventAssembly.executeQuery(query));
+        verifyNoInteractions(this.queryManager);
+    }
+
+    @Test
+    void queryTableOfOtherWikiWithHiddenEvents() throws Exception
+    {
+        when(this.userPreferences.getProperty(DISPLAY_HIDDEN, 0)).thenReturn(1);
+        when(this.eventIndexStore.query(anyString(), anyString(), any())).thenReturn(Collections.emptyList());
+
+        EventQuery query =
+            new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, TEMPLATE, "dev").useEventIndex();
+        query.setAscending(true);
+
+        assertEquals(List.of(), this.eventAssembly.executeQuery(query));
+        verify(this.eventIndexStore).query("dev", "select ev.document from MoccaCalendarIndexedEvent ev"
+            + " where ev.wiki = :wiki and ev.document <> :template ORDER BY ev.startDate ASC",
+            Map.of("wiki", "dev", "template", TEMPLATE));
+    }
+
+    @Test
+    void tableFailureIsQueryException() throws Exception
+    {
+        when(this.userPreferences.getProperty(DISPLAY_HIDDEN, 0)).thenReturn(0);
+        XWikiException failure = mock(XWikiException.class);
+        when(this.eventIndexStore.query(anyString(), anyString(), any())).thenThrow(failure);
+
+        EventQuery query = new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, TEMPLATE).useEventIndex();
+
+        QueryException exception = assertThrows(QueryException.class, () -> this.eventAssembly.executeQuery(query));
+        assertEquals(failure, exception.getCause());
+    }
+}
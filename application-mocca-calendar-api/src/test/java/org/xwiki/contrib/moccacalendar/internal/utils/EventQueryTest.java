@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.moccacalendar.internal.utils;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.moccacalendar.internal.EventConstants;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xpn.xwiki.web.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the event table mode of {@link EventQuery}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class EventQueryTest
+{
+    private static final String TEMPLATE = "MoccaCalendar.MoccaCalendarEventTemplate";
+
+    private static final DocumentReference CALENDAR =
+        new DocumentReference("xwiki", Arrays.asList("Team", "My_Calendar"), "WebHome");
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @MockComponent
+    @Named("compact")
+    private EntityReferenceSerializer<String> compactSerializer;
+
+    @BeforeEach
+    void setUp()
+    {
+        Utils.setComponentManager(this.componentManager);
+        when(this.localSerializer.serialize(CALENDAR.getLastSpaceReference())).thenReturn("Team.My_Calendar");
+    }
+
+    @Test
+    void queryEventsOfPageInTable()
+    {
+        EventQuery query = new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, TEMPLATE, "xwiki")
+            .useEventIndex();
+        query.addDateLimits(new GregorianCalendar(2024, Calendar.MARCH, 10, 15, 30).getTime(),
+            new GregorianCalendar(2024, Calendar.MARCH, 12, 9, 0).getTime());
+        query.addRecurrentCondition(false);
+        query.addLocationFilter("page", CALENDAR);
+        query.setAscending(true);
+
+        assertTrue(query.isIndexed());
+        assertEquals("select ev.document from MoccaCalendarIndexedEvent ev", query.selectClause.toString());
+        assertEquals("where ev.wiki = :wiki and ev.document <> :template"
+            + " and (ev.endDate >= :start or ev.startDate >= :start) and ev.startDate < :end"
+            + " and ev.recurrent = :recurrent and ev.parentSpace = :space", query.whereClause.toString());
+        assertEquals("ORDER BY ev.startDate ASC", query.orderClause.toString());
+        assertEquals(Map.of("template", TEMPLATE,
+            "start", new GregorianCalendar(2024, Calendar.MARCH, 10).getTimeInMillis(),
+            "end", new GregorianCalendar(2024, Calendar.MARCH, 13).getTimeInMillis(),
+            "recurrent", 0,
+            "space", "Team.My_Calendar"), query.queryParams);
+    }
+
+    @Test
+    void queryEventsOfSpaceInTable()
+    {
+        EventQuery query = new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, TEMPLATE).useEventIndex();
+        query.addRecurrentCondition(true);
+        query.addLocationFilter("space", CALENDAR);
+        query.setAscending(false);
+
+        assertEquals("where ev.wiki = :wiki and ev.document <> :template and ev.recurrent = :recurrent"
+            + " and ev.space like :space escape '!'", query.whereClause.toString());
+        assertEquals("ORDER BY ev.startDate DESC", query.orderClause.toString());
+        assertEquals("Team.My!_Calendar.%", query.queryParams.get("space"));
+        assertEquals(1, query.queryParams.get("recurrent"));
+    }
+
+    @Test
+    void objectPropertiesAreNotInTable()
+    {
+        EventQuery query = new EventQuery(EventConstants.MOCCA_CALENDAR_EVENT_CLASS_NAME, TEMPLATE).useEventIndex();
+
+        assertThrows(IllegalStateException.class, () -> query.addObjectProperty("StringProperty", "title"));
+    }
+}